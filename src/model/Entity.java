@@ -0,0 +1,86 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Container class for a YAGO entity, with the fields of the entities collection written by MongoWriter:
+ *   its raw YAGO name, the cleanName and disambig it is shown with, the searchString it is looked up
+ *   under, and its relations as relation key -> values.
+ * @author Li Quan Khoo
+ *
+ */
+public class Entity {
+	
+	// e.g. <Paris_(band)> -> cleanName "Paris ", disambig "band"
+	private static final Pattern QUALIFIED_NAME_PATTERN = Pattern.compile("((.*)\\((.*)\\))");
+	
+	private String name;
+	private String cleanName;
+	private String searchString;
+	private String disambig;
+	private LinkedHashMap<String, List<String>> relations;
+	
+	/**
+	 * Entity without relations, with its other fields derived from the raw YAGO name
+	 */
+	public Entity(String name) {
+		this.name = name;
+		this.cleanName = name.replace("_", " ").replace("<", "").replace(">", "");
+		this.searchString = toSearchString(name);
+		this.disambig = "";
+		
+		Matcher qualifiedNameMatcher = QUALIFIED_NAME_PATTERN.matcher(this.cleanName);
+		if(qualifiedNameMatcher.find()) {
+			this.cleanName = qualifiedNameMatcher.group(2);
+			this.disambig = qualifiedNameMatcher.group(3);
+		}
+		this.relations = new LinkedHashMap<String, List<String>>();
+	}
+	
+	public Entity(String name, String cleanName, String searchString, String disambig) {
+		this.name = name;
+		this.cleanName = cleanName;
+		this.searchString = searchString;
+		this.disambig = disambig;
+		this.relations = new LinkedHashMap<String, List<String>>();
+	}
+	
+	/**
+	 * The searchString an entity is stored and looked up under, from its raw YAGO name,
+	 *   e.g. <Paris_(band)> -> "paris (band)"
+	 */
+	public static String toSearchString(String name) {
+		return name.replace("_", " ").replace("<", "").replace(">", "").toLowerCase();
+	}
+	
+	public void addRelation(String relationKey, String relationValue) {
+		List<String> values = this.relations.get(relationKey);
+		if(values == null) {
+			values = new ArrayList<String>(2);
+			this.relations.put(relationKey, values);
+		}
+		values.add(relationValue);
+	}
+	
+	public String getName() { return this.name; }
+	public String getCleanName() { return this.cleanName; }
+	public String getSearchString() { return this.searchString; }
+	public String getDisambig() { return this.disambig; }
+	public LinkedHashMap<String, List<String>> getRelations() { return this.relations; }
+	
+	public List<String> getRelationValues(String relationKey) {
+		List<String> values = this.relations.get(relationKey);
+		return (values == null) ? Collections.<String>emptyList() : values;
+	}
+	
+	@Override
+	public String toString() {
+		return this.name + " " + this.relations;
+	}
+	
+}
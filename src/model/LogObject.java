@@ -1,40 +1,58 @@
 package model;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import reader.LogLineParser;
+
 /**
  * Container class for properties within a single AOL query log line
  * @author Li Quan Khoo
  */
 public class LogObject {
 	
-	private Integer anonId;
+	private int anonId;
 	private String query;
-	private Date queryTime;
-	private String itemRank; // not really intended to be used. Change to int otherwise.
+	private long queryTime; // epoch millis
+	private int itemRank; // -1 if the line records no click
 	private String clickUrl;
 	
-	public LogObject(String logLine) throws NumberFormatException, ParseException {
-		String[] tokens = logLine.split("\t", -1);
-		this.anonId = Integer.parseInt(tokens[0]);
-		this.query = tokens[1];
-		this.queryTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(tokens[2]);
-		this.itemRank = tokens[3];
-		this.clickUrl = tokens[4];
+	public LogObject(int anonId, String query, long queryTime, int itemRank, String clickUrl) {
+		this.anonId = anonId;
+		this.query = query;
+		this.queryTime = queryTime;
+		this.itemRank = itemRank;
+		this.clickUrl = clickUrl;
+	}
+	
+	/*
+	 * Convenience constructor for a single line. Readers should reuse a LogLineParser instead
+	 */
+	public LogObject(String logLine) throws ParseException {
+		LogLineParser parser = new LogLineParser();
+		byte[] bytes = logLine.getBytes(Charset.defaultCharset());
+		if(! parser.parse(bytes, 0, bytes.length)) {
+			throw new ParseException("Malformed query log line: " + logLine, 0);
+		}
+		this.anonId = parser.getAnonId();
+		this.query = parser.getQuery();
+		this.queryTime = parser.getQueryTime();
+		this.itemRank = parser.getItemRank();
+		this.clickUrl = parser.getClickUrl();
 	}
 	
-	public Integer getAnonId() { return this.anonId; }
+	public int getAnonId() { return this.anonId; }
 	public String getQuery() { return this.query; }
 	public void setQuery(String str) { this.query = str; }
-	public Date getQueryTime() { return this.queryTime; }
-	public String getItemRank() { return this.itemRank; }
+	public Date getQueryTime() { return new Date(this.queryTime); }
+	public long getQueryTimeMillis() { return this.queryTime; }
+	public int getItemRank() { return this.itemRank; }
 	public String getClickUrl() { return this.clickUrl; }
 	
 	@Override
 	public String toString() {
-		return anonId.toString() + "\t" + query + "\t" + queryTime.toString() + "\t"
-				+ itemRank + "\t" + clickUrl;
+		return anonId + "\t" + query + "\t" + getQueryTime().toString() + "\t"
+				+ (itemRank < 0 ? "" : Integer.toString(itemRank)) + "\t" + clickUrl;
 	}
 	
 }
@@ -0,0 +1,194 @@
+package model;
+
+/**
+ * Maps each distinct (cleaned) query string to a dense int id, starting from 0.
+ * The characters of all queries live in one shared char pool and the hash table is a plain int array,
+ *   so a query costs its characters plus a few ints no matter how many sessions refer to it.
+ *
+ * SearchSession stores query ids from the default dictionary, so ids are only meaningful within one run.
+ * Safe to use from multiple threads. Only adding a query takes the lock: every add publishes a Snapshot
+ *   through a volatile field, and reads go through the latest snapshot without locking. Arrays are only
+ *   ever appended to past a snapshot's size, or replaced, so a snapshot stays consistent while it is read.
+ * @author Li Quan Khoo
+ *
+ */
+public class QueryDictionary {
+	
+	private static final int INITIAL_CAPACITY = 1 << 10;
+	
+	private static QueryDictionary defaultDictionary = new QueryDictionary();
+	
+	private char[] pool;
+	private int poolSize;
+	private int[] offsets;	// offsets[id] .. offsets[id + 1] is the query within pool
+	private int[] hashes;	// hash per id, so that resizing the table doesn't rehash the strings
+	private int size;
+	private int[] table;	// open addressing, holds id + 1, 0 if empty
+	private volatile Snapshot snapshot;
+	
+	public QueryDictionary() {
+		this.pool = new char[INITIAL_CAPACITY * 16];
+		this.poolSize = 0;
+		this.offsets = new int[INITIAL_CAPACITY + 1];
+		this.hashes = new int[INITIAL_CAPACITY];
+		this.size = 0;
+		this.table = new int[INITIAL_CAPACITY * 2];
+		this.snapshot = new Snapshot(this.pool, this.offsets, this.hashes, this.size, this.table);
+	}
+	
+	/**
+	 * The dictionary shared by SearchSession, Cleaner and QueryMapper
+	 */
+	public static QueryDictionary getDefault() {
+		return defaultDictionary;
+	}
+	
+	/**
+	 * Gives the id of the query, adding it to the dictionary if it isn't there yet.
+	 */
+	public int getId(String query) {
+		int hash = hash(query);
+		int id = this.snapshot.find(query, hash);
+		return (id >= 0) ? id : add(query, hash);
+	}
+	
+	/**
+	 * Gives the id of the query, or -1 if it isn't in the dictionary. Doesn't add anything.
+	 */
+	public int lookup(String query) {
+		return this.snapshot.find(query, hash(query));
+	}
+	
+	public String getQuery(int id) {
+		Snapshot snapshot = this.snapshot;
+		if(id < 0 || id >= snapshot.size) {
+			throw new IndexOutOfBoundsException("No query with id " + id);
+		}
+		return new String(snapshot.pool, snapshot.offsets[id], snapshot.offsets[id + 1] - snapshot.offsets[id]);
+	}
+	
+	public int getLength(int id) {
+		Snapshot snapshot = this.snapshot;
+		return snapshot.offsets[id + 1] - snapshot.offsets[id];
+	}
+	
+	public int size() {
+		return this.snapshot.size;
+	}
+	
+	private static int hash(String query) {
+		int hash = query.hashCode() * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+	
+	private synchronized int add(String query, int hash) {
+		// Another thread may have added it since the caller's lookup
+		int existing = this.snapshot.find(query, hash);
+		if(existing >= 0) {
+			return existing;
+		}
+		
+		int length = query.length();
+		if(this.poolSize + length > this.pool.length) {
+			long newLength = Math.max((long) this.pool.length * 2, (long) this.poolSize + length);
+			if(newLength > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("QueryDictionary: Character pool full");
+			}
+			char[] newPool = new char[(int) newLength];
+			System.arraycopy(this.pool, 0, newPool, 0, this.poolSize);
+			this.pool = newPool;
+		}
+		if(this.size == this.hashes.length) {
+			int[] newOffsets = new int[this.hashes.length * 2 + 1];
+			System.arraycopy(this.offsets, 0, newOffsets, 0, this.size + 1);
+			this.offsets = newOffsets;
+			int[] newHashes = new int[this.hashes.length * 2];
+			System.arraycopy(this.hashes, 0, newHashes, 0, this.size);
+			this.hashes = newHashes;
+		}
+		
+		query.getChars(0, length, this.pool, this.poolSize);
+		this.poolSize += length;
+		int id = this.size++;
+		this.hashes[id] = hash;
+		this.offsets[id + 1] = this.poolSize;
+		
+		int mask = this.table.length - 1;
+		int slot = hash & mask;
+		while(this.table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.table[slot] = id + 1;
+		if(this.size * 2 > this.table.length) {
+			rehash(this.table.length * 2);
+		}
+		this.snapshot = new Snapshot(this.pool, this.offsets, this.hashes, this.size, this.table);
+		return id;
+	}
+	
+	private void rehash(int capacity) {
+		int[] newTable = new int[capacity];
+		int mask = capacity - 1;
+		for(int id = 0; id < this.size; id++) {
+			int slot = this.hashes[id] & mask;
+			while(newTable[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = id + 1;
+		}
+		this.table = newTable;
+	}
+	
+	/*
+	 * The dictionary as of one add. Readers only look at ids below size, and treat any later id met in
+	 *   the table as an empty slot, which is where the probe stopped when the snapshot was taken.
+	 */
+	private static class Snapshot {
+		
+		private final char[] pool;
+		private final int[] offsets;
+		private final int[] hashes;
+		private final int size;
+		private final int[] table;
+		
+		private Snapshot(char[] pool, int[] offsets, int[] hashes, int size, int[] table) {
+			this.pool = pool;
+			this.offsets = offsets;
+			this.hashes = hashes;
+			this.size = size;
+			this.table = table;
+		}
+		
+		/*
+		 * Id of the query, -1 if it isn't in the snapshot
+		 */
+		private int find(String query, int hash) {
+			int mask = this.table.length - 1;
+			int slot = hash & mask;
+			int id;
+			while((id = this.table[slot] - 1) >= 0 && id < this.size) {
+				if(this.hashes[id] == hash && equalsQuery(id, query)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+		
+		private boolean equalsQuery(int id, String query) {
+			int start = this.offsets[id];
+			int length = this.offsets[id + 1] - start;
+			if(length != query.length()) {
+				return false;
+			}
+			for(int i = 0; i < length; i++) {
+				if(this.pool[start + i] != query.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+	}
+	
+}
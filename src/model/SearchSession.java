@@ -1,24 +1,32 @@
 package model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
 /**
  * Container class representing a search session
+ * Queries are held as ids into QueryDictionary.getDefault(). Serialize through gson(), which
+ *   writes them out as query strings.
  * @author Li Quan Khoo
  *
  */
 public class SearchSession {
 	
+	private int sessionId; // Position of the session within the preprocessor output
 	private Date start;
 	private Date end;
 	private transient int userId;
 	
-	// Using ArrayList instead of HashMap to support QC-htc query clusterer, which 
+	// Using a list instead of HashMap to support QC-htc query clusterer, which 
 	//  needs sequential queries to function properly
 	//private HashMap<String, Integer> queries;
-	private ArrayList<String> queries;
+	private int[] queryIds;
+	private int queryCount;
 	
 	public SearchSession() {
 		this(-1, null);
@@ -26,16 +34,29 @@ public class SearchSession {
 	
 	public SearchSession(int userId, Date startTime) {
 		//this.queries = new HashMap<String, Integer>();
-		this.queries = new ArrayList<String>();
+		this.sessionId = -1;
+		this.queryIds = new int[4];
+		this.queryCount = 0;
 		this.userId = userId;
 		this.start = startTime;
-		this.end = startTime;
+		this.end = startTime == null ? null : new Date(startTime.getTime());
+	}
+	
+	public SearchSession(int userId, long startTime) {
+		this(userId, new Date(startTime));
 	}
 	
 	public SearchSession(LogObject logObject) {
-		this(logObject.getAnonId(), logObject.getQueryTime());
+		this(logObject.getAnonId(), logObject.getQueryTimeMillis());
 		//this.queries.put(logObject.getQuery(), 1);
-		this.queries.add(logObject.getQuery());
+		addQuery(logObject.getQuery());
+	}
+	
+	/**
+	 * Gson instance which reads and writes sessions in the preprocessor's JSON layout
+	 */
+	public static Gson gson() {
+		return new GsonBuilder().registerTypeAdapterFactory(SearchSessionAdapter.FACTORY).create();
 	}
 	
 	/*
@@ -48,13 +69,45 @@ public class SearchSession {
 	}
 	*/
 	public void addQuery(String queryString) {
-		this.queries.add(queryString);
+		addQueryId(QueryDictionary.getDefault().getId(queryString));
+	}
+	
+	public void addQueryId(int queryId) {
+		if(this.queryCount == this.queryIds.length) {
+			this.queryIds = Arrays.copyOf(this.queryIds, this.queryCount * 2);
+		}
+		this.queryIds[this.queryCount++] = queryId;
 	}
 	
 	public Date getSessionStart() { return this.start; }
 	public void setSessionStart(Date sessionStart) { this.start = sessionStart; }
 	public Date getSessionEnd() { return this.end; }
 	public void setSessionEnd(Date sessionEnd) { this.end = sessionEnd; }
+	public long getSessionStartMillis() { return this.start.getTime(); }
+	
+	// Updates the end time in place so extending a session doesn't allocate a Date per query
+	public void setSessionEnd(long sessionEnd) {
+		if(this.end == null || this.end == this.start) {
+			this.end = new Date(sessionEnd);
+		} else {
+			this.end.setTime(sessionEnd);
+		}
+	}
 	public int getUserId() { return this.userId; }
+	public int getSessionId() { return this.sessionId; }
+	public void setSessionId(int sessionId) { this.sessionId = sessionId; }
+	public int getQueryCount() { return this.queryCount; }
+	public int getQueryId(int index) { return this.queryIds[index]; }
+	public int[] getQueryIds() { return Arrays.copyOf(this.queryIds, this.queryCount); }
+	
+	// Looks up the query strings. Prefer the id accessors where the strings aren't needed
+	public ArrayList<String> getQueries() {
+		QueryDictionary dictionary = QueryDictionary.getDefault();
+		ArrayList<String> queries = new ArrayList<String>(this.queryCount);
+		for(int i = 0; i < this.queryCount; i++) {
+			queries.add(dictionary.getQuery(this.queryIds[i]));
+		}
+		return queries;
+	}
 	
 }
@@ -0,0 +1,96 @@
+package model;
+
+import java.io.IOException;
+import java.util.Date;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Gson adapter keeping the preprocessor's JSON layout of a SearchSession now that the session holds
+ *   query ids: {"sessionId": .., "start": .., "end": .., "queries": ["..", ..]}
+ * Dates go through gson's own Date adapter, so they read and write exactly as before.
+ * @author Li Quan Khoo
+ *
+ */
+public class SearchSessionAdapter extends TypeAdapter<SearchSession> {
+	
+	public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+			if(type.getRawType() != SearchSession.class) {
+				return null;
+			}
+			return (TypeAdapter<T>) new SearchSessionAdapter(gson.getAdapter(Date.class));
+		}
+	};
+	
+	private TypeAdapter<Date> dateAdapter;
+	private QueryDictionary dictionary;
+	
+	public SearchSessionAdapter(TypeAdapter<Date> dateAdapter) {
+		this.dateAdapter = dateAdapter;
+		this.dictionary = QueryDictionary.getDefault();
+	}
+	
+	@Override
+	public void write(JsonWriter out, SearchSession session) throws IOException {
+		if(session == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("sessionId").value(session.getSessionId());
+		if(session.getSessionStart() != null) {
+			out.name("start");
+			this.dateAdapter.write(out, session.getSessionStart());
+		}
+		if(session.getSessionEnd() != null) {
+			out.name("end");
+			this.dateAdapter.write(out, session.getSessionEnd());
+		}
+		out.name("queries").beginArray();
+		for(int i = 0; i < session.getQueryCount(); i++) {
+			out.value(this.dictionary.getQuery(session.getQueryId(i)));
+		}
+		out.endArray();
+		out.endObject();
+	}
+	
+	@Override
+	public SearchSession read(JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		SearchSession session = new SearchSession();
+		in.beginObject();
+		while(in.hasNext()) {
+			String name = in.nextName();
+			if(name.equals("sessionId")) {
+				session.setSessionId(in.nextInt());
+			} else if(name.equals("start")) {
+				session.setSessionStart(this.dateAdapter.read(in));
+			} else if(name.equals("end")) {
+				session.setSessionEnd(this.dateAdapter.read(in));
+			} else if(name.equals("queries")) {
+				in.beginArray();
+				while(in.hasNext()) {
+					session.addQueryId(this.dictionary.getId(in.nextString()));
+				}
+				in.endArray();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		return session;
+	}
+	
+}
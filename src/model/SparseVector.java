@@ -0,0 +1,114 @@
+package model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable sparse vector of float weights over integer dimensions, as used for the semantic
+ *   representation of queries. Dimensions are kept sorted, so dot products are a linear merge.
+ * @author Li Quan Khoo
+ *
+ */
+public class SparseVector {
+	
+	public static final SparseVector EMPTY = new SparseVector(new int[] {}, new float[] {}, 0);
+	
+	private int[] dimensions;
+	private float[] weights;
+	private double norm;
+	
+	/**
+	 * Vector from the first length entries of the given parallel arrays, in any order. Weights of
+	 *   repeated dimensions are summed, and zero weights are dropped. The arrays aren't kept.
+	 */
+	public SparseVector(int[] dimensions, float[] weights, int length) {
+		
+		// Sort entries by dimension, keeping the position of each entry in the low bits
+		long[] order = new long[length];
+		for(int i = 0; i < length; i++) {
+			order[i] = ((long) dimensions[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		
+		int[] sortedDimensions = new int[length];
+		float[] sortedWeights = new float[length];
+		int size = 0;
+		for(int i = 0; i < length; i++) {
+			int dimension = (int) (order[i] >> 32);
+			float weight = weights[(int) order[i]];
+			if(size > 0 && sortedDimensions[size - 1] == dimension) {
+				sortedWeights[size - 1] += weight;
+			} else {
+				sortedDimensions[size] = dimension;
+				sortedWeights[size] = weight;
+				size++;
+			}
+		}
+		
+		int nonZero = 0;
+		double sumOfSquares = 0;
+		for(int i = 0; i < size; i++) {
+			if(sortedWeights[i] != 0) {
+				sortedDimensions[nonZero] = sortedDimensions[i];
+				sortedWeights[nonZero] = sortedWeights[i];
+				sumOfSquares += (double) sortedWeights[i] * sortedWeights[i];
+				nonZero++;
+			}
+		}
+		this.dimensions = Arrays.copyOf(sortedDimensions, nonZero);
+		this.weights = Arrays.copyOf(sortedWeights, nonZero);
+		this.norm = Math.sqrt(sumOfSquares);
+	}
+	
+	/**
+	 * Sum of the given vectors
+	 */
+	public static SparseVector sum(List<SparseVector> vectors) {
+		int length = 0;
+		for(SparseVector vector : vectors) {
+			length += vector.size();
+		}
+		int[] dimensions = new int[length];
+		float[] weights = new float[length];
+		int i = 0;
+		for(SparseVector vector : vectors) {
+			System.arraycopy(vector.dimensions, 0, dimensions, i, vector.size());
+			System.arraycopy(vector.weights, 0, weights, i, vector.size());
+			i += vector.size();
+		}
+		return new SparseVector(dimensions, weights, length);
+	}
+	
+	public int size() { return this.dimensions.length; }
+	public boolean isEmpty() { return this.dimensions.length == 0; }
+	public int getDimension(int i) { return this.dimensions[i]; }
+	public float getWeight(int i) { return this.weights[i]; }
+	public double norm() { return this.norm; }
+	
+	public double dot(SparseVector other) {
+		double dot = 0;
+		int i = 0;
+		int j = 0;
+		while(i < this.dimensions.length && j < other.dimensions.length) {
+			if(this.dimensions[i] < other.dimensions[j]) {
+				i++;
+			} else if(this.dimensions[i] > other.dimensions[j]) {
+				j++;
+			} else {
+				dot += (double) this.weights[i++] * other.weights[j++];
+			}
+		}
+		return dot;
+	}
+	
+	/**
+	 * Cosine similarity, 0 if either vector is empty
+	 */
+	public double cosine(SparseVector other) {
+		if(this.isEmpty() || other.isEmpty()) {
+			return 0;
+		}
+		return dot(other) / (this.norm * other.norm);
+	}
+	
+}
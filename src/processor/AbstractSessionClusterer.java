@@ -0,0 +1,184 @@
+package processor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import model.SearchSession;
+import reader.PreprocessedLogReader;
+import util.OrderedBatchPipeline;
+import writer.BatchFileWriter;
+import writer.SessionStreamWriter;
+
+/**
+ * Streaming engine for splitting the preprocessor's time-gap sessions into task-based sub-sessions,
+ *   as the session clusterers of Lucchese et al. 2011 do. Subclasses only decide how the queries of
+ *   one session are grouped into tasks, see cluster().
+ *
+ * Sessions are read one at a time through PreprocessedLogReader and clustered in batches on a pool of
+ *   worker threads, by an OrderedBatchPipeline. A batch which fails to cluster stops the run. At most a
+ *   fixed number of batches is in flight, so memory use doesn't depend on the size of the input. Tasks
+ *   are written out in the order of the input sessions, and numbered in that order as their sessionId,
+ *   so the output reads like preprocessor output with tasks as sessions.
+ * @author Li Quan Khoo
+ *
+ */
+public abstract class AbstractSessionClusterer {
+	
+	public static final int DEFAULT_NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_BATCH_SIZE = 256; // sessions
+	
+	private String inputDir;
+	private String outputDir;
+	private int numOfThreads;
+	private int batchSize;
+	private SessionStreamWriter.Format outputFormat;
+	
+	private DistanceMatrix.Metric metric;
+	private double distanceThreshold;
+	
+	private long sessionCount;
+	private int taskCount;
+	private int lastReportedTaskCount;
+	
+	public AbstractSessionClusterer(String inputDir, String outputDir, double distanceThreshold) {
+		this.inputDir = inputDir;
+		this.outputDir = outputDir;
+		this.numOfThreads = DEFAULT_NUM_OF_THREADS;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.outputFormat = SessionStreamWriter.Format.JSON;
+		this.metric = DistanceMatrix.Metric.CONDITIONAL;
+		this.distanceThreshold = distanceThreshold;
+	}
+	
+	public void setNumOfThreads(int numOfThreads) { this.numOfThreads = numOfThreads; }
+	public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+	public void setOutputFormat(SessionStreamWriter.Format outputFormat) { this.outputFormat = outputFormat; }
+	public void setMetric(DistanceMatrix.Metric metric) { this.metric = metric; }
+	public DistanceMatrix.Metric getMetric() { return this.metric; }
+	public double getDistanceThreshold() { return this.distanceThreshold; }
+	
+	/**
+	 * Groups the queries of a session into tasks. Each task is given as the positions of its queries
+	 *   within the session, in chronological order. Every position must be in exactly one task.
+	 * Called from several threads at once.
+	 */
+	protected abstract List<int[]> cluster(SearchSession session, SessionFeatures features);
+	
+	/**
+	 * Clusters every session of the input directory
+	 * @throws IllegalStateException	if a batch of sessions couldn't be clustered. The run stops there, and
+	 *   the tasks from that batch on are not written
+	 */
+	public void run() {
+		
+		// Clear output directory
+		new File(this.outputDir).mkdirs();
+		new BatchFileWriter(this.outputDir, this.outputFormat.getFileExtension()).deleteFilesInDir(this.outputDir);
+		
+		final PreprocessedLogReader reader = new PreprocessedLogReader(this.inputDir);
+		final SessionStreamWriter writer = new SessionStreamWriter(this.outputDir, SessionStreamWriter.DEFAULT_MAX_SESSIONS,
+				SessionStreamWriter.DEFAULT_MAX_BYTES, this.outputFormat);
+		this.sessionCount = 0;
+		this.taskCount = 0;
+		this.lastReportedTaskCount = 0;
+		
+		OrderedBatchPipeline<SearchSession, ArrayList<SearchSession>> pipeline = new OrderedBatchPipeline<SearchSession, ArrayList<SearchSession>>(
+				getClass().getSimpleName(), this.numOfThreads, this.batchSize) {
+			@Override
+			protected SearchSession read() {
+				SearchSession session = reader.readNextSession();
+				if(session != null) {
+					sessionCount++;
+				}
+				return session;
+			}
+			
+			@Override
+			protected ArrayList<SearchSession> process(ArrayList<SearchSession> batch) {
+				return clusterBatch(batch);
+			}
+			
+			@Override
+			protected void write(ArrayList<SearchSession> batch, ArrayList<SearchSession> tasks) {
+				AbstractSessionClusterer.this.write(tasks, writer);
+			}
+		};
+		
+		try {
+			pipeline.run();
+		} catch (ExecutionException e) {
+			System.out.println(getClass().getSimpleName() + ": Aborted after " + this.taskCount + " tasks, error clustering sessions: " + e.getCause());
+			throw new IllegalStateException(getClass().getSimpleName() + ": Error clustering sessions", e.getCause());
+		} catch (InterruptedException e) {
+			System.out.println(getClass().getSimpleName() + ": Interrupted");
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			writer.close();
+		}
+		System.out.println(getClass().getSimpleName() + ": " + this.sessionCount + " sessions split into " + this.taskCount + " tasks");
+	}
+	
+	private ArrayList<SearchSession> clusterBatch(ArrayList<SearchSession> batch) {
+		ArrayList<SearchSession> tasks = new ArrayList<SearchSession>();
+		for(SearchSession session : batch) {
+			for(int[] task : cluster(session, new SessionFeatures(session))) {
+				SearchSession subSession = new SearchSession(session.getUserId(), session.getSessionStart());
+				subSession.setSessionEnd(session.getSessionEnd());
+				for(int position : task) {
+					subSession.addQueryId(session.getQueryId(position));
+				}
+				tasks.add(subSession);
+			}
+		}
+		return tasks;
+	}
+	
+	private void write(ArrayList<SearchSession> tasks, SessionStreamWriter writer) {
+		for(SearchSession task : tasks) {
+			task.setSessionId(this.taskCount++);
+			writer.write(task);
+		}
+		if(this.taskCount - this.lastReportedTaskCount >= 100000) {
+			this.lastReportedTaskCount = this.taskCount;
+			System.out.println(getClass().getSimpleName() + ": ~" + this.sessionCount / 1000 + "k sessions read, " + this.taskCount + " tasks written");
+		}
+	}
+	
+	/**
+	 * Whether the queries at the two positions of the session are within the distance threshold
+	 */
+	protected boolean isNear(SessionFeatures features, int position1, int position2) {
+		return QueryDistance.isWithin(features.queries[position1], features.fingerprints[position1],
+				features.queries[position2], features.fingerprints[position2], this.metric, this.distanceThreshold);
+	}
+	
+	protected double distance(SessionFeatures features, int position1, int position2) {
+		return QueryDistance.distance(features.queries[position1], features.fingerprints[position1],
+				features.queries[position2], features.fingerprints[position2], this.metric);
+	}
+	
+	/*
+	 * Per-query features of one session, looked up once rather than once per comparison
+	 */
+	protected static class SessionFeatures {
+		private String[] queries;
+		private int[][] fingerprints;
+		
+		public SessionFeatures(SearchSession session) {
+			FingerprintCache fingerprintCache = FingerprintCache.getDefault();
+			this.queries = session.getQueries().toArray(new String[] {});
+			this.fingerprints = new int[this.queries.length][];
+			for(int i = 0; i < this.queries.length; i++) {
+				this.fingerprints[i] = fingerprintCache.get(session.getQueryId(i));
+			}
+		}
+		
+		public int size() {
+			return this.queries.length;
+		}
+	}
+	
+}
@@ -5,33 +5,46 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
+import java.util.HashSet;
 
-import libs.Stemmer;
+import model.QueryDictionary;
 
 /**
  * Class implementing stopwords removal.
  * Calling filter(String) will return a string with punctuation marks except ' and with
  *   stopwords initialized to the class removed.
+ * filter(String) is safe to call from multiple threads. Each thread gets its own buffers, and stems
+ *   come from a shared StemCache.
  *   
  * @author Li Quan Khoo
  */
 public class Cleaner {
 	
 	public static final String DEFAULT_INPUT_FILE_PATH = "src/config/stopwords.ini";
-	private static final String nonsenseRegex = "[\\p{Punct} ]*";
-	private static final String preStemmingFilterRegex = "[[\\p{Punct}]&&[^. ']]"; // All punctuation marks except '.', ' ', '\''
 	
-	private char[] stemmerCharArray;
-	private Stemmer stemmer;
 	private ArrayList<String> stopwords;
+	private HashSet<String> stopwordSet;
+	private StemCache stemCache;
+	
+	// Per-thread working state of filter()
+	private ThreadLocal<FilterState> filterState = new ThreadLocal<FilterState>() {
+		@Override
+		protected FilterState initialValue() {
+			return new FilterState();
+		}
+	};
 	
 	public Cleaner() {
 		this(DEFAULT_INPUT_FILE_PATH);
 	}
 	
 	public Cleaner(String inputFilePath) {
+		this(inputFilePath, StemCache.getDefault());
+	}
+	
+	public Cleaner(String inputFilePath, StemCache stemCache) {
 		
+		this.stemCache = stemCache;
 		this.stopwords = new ArrayList<String>();
 		
 		File inputFile = new File(inputFilePath);
@@ -53,35 +66,90 @@ public class Cleaner {
 		} catch (IOException e) {
 			System.out.println("IO exception reading stopwords file");
 		}
+		this.stopwordSet = new HashSet<String>(this.stopwords);
 	}
 	
+	/*
+	 * ASCII punctuation, i.e. \p{Punct}
+	 */
+	private static boolean isPunct(char c) {
+		return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+	}
+	
+	/**
+	 * Single pass over the string:
+	 *   A string made up of nothing but punctuation marks and spaces is nonsense, and gives "".
+	 *   All punctuation marks except '.' and '\'' split tokens, as spaces do.
+	 *   Tokens which aren't stopwords are Porter-stemmed and joined with single spaces.
+	 * Empty tokens (from consecutive separators) are kept except at the end, as String.split(" ") does,
+	 *   so the output is the same as that of the regex-based implementation this replaced.
+	 */
 	public String filter(String string) {
-		String output = "";
+		
+		int length = string.length();
 		
 		// If string is nonsense, ignore
-		if (! Pattern.matches(nonsenseRegex, string)) {
-			
-			// Replace most symbols with spaces
-			string = string.replaceAll(preStemmingFilterRegex, " ");
-			
-			String[] tokens = string.split(" ");
-			for(String token : tokens) {
-				if(! this.stopwords.contains(token)) {
-					
-					// Porter-stemming
-					this.stemmer = new Stemmer();
-					this.stemmerCharArray = token.toCharArray();
-					this.stemmer.add(stemmerCharArray, stemmerCharArray.length);
-					this.stemmer.stem();
-					if(output.equals("")) {
-						output += this.stemmer.toString();
-					} else {
-						output += " " + this.stemmer.toString();
+		boolean nonsense = true;
+		for(int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if(c != ' ' && ! isPunct(c)) {
+				nonsense = false;
+				break;
+			}
+		}
+		if(nonsense) {
+			return "";
+		}
+		
+		FilterState state = this.filterState.get();
+		StringBuilder output = state.output;
+		output.setLength(0);
+		char[] token = state.token(length);
+		int tokenLength = 0;
+		int pendingEmptyTokens = 0;
+		
+		for(int i = 0; i <= length; i++) {
+			char c = i < length ? string.charAt(i) : ' ';
+			if(c == ' ' || (isPunct(c) && c != '.' && c != '\'')) {
+				if(tokenLength == 0) {
+					pendingEmptyTokens++;
+				} else {
+					// Empty tokens count only once a non-empty token follows them
+					for(; pendingEmptyTokens > 0; pendingEmptyTokens--) {
+						appendToken(state, token, 0);
 					}
+					appendToken(state, token, tokenLength);
+					tokenLength = 0;
 				}
+			} else {
+				token[tokenLength++] = c;
 			}
 		}
-		return output;
+		return output.toString();
+	}
+	
+	private void appendToken(FilterState state, char[] token, int tokenLength) {
+		String tokenString = new String(token, 0, tokenLength);
+		if(this.stopwordSet.contains(tokenString)) {
+			return;
+		}
+		
+		// Porter-stemming, memoized
+		if(state.output.length() != 0) {
+			state.output.append(' ');
+		}
+		if(tokenLength != 0) {
+			state.output.append(this.stemCache.stem(tokenString));
+		}
+	}
+	
+	/**
+	 * Filters the string and interns the result into the default QueryDictionary.
+	 * Returns the id of the cleaned query, or -1 if nothing is left of it.
+	 */
+	public int filterToId(String string) {
+		String output = filter(string);
+		return output.equals("") ? -1 : QueryDictionary.getDefault().getId(output);
 	}
 	
 	public void printStopwords() {
@@ -90,4 +158,16 @@ public class Cleaner {
 		}
 	}
 	
+	private static class FilterState {
+		private StringBuilder output = new StringBuilder();
+		private char[] token = new char[64];
+		
+		public char[] token(int capacity) {
+			if(this.token.length < capacity) {
+				this.token = new char[capacity];
+			}
+			return this.token;
+		}
+	}
+	
 }
@@ -0,0 +1,516 @@
+package processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import model.QueryDictionary;
+import util.LongIntHashMap;
+import util.Varint;
+import writer.ISearchMapSink;
+import writer.MongoSearchMapBulkWriter;
+
+/**
+ * Sink for QueryMapper which counts co-occurrences in memory, so that the queryMap is written once per
+ *   search string with its final sessions and counts, instead of being updated for every session.
+ *
+ * Search strings are numbered through a private QueryDictionary. Per id the aggregator keeps the list of
+ *   sessions, and a LongIntHashMap keyed by pairs of ids counts the sessions each pair shared, in both
+ *   directions. Once these take more than maxBytes they are spilled to a run file in id order and
+ *   cleared. merge() spills what is left and merges all runs, handing each search string's totals to
+ *   a visitor in id order, so that memory use only depends on the largest single record. At most
+ *   MAX_MERGE_FAN_IN runs are open at once: beyond that, consecutive runs are first merged into
+ *   bigger runs, as many passes as needed.
+ *
+ * Run files hold, per id with anything recorded, as varints: id + 1, numOfSessions, the session ids,
+ *   numOfCooccurring, then each co-occurring id as the gap from the previous one and its count.
+ *   A 0 ends the file.
+ * A run which can't be written or merged stops the aggregation with an IllegalStateException from
+ *   addSession() or close(), as a failed batch stops QueryMapper, so that incomplete counts are never
+ *   taken for final ones. The run files are kept when the merge fails.
+ * Sessions are added from one thread at a time.
+ * @author Li Quan Khoo
+ *
+ */
+public class CooccurrenceAggregator implements ISearchMapSink {
+	
+	public static final String DEFAULT_SPILL_DIR = "output/cooccurrence-out/";
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	public static final int MAX_MERGE_FAN_IN = 64;
+	
+	private static final int INITIAL_CAPACITY = 1 << 10;
+	
+	private MongoSearchMapBulkWriter output; // may be null, see close()
+	private String spillDir;
+	private long maxBytes;
+	
+	private QueryDictionary searchStrings;
+	private int[][] sessionLists;
+	private int[] sessionListSizes;
+	private long numOfSessionIds; // held in sessionLists
+	private LongIntHashMap pairCounts;
+	private ArrayList<File> runs;
+	private int numOfRunFiles; // ever written, to name the next one
+	
+	private long sessionCount = 0;
+	
+	public CooccurrenceAggregator(MongoSearchMapBulkWriter output) {
+		this(output, DEFAULT_SPILL_DIR, DEFAULT_MAX_BYTES);
+	}
+	
+	public CooccurrenceAggregator(MongoSearchMapBulkWriter output, String spillDir, long maxBytes) {
+		this.output = output;
+		this.spillDir = spillDir;
+		this.maxBytes = maxBytes;
+		this.searchStrings = new QueryDictionary();
+		this.sessionLists = new int[INITIAL_CAPACITY][];
+		this.sessionListSizes = new int[INITIAL_CAPACITY];
+		this.numOfSessionIds = 0;
+		this.pairCounts = new LongIntHashMap();
+		this.runs = new ArrayList<File>();
+		this.numOfRunFiles = 0;
+	}
+	
+	/**
+	 * @throws IllegalStateException	if the counts held in memory had to be spilled and couldn't be
+	 */
+	@Override
+	public void addSession(int sessionId, String[] searchStrings) {
+		int[] ids = new int[searchStrings.length];
+		for(int i = 0; i < searchStrings.length; i++) {
+			ids[i] = this.searchStrings.getId(searchStrings[i]);
+			addSessionId(ids[i], sessionId);
+		}
+		for(int i = 0; i < ids.length; i++) {
+			for(int j = 0; j < ids.length; j++) {
+				if(ids[i] != ids[j]) {
+					this.pairCounts.add(LongIntHashMap.pack(ids[i], ids[j]), 1);
+				}
+			}
+		}
+		this.sessionCount++;
+		
+		if(getMemoryBytes() > this.maxBytes) {
+			spill();
+		}
+	}
+	
+	private void addSessionId(int id, int sessionId) {
+		if(id >= this.sessionLists.length) {
+			int capacity = Math.max(id + 1, this.sessionLists.length * 2);
+			this.sessionLists = Arrays.copyOf(this.sessionLists, capacity);
+			this.sessionListSizes = Arrays.copyOf(this.sessionListSizes, capacity);
+		}
+		int[] sessionList = this.sessionLists[id];
+		if(sessionList == null) {
+			sessionList = new int[4];
+			this.sessionLists[id] = sessionList;
+		} else if(this.sessionListSizes[id] == sessionList.length) {
+			sessionList = Arrays.copyOf(sessionList, sessionList.length * 2);
+			this.sessionLists[id] = sessionList;
+		}
+		sessionList[this.sessionListSizes[id]++] = sessionId;
+		this.numOfSessionIds++;
+	}
+	
+	/**
+	 * Approximate bytes held by counts and session lists which haven't been spilled yet, i.e. what a spill
+	 *   frees. The per id arrays indexing the session lists stay, as the dictionary does
+	 */
+	public long getMemoryBytes() {
+		return this.pairCounts.getMemoryBytes() + this.numOfSessionIds * 4 * 2;
+	}
+	
+	public int getNumOfSearchStrings() {
+		return this.searchStrings.size();
+	}
+	
+	public String getSearchString(int id) {
+		return this.searchStrings.getQuery(id);
+	}
+	
+	/**
+	 * The dictionary numbering the search strings, e.g. to look up their ids
+	 */
+	public QueryDictionary getSearchStrings() {
+		return this.searchStrings;
+	}
+	
+	public long getSessionCount() {
+		return this.sessionCount;
+	}
+	
+	/**
+	 * Writes the counts and session lists held in memory to a new run file, in id order, and clears them
+	 * @throws IllegalStateException	if the run file couldn't be written, in which case its counts are lost
+	 */
+	private void spill() {
+		if(this.numOfSessionIds == 0) {
+			return;
+		}
+		File run = newRunFile();
+		long[] pairs = this.pairCounts.sortedKeys();
+		try {
+			RunWriter writer = new RunWriter(run);
+			try {
+				int[] cooccurringIds = new int[16];
+				int[] counts = new int[16];
+				int p = 0;
+				for(int id = 0; id < this.sessionLists.length; id++) {
+					if(this.sessionListSizes[id] == 0) {
+						continue; // a search string with pairs was always found in a session
+					}
+					int numOfCooccurring = 0;
+					for(; p < pairs.length && LongIntHashMap.high(pairs[p]) == id; p++) {
+						if(numOfCooccurring == cooccurringIds.length) {
+							cooccurringIds = Arrays.copyOf(cooccurringIds, numOfCooccurring * 2);
+							counts = Arrays.copyOf(counts, numOfCooccurring * 2);
+						}
+						cooccurringIds[numOfCooccurring] = LongIntHashMap.low(pairs[p]);
+						counts[numOfCooccurring++] = this.pairCounts.get(pairs[p]);
+					}
+					writer.writeRecord(id, this.sessionLists[id], this.sessionListSizes[id], cooccurringIds, counts, numOfCooccurring);
+				}
+			} finally {
+				writer.close();
+			}
+			this.runs.add(run);
+			System.out.println("CooccurrenceAggregator: Spilled " + this.numOfSessionIds + " session ids and " + pairs.length
+					+ " pair counts to " + run.getPath());
+		} catch (IOException e) {
+			System.out.println("CooccurrenceAggregator: Unable to spill to " + run.getPath() + ", counts lost: " + e.getMessage());
+			run.delete();
+			throw new IllegalStateException("CooccurrenceAggregator: Unable to spill to " + run.getPath(), e);
+		}
+		
+		this.sessionLists = new int[this.sessionLists.length][];
+		this.sessionListSizes = new int[this.sessionListSizes.length];
+		this.numOfSessionIds = 0;
+		this.pairCounts.clear();
+	}
+	
+	private File newRunFile() {
+		new File(this.spillDir).mkdirs();
+		return new File(this.spillDir, "run-" + (this.numOfRunFiles++) + ".bin");
+	}
+	
+	/**
+	 * Hands the totals of every search string to the visitor, in id order. Can be called more than once
+	 * @throws IOException	if the runs couldn't be merged. The runs of the last complete pass are kept
+	 */
+	public void merge(ICooccurrenceVisitor visitor) throws IOException {
+		spill();
+		
+		// Merge consecutive runs, so that session lists stay in the order they were added
+		while(this.runs.size() > MAX_MERGE_FAN_IN) {
+			ArrayList<File> mergedRuns = new ArrayList<File>();
+			for(int start = 0; start < this.runs.size(); start += MAX_MERGE_FAN_IN) {
+				List<File> group = this.runs.subList(start, Math.min(start + MAX_MERGE_FAN_IN, this.runs.size()));
+				if(group.size() == 1) {
+					mergedRuns.add(group.get(0));
+					continue;
+				}
+				File mergedRun = newRunFile();
+				mergedRuns.add(mergedRun);
+				try {
+					mergeInto(group, mergedRun);
+				} catch (IOException e) {
+					
+					// Keep the runs of the last complete pass, and drop what this pass has written
+					for(File run : mergedRuns) {
+						if(! this.runs.contains(run)) {
+							run.delete();
+						}
+					}
+					throw e;
+				}
+			}
+			for(File run : this.runs) {
+				if(! mergedRuns.contains(run)) {
+					run.delete();
+				}
+			}
+			System.out.println("CooccurrenceAggregator: Merged " + this.runs.size() + " runs into " + mergedRuns.size());
+			this.runs = mergedRuns;
+		}
+		mergeRuns(this.runs, visitor);
+	}
+	
+	/*
+	 * Merges the given runs into a new run file
+	 */
+	private static void mergeInto(List<File> runs, File mergedRun) throws IOException {
+		final RunWriter writer = new RunWriter(mergedRun);
+		try {
+			mergeRuns(runs, new ICooccurrenceVisitor() {
+				@Override
+				public void visit(int searchStringId, int[] sessionIds, int numOfSessions, int[] cooccurringIds, int[] counts, int numOfCooccurring) {
+					try {
+						writer.writeRecord(searchStringId, sessionIds, numOfSessions, cooccurringIds, counts, numOfCooccurring);
+					} catch (IOException e) {
+						throw new UncheckedRunException(e);
+					}
+				}
+			});
+		} catch (UncheckedRunException e) {
+			throw e.getCause();
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/*
+	 * Merges the given runs, at most MAX_MERGE_FAN_IN of them, handing the totals to the visitor in id order
+	 */
+	private static void mergeRuns(List<File> runs, ICooccurrenceVisitor visitor) throws IOException {
+		PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(Math.max(1, runs.size()), RUN_ORDER);
+		try {
+			for(int i = 0; i < runs.size(); i++) {
+				RunReader reader = new RunReader(runs.get(i), i);
+				if(reader.next()) {
+					readers.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			
+			int[] sessionIds = new int[16];
+			int[] cooccurringIds = new int[16];
+			int[] counts = new int[16];
+			int[] mergedIds = new int[16];
+			int[] mergedCounts = new int[16];
+			while(! readers.isEmpty()) {
+				int id = readers.peek().id;
+				int numOfSessions = 0;
+				int numOfCooccurring = 0;
+				
+				// Records of the same id from all runs, in run order
+				while(! readers.isEmpty() && readers.peek().id == id) {
+					RunReader reader = readers.poll();
+					if(numOfSessions + reader.numOfSessions > sessionIds.length) {
+						sessionIds = Arrays.copyOf(sessionIds, Math.max(sessionIds.length * 2, numOfSessions + reader.numOfSessions));
+					}
+					System.arraycopy(reader.sessionIds, 0, sessionIds, numOfSessions, reader.numOfSessions);
+					numOfSessions += reader.numOfSessions;
+					
+					// Merge the sorted co-occurrences, adding up the counts of ids in both
+					int capacity = numOfCooccurring + reader.numOfCooccurring;
+					if(capacity > mergedIds.length) {
+						mergedIds = new int[Math.max(mergedIds.length * 2, capacity)];
+						mergedCounts = new int[mergedIds.length];
+					}
+					int i = 0;
+					int j = 0;
+					int merged = 0;
+					while(i < numOfCooccurring || j < reader.numOfCooccurring) {
+						if(j == reader.numOfCooccurring || (i < numOfCooccurring && cooccurringIds[i] < reader.cooccurringIds[j])) {
+							mergedIds[merged] = cooccurringIds[i];
+							mergedCounts[merged++] = counts[i++];
+						} else if(i == numOfCooccurring || reader.cooccurringIds[j] < cooccurringIds[i]) {
+							mergedIds[merged] = reader.cooccurringIds[j];
+							mergedCounts[merged++] = reader.counts[j++];
+						} else {
+							mergedIds[merged] = cooccurringIds[i];
+							mergedCounts[merged++] = counts[i++] + reader.counts[j++];
+						}
+					}
+					int[] swap = cooccurringIds;
+					cooccurringIds = mergedIds;
+					mergedIds = swap;
+					swap = counts;
+					counts = mergedCounts;
+					mergedCounts = swap;
+					numOfCooccurring = merged;
+					
+					if(reader.next()) {
+						readers.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+				visitor.visit(id, sessionIds, numOfSessions, cooccurringIds, counts, numOfCooccurring);
+			}
+		} finally {
+			for(RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+	
+	/**
+	 * Merges all counts into the output writer, if one was given, and closes it. Deletes the run files
+	 * @throws IllegalStateException	if the runs couldn't be merged. The output is closed with what it got
+	 *   so far, and the run files are kept
+	 */
+	@Override
+	public void close() {
+		if(this.output != null) {
+			try {
+				merge(new ICooccurrenceVisitor() {
+					private String[] names = new String[16];
+					
+					@Override
+					public void visit(int searchStringId, int[] sessionIds, int numOfSessions, int[] cooccurringIds, int[] counts, int numOfCooccurring) {
+						if(numOfCooccurring > this.names.length) {
+							this.names = new String[Math.max(this.names.length * 2, numOfCooccurring)];
+						}
+						for(int i = 0; i < numOfCooccurring; i++) {
+							this.names[i] = getSearchString(cooccurringIds[i]);
+						}
+						output.addSearchString(getSearchString(searchStringId), sessionIds, numOfSessions, this.names, counts, numOfCooccurring);
+					}
+				});
+			} catch (IOException e) {
+				System.out.println("CooccurrenceAggregator: Unable to merge runs, kept in " + this.spillDir + ": " + e.getMessage());
+				throw new IllegalStateException("CooccurrenceAggregator: Unable to merge runs", e);
+			} finally {
+				this.output.close();
+			}
+		}
+		for(File run : this.runs) {
+			run.delete();
+		}
+		this.runs.clear();
+		System.out.println("CooccurrenceAggregator: Aggregated " + this.sessionCount + " sessions over "
+				+ this.searchStrings.size() + " search strings");
+	}
+	
+	private static final Comparator<RunReader> RUN_ORDER = new Comparator<RunReader>() {
+		@Override
+		public int compare(RunReader a, RunReader b) {
+			if(a.id != b.id) {
+				return a.id < b.id ? -1 : 1;
+			}
+			return a.runIndex - b.runIndex;
+		}
+	};
+	
+	private static class RunWriter {
+		private DataOutputStream out;
+		private byte[] buffer = new byte[10];
+		
+		public RunWriter(File file) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+		
+		public void writeInt(int value) throws IOException {
+			this.out.write(this.buffer, 0, Varint.write(value & 0xffffffffL, this.buffer, 0));
+		}
+		
+		public void writeRecord(int id, int[] sessionIds, int numOfSessions, int[] cooccurringIds, int[] counts, int numOfCooccurring)
+				throws IOException {
+			writeInt(id + 1);
+			writeInt(numOfSessions);
+			for(int i = 0; i < numOfSessions; i++) {
+				writeInt(sessionIds[i]);
+			}
+			writeInt(numOfCooccurring);
+			int previous = 0;
+			for(int i = 0; i < numOfCooccurring; i++) {
+				writeInt(cooccurringIds[i] - previous);
+				writeInt(counts[i]);
+				previous = cooccurringIds[i];
+			}
+		}
+		
+		/*
+		 * Ends the run and closes the file
+		 */
+		public void close() throws IOException {
+			writeInt(0);
+			this.out.close();
+		}
+	}
+	
+	/*
+	 * Carries a write failure out of ICooccurrenceVisitor.visit(), which can't throw IOException
+	 */
+	private static class UncheckedRunException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		public UncheckedRunException(IOException cause) {
+			super(cause);
+		}
+		
+		@Override
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+	
+	/*
+	 * Current record of a run file
+	 */
+	private static class RunReader {
+		private DataInputStream in;
+		private int runIndex;
+		private int id;
+		private int[] sessionIds = new int[16];
+		private int numOfSessions;
+		private int[] cooccurringIds = new int[16];
+		private int[] counts = new int[16];
+		private int numOfCooccurring;
+		
+		public RunReader(File file, int runIndex) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			this.runIndex = runIndex;
+		}
+		
+		/*
+		 * Reads the next record. False at the end of the run
+		 */
+		public boolean next() throws IOException {
+			try {
+				this.id = readInt() - 1;
+				if(this.id < 0) {
+					return false;
+				}
+				this.numOfSessions = readInt();
+				if(this.numOfSessions > this.sessionIds.length) {
+					this.sessionIds = new int[Math.max(this.sessionIds.length * 2, this.numOfSessions)];
+				}
+				for(int i = 0; i < this.numOfSessions; i++) {
+					this.sessionIds[i] = readInt();
+				}
+				this.numOfCooccurring = readInt();
+				if(this.numOfCooccurring > this.cooccurringIds.length) {
+					this.cooccurringIds = new int[Math.max(this.cooccurringIds.length * 2, this.numOfCooccurring)];
+					this.counts = new int[this.cooccurringIds.length];
+				}
+				int previous = 0;
+				for(int i = 0; i < this.numOfCooccurring; i++) {
+					previous += readInt();
+					this.cooccurringIds[i] = previous;
+					this.counts[i] = readInt();
+				}
+				return true;
+			} catch (EOFException e) {
+				throw new IOException("Truncated run file");
+			}
+		}
+		
+		private int readInt() throws IOException {
+			return (int) Varint.read(this.in);
+		}
+		
+		public void close() {
+			try {
+				this.in.close();
+			} catch (IOException e) {
+				// nothing left to read
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,376 @@
+package processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import model.QueryDictionary;
+
+/**
+ * Undirected graph of entity search strings, joined by an edge wherever two of them were found in the
+ *   same session, weighted by the number of sessions they shared. Built from a CooccurrenceAggregator.
+ *
+ * The graph is held in compressed sparse row form: the neighbors of vertex v are targets[offsets[v]]
+ *   .. targets[offsets[v + 1] - 1] in ascending order, with their weights at the same positions in
+ *   weights. Each edge is stored from both ends. At 8 bytes per edge end this holds corpus scale graphs
+ *   that JUNG's object graphs can't; CooccurrenceJungAdapter exports small subgraphs to JUNG.
+ *
+ * On top of it: weighted degrees, PageRank with the rank of each vertex computed in parallel from its
+ *   neighbors, and label propagation community detection (Raghavan, Albert and Kumara 2007).
+ * Vertex ids are the aggregator's search string ids. The graph is immutable, and safe to read from
+ *   multiple threads.
+ * @author Li Quan Khoo
+ *
+ */
+public class CooccurrenceGraph {
+	
+	public static final double DEFAULT_DAMPING = 0.85;
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+	public static final double DEFAULT_TOLERANCE = 1e-6; // L1 change of all ranks between iterations
+	public static final int DEFAULT_NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	// Vertices per PageRank task
+	private static final int CHUNK_SIZE = 4096;
+	
+	private QueryDictionary labels;
+	private int numOfVertices;
+	private int[] offsets;
+	private int[] targets;
+	private float[] weights;
+	
+	private CooccurrenceGraph(QueryDictionary labels, int numOfVertices, int[] offsets, int[] targets, float[] weights) {
+		this.labels = labels;
+		this.numOfVertices = numOfVertices;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+	}
+	
+	public static CooccurrenceGraph build(CooccurrenceAggregator aggregator) throws IOException {
+		return build(aggregator, 1);
+	}
+	
+	/**
+	 * Graph of all pairs which shared at least minCount sessions
+	 */
+	public static CooccurrenceGraph build(CooccurrenceAggregator aggregator, int minCount) throws IOException {
+		Builder builder = new Builder(aggregator.getNumOfSearchStrings(), minCount);
+		aggregator.merge(builder);
+		CooccurrenceGraph graph = builder.finish(aggregator.getSearchStrings());
+		System.out.println("CooccurrenceGraph: " + graph.getNumOfVertices() + " vertices, " + graph.getNumOfEdges() + " edges");
+		return graph;
+	}
+	
+	public int getNumOfVertices() { return this.numOfVertices; }
+	public long getNumOfEdges() { return this.offsets[this.numOfVertices] / 2; }
+	public int getDegree(int vertex) { return this.offsets[vertex + 1] - this.offsets[vertex]; }
+	
+	/**
+	 * Position of the vertex's first neighbor in getTarget() and getWeight()
+	 */
+	public int getOffset(int vertex) { return this.offsets[vertex]; }
+	public int getTarget(int position) { return this.targets[position]; }
+	public float getWeight(int position) { return this.weights[position]; }
+	
+	public String getLabel(int vertex) {
+		return this.labels.getQuery(vertex);
+	}
+	
+	/**
+	 * Vertex of the search string, -1 if it isn't in the graph
+	 */
+	public int indexOf(String searchString) {
+		return this.labels.lookup(searchString);
+	}
+	
+	/**
+	 * Weight of the edge between the vertices, 0 if there is none
+	 */
+	public float getWeight(int vertex1, int vertex2) {
+		int position = Arrays.binarySearch(this.targets, this.offsets[vertex1], this.offsets[vertex1 + 1], vertex2);
+		return (position >= 0) ? this.weights[position] : 0;
+	}
+	
+	/**
+	 * Total weight of the edges of each vertex, i.e. the number of (session, other search string)
+	 *   pairs it was found in
+	 */
+	public double[] weightedDegrees() {
+		double[] degrees = new double[this.numOfVertices];
+		for(int vertex = 0; vertex < this.numOfVertices; vertex++) {
+			degrees[vertex] = weightedDegree(vertex);
+		}
+		return degrees;
+	}
+	
+	private double weightedDegree(int vertex) {
+		double degree = 0;
+		for(int i = this.offsets[vertex]; i < this.offsets[vertex + 1]; i++) {
+			degree += this.weights[i];
+		}
+		return degree;
+	}
+	
+	public double[] pageRank() {
+		return pageRank(DEFAULT_DAMPING, DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE, DEFAULT_NUM_OF_THREADS);
+	}
+	
+	/**
+	 * Weighted PageRank, summing to 1. A random walk follows each edge in proportion to its weight.
+	 *   Vertices without edges spread their rank evenly over all vertices.
+	 * As every edge is stored from both ends, the new rank of a vertex is a sum over its own neighbors,
+	 *   so the vertices can be split into chunks computed on separate threads without any locking.
+	 */
+	public double[] pageRank(double damping, int maxIterations, double tolerance, int numOfThreads) {
+		final int n = this.numOfVertices;
+		if(n == 0) {
+			return new double[0];
+		}
+		final double[] degrees = weightedDegrees();
+		final double[] contributions = new double[n]; // rank per unit of edge weight
+		double[] ranks = new double[n];
+		Arrays.fill(ranks, 1.0 / n);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numOfThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "CooccurrenceGraph-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for(int iteration = 1; iteration <= maxIterations; iteration++) {
+				double danglingRank = 0;
+				for(int vertex = 0; vertex < n; vertex++) {
+					if(degrees[vertex] > 0) {
+						contributions[vertex] = ranks[vertex] / degrees[vertex];
+					} else {
+						danglingRank += ranks[vertex];
+					}
+				}
+				final double base = (1 - damping) / n + damping * danglingRank / n;
+				final double d = damping;
+				final double[] oldRanks = ranks;
+				final double[] newRanks = new double[n];
+				
+				LinkedList<Future<Double>> chunks = new LinkedList<Future<Double>>();
+				for(int start = 0; start < n; start += CHUNK_SIZE) {
+					final int chunkStart = start;
+					final int chunkEnd = Math.min(n, start + CHUNK_SIZE);
+					chunks.add(executor.submit(new Callable<Double>() {
+						@Override
+						public Double call() {
+							double change = 0;
+							for(int vertex = chunkStart; vertex < chunkEnd; vertex++) {
+								double sum = 0;
+								for(int i = offsets[vertex]; i < offsets[vertex + 1]; i++) {
+									sum += contributions[targets[i]] * weights[i];
+								}
+								newRanks[vertex] = base + d * sum;
+								change += Math.abs(newRanks[vertex] - oldRanks[vertex]);
+							}
+							return change;
+						}
+					}));
+				}
+				double change = 0;
+				for(Future<Double> chunk : chunks) {
+					change += chunk.get();
+				}
+				ranks = newRanks;
+				if(change < tolerance) {
+					System.out.println("CooccurrenceGraph: PageRank converged after " + iteration + " iterations");
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			System.out.println("CooccurrenceGraph: PageRank interrupted");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.out.println("CooccurrenceGraph: Error computing PageRank: " + e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return ranks;
+	}
+	
+	public int[] labelPropagation() {
+		return labelPropagation(DEFAULT_MAX_ITERATIONS, 0);
+	}
+	
+	/**
+	 * Community of each vertex, given as the id of one of its members. Every vertex starts in a community
+	 *   of its own, and repeatedly joins the community with the most edge weight among its neighbors,
+	 *   visiting the vertices in a random order each round, until no vertex changes community.
+	 * Ties are broken towards the current community, then the lowest id, so a given seed always gives
+	 *   the same communities.
+	 */
+	public int[] labelPropagation(int maxIterations, long seed) {
+		int n = this.numOfVertices;
+		int[] communities = new int[n];
+		int[] order = new int[n];
+		for(int vertex = 0; vertex < n; vertex++) {
+			communities[vertex] = vertex;
+			order[vertex] = vertex;
+		}
+		
+		// Weight per neighboring community, and which communities have any, reset after each vertex
+		double[] communityWeights = new double[n];
+		int[] touched = new int[16];
+		Random random = new Random(seed);
+		
+		for(int iteration = 1; iteration <= maxIterations; iteration++) {
+			for(int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+			
+			int changes = 0;
+			for(int vertex : order) {
+				int degree = getDegree(vertex);
+				if(degree == 0) {
+					continue;
+				}
+				if(degree > touched.length) {
+					touched = new int[Math.max(touched.length * 2, degree)];
+				}
+				int numOfTouched = 0;
+				for(int i = this.offsets[vertex]; i < this.offsets[vertex + 1]; i++) {
+					int community = communities[this.targets[i]];
+					if(communityWeights[community] == 0) {
+						touched[numOfTouched++] = community;
+					}
+					communityWeights[community] += this.weights[i];
+				}
+				int current = communities[vertex];
+				int best = current;
+				double bestWeight = communityWeights[current];
+				for(int i = 0; i < numOfTouched; i++) {
+					int community = touched[i];
+					double weight = communityWeights[community];
+					if(weight > bestWeight || (weight == bestWeight && community < best && best != current)) {
+						best = community;
+						bestWeight = weight;
+					}
+					communityWeights[community] = 0;
+				}
+				communityWeights[current] = 0;
+				if(best != current) {
+					communities[vertex] = best;
+					changes++;
+				}
+			}
+			if(changes == 0) {
+				System.out.println("CooccurrenceGraph: Label propagation converged after " + iteration + " iterations");
+				break;
+			}
+		}
+		return communities;
+	}
+	
+	/**
+	 * Vertices of each community found by labelPropagation(), largest communities first
+	 */
+	public static List<int[]> getCommunityMembers(int[] communities) {
+		int[] sizes = new int[communities.length];
+		for(int community : communities) {
+			sizes[community]++;
+		}
+		int[][] members = new int[communities.length][];
+		ArrayList<int[]> groups = new ArrayList<int[]>();
+		for(int community = 0; community < communities.length; community++) {
+			if(sizes[community] > 0) {
+				members[community] = new int[sizes[community]];
+				groups.add(members[community]);
+			}
+		}
+		Arrays.fill(sizes, 0);
+		for(int vertex = 0; vertex < communities.length; vertex++) {
+			int community = communities[vertex];
+			members[community][sizes[community]++] = vertex;
+		}
+		Collections.sort(groups, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				if(a.length != b.length) {
+					return b.length - a.length;
+				}
+				return a[0] - b[0];
+			}
+		});
+		return groups;
+	}
+	
+	/*
+	 * Fills the CSR arrays from the aggregator's records, which come in ascending id order
+	 */
+	private static class Builder implements ICooccurrenceVisitor {
+		private int numOfVertices;
+		private int minCount;
+		private int[] offsets;
+		private int[] targets;
+		private float[] weights;
+		private int size;
+		private int nextVertex;
+		
+		public Builder(int numOfVertices, int minCount) {
+			this.numOfVertices = numOfVertices;
+			this.minCount = minCount;
+			this.offsets = new int[numOfVertices + 1];
+			this.targets = new int[1024];
+			this.weights = new float[1024];
+			this.size = 0;
+			this.nextVertex = 0;
+		}
+		
+		@Override
+		public void visit(int searchStringId, int[] sessionIds, int numOfSessions, int[] cooccurringIds, int[] counts, int numOfCooccurring) {
+			fillOffsets(searchStringId);
+			if(this.size + numOfCooccurring > this.targets.length) {
+				long capacity = Math.max(this.targets.length * 2L, (long) this.size + numOfCooccurring);
+				if(capacity > Integer.MAX_VALUE - 8) {
+					throw new IllegalStateException("Too many edges for a CooccurrenceGraph");
+				}
+				this.targets = Arrays.copyOf(this.targets, (int) capacity);
+				this.weights = Arrays.copyOf(this.weights, (int) capacity);
+			}
+			for(int i = 0; i < numOfCooccurring; i++) {
+				if(counts[i] >= this.minCount) {
+					this.targets[this.size] = cooccurringIds[i];
+					this.weights[this.size] = counts[i];
+					this.size++;
+				}
+			}
+		}
+		
+		/*
+		 * Starts the edges of every vertex up to the given one at the current end of the edges
+		 */
+		private void fillOffsets(int vertex) {
+			while(this.nextVertex <= vertex) {
+				this.offsets[this.nextVertex++] = this.size;
+			}
+		}
+		
+		public CooccurrenceGraph finish(QueryDictionary labels) {
+			fillOffsets(this.numOfVertices);
+			return new CooccurrenceGraph(labels, this.numOfVertices, this.offsets,
+					Arrays.copyOf(this.targets, this.size), Arrays.copyOf(this.weights, this.size));
+		}
+	}
+	
+}
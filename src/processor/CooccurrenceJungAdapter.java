@@ -0,0 +1,99 @@
+package processor;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.apache.commons.collections15.Transformer;
+
+import edu.uci.ics.jung.graph.UndirectedGraph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import edu.uci.ics.jung.io.GraphMLWriter;
+
+/**
+ * Views of a subgraph of a CooccurrenceGraph as a JUNG graph, e.g. a community found by label
+ *   propagation or the top vertices by PageRank, for the JUNG algorithms and visualization, or exporting
+ *   as GraphML.
+ * Vertices are CooccurrenceGraph vertex ids, and edges are the positions of their lower numbered end's
+ *   entry in the CSR arrays. Only edges with both ends among the given vertices are included. JUNG
+ *   holds every vertex and edge as objects, so keep the subgraphs small, to thousands of vertices.
+ * @author Li Quan Khoo
+ *
+ */
+public class CooccurrenceJungAdapter {
+	
+	private CooccurrenceGraph graph;
+	private int[] vertices; // ascending
+	
+	public CooccurrenceJungAdapter(CooccurrenceGraph graph, int[] vertices) {
+		this.graph = graph;
+		this.vertices = Arrays.copyOf(vertices, vertices.length);
+		Arrays.sort(this.vertices);
+	}
+	
+	public UndirectedGraph<Integer, Integer> toGraph() {
+		UndirectedGraph<Integer, Integer> jungGraph = new UndirectedSparseGraph<Integer, Integer>();
+		for(int vertex : this.vertices) {
+			jungGraph.addVertex(vertex);
+		}
+		for(int vertex : this.vertices) {
+			int end = this.graph.getOffset(vertex) + this.graph.getDegree(vertex);
+			for(int position = this.graph.getOffset(vertex); position < end; position++) {
+				int target = this.graph.getTarget(position);
+				if(vertex < target && Arrays.binarySearch(this.vertices, target) >= 0) {
+					jungGraph.addEdge(position, vertex, target);
+				}
+			}
+		}
+		return jungGraph;
+	}
+	
+	/**
+	 * Edge weights, the number of sessions shared by their ends. These are similarities, so convert
+	 *   them before using them as distances, e.g. in DijkstraShortestPath
+	 */
+	public Transformer<Integer, Number> getEdgeWeights() {
+		return new Transformer<Integer, Number>() {
+			@Override
+			public Number transform(Integer edge) {
+				return graph.getWeight(edge);
+			}
+		};
+	}
+	
+	public Transformer<Integer, String> getVertexLabels() {
+		return new Transformer<Integer, String>() {
+			@Override
+			public String transform(Integer vertex) {
+				return graph.getLabel(vertex);
+			}
+		};
+	}
+	
+	public void writeGraphML(Writer writer) throws IOException {
+		GraphMLWriter<Integer, Integer> graphMLWriter = new GraphMLWriter<Integer, Integer>();
+		graphMLWriter.addVertexData("searchString", "Entity search string", "", getVertexLabels());
+		graphMLWriter.addEdgeData("sessions", "Sessions shared", "", new Transformer<Integer, String>() {
+			@Override
+			public String transform(Integer edge) {
+				return String.valueOf((int) graph.getWeight(edge));
+			}
+		});
+		graphMLWriter.save(toGraph(), writer);
+	}
+	
+	public void writeGraphML(String filePath) {
+		try {
+			FileWriter writer = new FileWriter(filePath);
+			try {
+				writeGraphML(writer);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			System.out.println("CooccurrenceJungAdapter: Error writing " + filePath);
+		}
+	}
+	
+}
@@ -0,0 +1,197 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.QueryDictionary;
+
+/**
+ * All pairwise distances between a set of queries, as used by the query clusterers.
+ * The features each distance needs (query string, n-gram fingerprint) are looked up once per query
+ *   rather than once per pair. The distances are stored as a packed upper-triangular float array,
+ *   row by row: (0,1) (0,2) .. (0,n-1) (1,2) .. (n-2,n-1).
+ *
+ * compute() fills the matrix in square tiles of TILE_SIZE x TILE_SIZE pairs on a fork/join pool.
+ *   Small matrices are filled on the calling thread.
+ * @author Li Quan Khoo
+ *
+ */
+public class DistanceMatrix {
+	
+	public enum Metric {
+		LEXICAL,		// QueryDistance.lexicalDistance()
+		CONDITIONAL,	// QueryDistance.conditionalDistance(), Lucchese et al.'s distance
+		LEVENSHTEIN,	// QueryDistance.levenshtein()
+		JACCARD			// QueryDistance.jaccard()
+	}
+	
+	public static final int TILE_SIZE = 64; // queries per side
+	
+	// Largest n whose packed matrix fits in one array
+	public static final int MAX_SIZE = 65535;
+	
+	private static ForkJoinPool sharedPool;
+	
+	private int size;
+	private int[] queryIds;
+	private String[] queries;
+	private int[][] fingerprints;
+	private float[] distances;
+	private Metric metric;
+	
+	/**
+	 * Matrix over the given queries of the default QueryDictionary, in the given order
+	 */
+	public DistanceMatrix(int[] queryIds) {
+		this(queryIds, Metric.CONDITIONAL);
+	}
+	
+	public DistanceMatrix(int[] queryIds, Metric metric) {
+		if(queryIds.length > MAX_SIZE) {
+			throw new IllegalArgumentException("DistanceMatrix: At most " + MAX_SIZE + " queries, got " + queryIds.length);
+		}
+		this.size = queryIds.length;
+		this.queryIds = queryIds.clone();
+		this.metric = metric;
+		
+		// Per-query features
+		QueryDictionary dictionary = QueryDictionary.getDefault();
+		FingerprintCache fingerprintCache = FingerprintCache.getDefault();
+		this.queries = new String[this.size];
+		this.fingerprints = new int[this.size][];
+		for(int i = 0; i < this.size; i++) {
+			this.queries[i] = dictionary.getQuery(queryIds[i]);
+			this.fingerprints[i] = fingerprintCache.get(queryIds[i]);
+		}
+		this.distances = new float[(int) packedLength(this.size)];
+	}
+	
+	/**
+	 * Matrix over the given query strings, which are added to the default QueryDictionary
+	 */
+	public static DistanceMatrix fromQueries(List<String> queries, Metric metric) {
+		QueryDictionary dictionary = QueryDictionary.getDefault();
+		int[] queryIds = new int[queries.size()];
+		for(int i = 0; i < queryIds.length; i++) {
+			queryIds[i] = dictionary.getId(queries.get(i));
+		}
+		return new DistanceMatrix(queryIds, metric);
+	}
+	
+	private static synchronized ForkJoinPool getSharedPool() {
+		if(sharedPool == null) {
+			sharedPool = new ForkJoinPool();
+		}
+		return sharedPool;
+	}
+	
+	public static long packedLength(int size) {
+		return (long) size * (size - 1) / 2;
+	}
+	
+	/*
+	 * Position of pair (i, j), i < j, within the packed array
+	 */
+	public static int indexOf(int i, int j, int size) {
+		return (int) ((long) i * (2 * size - i - 1) / 2 + (j - i - 1));
+	}
+	
+	public DistanceMatrix compute() {
+		if(this.size <= TILE_SIZE) {
+			computeTile(0, this.size, 0, this.size);
+		} else {
+			getSharedPool().invoke(new TileTask(0, tilesPerSide()));
+		}
+		return this;
+	}
+	
+	public DistanceMatrix compute(ForkJoinPool pool) {
+		pool.invoke(new TileTask(0, tilesPerSide()));
+		return this;
+	}
+	
+	private int tilesPerSide() {
+		return (this.size + TILE_SIZE - 1) / TILE_SIZE;
+	}
+	
+	/*
+	 * Fills the pairs (i, j), i < j, with i in [rowStart, rowEnd) and j in [colStart, colEnd)
+	 */
+	private void computeTile(int rowStart, int rowEnd, int colStart, int colEnd) {
+		for(int i = rowStart; i < rowEnd; i++) {
+			int j = Math.max(colStart, i + 1);
+			int index = indexOf(i, j, this.size);
+			for(; j < colEnd; j++) {
+				this.distances[index++] = (float) distance(i, j);
+			}
+		}
+	}
+	
+	private double distance(int i, int j) {
+		return QueryDistance.distance(this.queries[i], this.fingerprints[i], this.queries[j], this.fingerprints[j], this.metric);
+	}
+	
+	public int size() { return this.size; }
+	public int getQueryId(int i) { return this.queryIds[i]; }
+	public String getQuery(int i) { return this.queries[i]; }
+	public Metric getMetric() { return this.metric; }
+	
+	/**
+	 * Distance between the i-th and j-th queries, 0 on the diagonal
+	 */
+	public float get(int i, int j) {
+		if(i == j) {
+			return 0;
+		}
+		return i < j ? this.distances[indexOf(i, j, this.size)] : this.distances[indexOf(j, i, this.size)];
+	}
+	
+	/*
+	 * The packed upper triangle, see indexOf(). Not a copy
+	 */
+	public float[] getPackedDistances() {
+		return this.distances;
+	}
+	
+	/*
+	 * Splits the tile rows [tileRowStart, tileRowEnd) in half until one tile row is left, then fills
+	 *   the tiles of that row on and right of the diagonal as separate tasks
+	 */
+	@SuppressWarnings("serial")
+	private class TileTask extends RecursiveAction {
+		
+		private int tileRowStart;
+		private int tileRowEnd;
+		
+		public TileTask(int tileRowStart, int tileRowEnd) {
+			this.tileRowStart = tileRowStart;
+			this.tileRowEnd = tileRowEnd;
+		}
+		
+		@Override
+		protected void compute() {
+			if(this.tileRowEnd - this.tileRowStart > 1) {
+				int middle = (this.tileRowStart + this.tileRowEnd) >>> 1;
+				invokeAll(new TileTask(this.tileRowStart, middle), new TileTask(middle, this.tileRowEnd));
+				return;
+			}
+			final int rowStart = this.tileRowStart * TILE_SIZE;
+			final int rowEnd = Math.min(rowStart + TILE_SIZE, size);
+			ArrayList<RecursiveAction> tiles = new ArrayList<RecursiveAction>();
+			for(int tileCol = this.tileRowStart; tileCol < tilesPerSide(); tileCol++) {
+				final int colStart = tileCol * TILE_SIZE;
+				final int colEnd = Math.min(colStart + TILE_SIZE, size);
+				tiles.add(new RecursiveAction() {
+					@Override
+					protected void compute() {
+						computeTile(rowStart, rowEnd, colStart, colEnd);
+					}
+				});
+			}
+			invokeAll(tiles);
+		}
+	}
+	
+}
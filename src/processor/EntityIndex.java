@@ -0,0 +1,129 @@
+package processor;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import reader.YagoReader;
+import util.SortedStringTable;
+import writer.MongoWriter;
+
+/**
+ * Offline index of the searchStrings of all YAGO entities, so that QueryMapper can check whether a
+ *   query substring names an entity without asking Mongo.
+ * build() reads the YAGO TSV files through YagoReader and writes every fact subject's searchString,
+ *   as MongoWriter.toSearchString() gives it, to a SortedStringTable. open() maps that file.
+ *
+ * YAGO TSV lines are "<fact id>\t<subject>\tpredicate\t<object>", the fact id possibly empty.
+ * @author Li Quan Khoo
+ *
+ */
+public class EntityIndex {
+	
+	public static final String DEFAULT_YAGO_TSV_DIR = "input/yago/tsv/";
+	public static final String DEFAULT_INDEX_PATH = "output/entityindex-out/entities.sst";
+	
+	private SortedStringTable table;
+	
+	private EntityIndex(SortedStringTable table) {
+		this.table = table;
+	}
+	
+	public static EntityIndex open() throws IOException {
+		return open(DEFAULT_INDEX_PATH);
+	}
+	
+	public static EntityIndex open(String indexPath) throws IOException {
+		EntityIndex index = new EntityIndex(SortedStringTable.open(indexPath));
+		System.out.println("EntityIndex: " + index.size() + " entities in " + indexPath);
+		return index;
+	}
+	
+	/**
+	 * Whether an entity is stored under this searchString
+	 */
+	public boolean contains(String searchString) {
+		return this.table.contains(searchString);
+	}
+	
+	public int size() {
+		return this.table.size();
+	}
+	
+	/**
+	 * The index-th searchString, in UTF-8 byte order
+	 */
+	public String get(int index) {
+		return this.table.get(index);
+	}
+	
+	public static void build() throws IOException {
+		build(DEFAULT_YAGO_TSV_DIR, DEFAULT_INDEX_PATH);
+	}
+	
+	/**
+	 * Indexes all .tsv files in the given directory
+	 */
+	public static void build(String yagoTsvDir, String indexPath) throws IOException {
+		File[] files = new File(yagoTsvDir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".tsv");
+			}
+		});
+		if(files == null) {
+			throw new IOException("YAGO directory not found: " + yagoTsvDir);
+		}
+		Arrays.sort(files);
+		String[] paths = new String[files.length];
+		for(int i = 0; i < files.length; i++) {
+			paths[i] = files[i].getPath();
+		}
+		build(paths, indexPath);
+	}
+	
+	public static void build(String[] yagoTsvPaths, String indexPath) throws IOException {
+		ArrayList<String> searchStrings = new ArrayList<String>();
+		for(String path : yagoTsvPaths) {
+			YagoReader reader = new YagoReader(path);
+			String previousSubject = null;
+			String line = reader.readNextLine_Tsv();
+			while(line != null) {
+				String subject = getSubject(line);
+				
+				// Facts come grouped by subject, so most repeats are dropped here rather than held until the sort
+				if(subject != null && ! subject.equals(previousSubject)) {
+					searchStrings.add(MongoWriter.toSearchString(subject));
+					previousSubject = subject;
+				}
+				line = reader.readNextLine_Tsv();
+			}
+		}
+		int numOfSubjects = SortedStringTable.write(searchStrings, indexPath);
+		System.out.println("EntityIndex: Indexed " + numOfSubjects + " subjects to " + indexPath);
+	}
+	
+	private static String getSubject(String line) {
+		String[] fields = line.split("\t");
+		String subject = (fields.length >= 4) ? fields[1] : fields[0];
+		if(! subject.startsWith("<")) {
+			return null;
+		}
+		return subject;
+	}
+	
+	/*
+	 * Subject, predicate and object of a YAGO TSV line, null if it isn't a fact about an entity
+	 */
+	static String[] getFact(String line) {
+		String[] fields = line.split("\t");
+		int start = (fields.length >= 4) ? 1 : 0;
+		if(fields.length < start + 3 || ! fields[start].startsWith("<")) {
+			return null;
+		}
+		return new String[] {fields[start], fields[start + 1], fields[start + 2]};
+	}
+	
+}
@@ -0,0 +1,261 @@
+package processor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import util.SortedStringTable;
+
+/**
+ * Finds all spans of query tokens which are entity searchStrings in one pass over the tokens, instead of
+ *   building every substring of the query and looking each one up.
+ * Entity searchStrings are held in a trie over tokens. Matching walks the trie from each token for as
+ *   long as the following tokens continue an entity name, so the work per query is bounded by its length
+ *   times the length of the longest entity name it actually continues, typically 1 or 2 tokens.
+ *
+ * build() writes two files from an EntityIndex, which open() maps read-only, so the matcher takes no
+ *   heap whatever the number of entities:
+ *   tokens.sst, a SortedStringTable of all tokens of all searchStrings; a token's id is its index there
+ *   entities.trie, big-endian ints: magic, numOfNodes, numOfEdges,
+ *     int[numOfNodes + 1] offsets of each node's edges, the root being node 0,
+ *     int[numOfEdges] edge token ids, ascending within each node,
+ *     int[numOfEdges] edge target nodes,
+ *     int[(numOfNodes + 31) / 32] bits set for nodes which end a searchString
+ * searchStrings are split into tokens on single spaces, as QueryMapper splits queries.
+ * @author Li Quan Khoo
+ *
+ */
+public class EntityMatcher {
+	
+	public static final String DEFAULT_MATCHER_DIR = "output/entitymatcher-out/";
+	public static final String TOKENS_FILE_NAME = "tokens.sst";
+	public static final String TRIE_FILE_NAME = "entities.trie";
+	public static final int MAGIC = 0x45545231; // "ETR1"
+	
+	private static final int HEADER_SIZE = 3; // ints
+	
+	private SortedStringTable tokens;
+	private IntBuffer trie;
+	private int numOfNodes;
+	private int edgeStartsOffset;
+	private int edgeTokensOffset;
+	private int edgeTargetsOffset;
+	private int terminalsOffset;
+	
+	private EntityMatcher(SortedStringTable tokens, IntBuffer trie) throws IOException {
+		if(trie.get(0) != MAGIC) {
+			throw new IOException("Not an entity trie");
+		}
+		this.tokens = tokens;
+		this.trie = trie;
+		this.numOfNodes = trie.get(1);
+		int numOfEdges = trie.get(2);
+		this.edgeStartsOffset = HEADER_SIZE;
+		this.edgeTokensOffset = this.edgeStartsOffset + this.numOfNodes + 1;
+		this.edgeTargetsOffset = this.edgeTokensOffset + numOfEdges;
+		this.terminalsOffset = this.edgeTargetsOffset + numOfEdges;
+	}
+	
+	public static EntityMatcher open() throws IOException {
+		return open(DEFAULT_MATCHER_DIR);
+	}
+	
+	public static EntityMatcher open(String matcherDir) throws IOException {
+		SortedStringTable tokens = SortedStringTable.open(new File(matcherDir, TOKENS_FILE_NAME).getPath());
+		RandomAccessFile file = new RandomAccessFile(new File(matcherDir, TRIE_FILE_NAME), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Entity trie larger than 2GB: " + matcherDir);
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			EntityMatcher matcher = new EntityMatcher(tokens, buffer.asIntBuffer());
+			System.out.println("EntityMatcher: " + tokens.size() + " tokens, " + matcher.numOfNodes + " trie nodes in " + matcherDir);
+			return matcher;
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+	}
+	
+	/**
+	 * Spans {start, end} of the given tokens, end exclusive, which spell out an entity searchString,
+	 *   in order of start then end
+	 */
+	public List<int[]> findSpans(String[] queryTokens) {
+		int[] tokenIds = new int[queryTokens.length];
+		for(int i = 0; i < queryTokens.length; i++) {
+			tokenIds[i] = this.tokens.indexOf(queryTokens[i]); // negative if no entity has the token
+		}
+		
+		ArrayList<int[]> spans = new ArrayList<int[]>();
+		for(int start = 0; start < tokenIds.length; start++) {
+			int node = 0;
+			for(int end = start; end < tokenIds.length && tokenIds[end] >= 0; end++) {
+				node = child(node, tokenIds[end]);
+				if(node < 0) {
+					break;
+				}
+				if(isTerminal(node)) {
+					spans.add(new int[] {start, end + 1});
+				}
+			}
+		}
+		return spans;
+	}
+	
+	private int child(int node, int tokenId) {
+		int low = this.trie.get(this.edgeStartsOffset + node);
+		int high = this.trie.get(this.edgeStartsOffset + node + 1) - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int edgeToken = this.trie.get(this.edgeTokensOffset + middle);
+			if(edgeToken < tokenId) {
+				low = middle + 1;
+			} else if(edgeToken > tokenId) {
+				high = middle - 1;
+			} else {
+				return this.trie.get(this.edgeTargetsOffset + middle);
+			}
+		}
+		return -1;
+	}
+	
+	private boolean isTerminal(int node) {
+		return (this.trie.get(this.terminalsOffset + (node >>> 5)) & (1 << node)) != 0;
+	}
+	
+	public static void build() throws IOException {
+		build(EntityIndex.open(), DEFAULT_MATCHER_DIR);
+	}
+	
+	public static void build(EntityIndex entityIndex, String matcherDir) throws IOException {
+		new File(matcherDir).mkdirs();
+		
+		// Token dictionary
+		HashSet<String> uniqueTokens = new HashSet<String>();
+		for(int i = 0; i < entityIndex.size(); i++) {
+			Collections.addAll(uniqueTokens, tokenize(entityIndex.get(i)));
+		}
+		String tokensPath = new File(matcherDir, TOKENS_FILE_NAME).getPath();
+		SortedStringTable.write(new ArrayList<String>(uniqueTokens), tokensPath);
+		uniqueTokens = null;
+		SortedStringTable tokens = SortedStringTable.open(tokensPath);
+		
+		// searchStrings as token id sequences, sorted so that every node's sequences are contiguous
+		//   and those ending at the node come first
+		int[][] sequences = new int[entityIndex.size()][];
+		for(int i = 0; i < sequences.length; i++) {
+			String[] parts = tokenize(entityIndex.get(i));
+			sequences[i] = new int[parts.length];
+			for(int j = 0; j < parts.length; j++) {
+				sequences[i][j] = tokens.indexOf(parts[j]);
+			}
+		}
+		Arrays.sort(sequences, TOKEN_ID_ORDER);
+		
+		// Nodes are numbered breadth first, so they are expanded in the order their edges are written.
+		//   Each node covers the sequences [rangeStarts, rangeEnds) from the given depth on
+		int capacity = 1024;
+		int[] rangeStarts = new int[capacity];
+		int[] rangeEnds = new int[capacity];
+		int[] depths = new int[capacity];
+		int[] edgeStarts = new int[capacity + 1];
+		int[] edgeTokens = new int[capacity];
+		int[] edgeTargets = new int[capacity];
+		int[] terminalBits = new int[capacity / 32];
+		int numOfNodes = 1;
+		int numOfEdges = 0;
+		rangeEnds[0] = sequences.length;
+		
+		for(int node = 0; node < numOfNodes; node++) {
+			int depth = depths[node];
+			int end = rangeEnds[node];
+			int i = rangeStarts[node];
+			edgeStarts[node] = numOfEdges;
+			if(i < end && sequences[i].length == depth) {
+				terminalBits[node >>> 5] |= 1 << node;
+			}
+			while(i < end && sequences[i].length == depth) {
+				i++;
+			}
+			while(i < end) {
+				int tokenId = sequences[i][depth];
+				int j = i + 1;
+				while(j < end && sequences[j][depth] == tokenId) {
+					j++;
+				}
+				if(numOfNodes == capacity) {
+					capacity *= 2;
+					rangeStarts = Arrays.copyOf(rangeStarts, capacity);
+					rangeEnds = Arrays.copyOf(rangeEnds, capacity);
+					depths = Arrays.copyOf(depths, capacity);
+					edgeStarts = Arrays.copyOf(edgeStarts, capacity + 1);
+					edgeTokens = Arrays.copyOf(edgeTokens, capacity);
+					edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+					terminalBits = Arrays.copyOf(terminalBits, capacity / 32);
+				}
+				rangeStarts[numOfNodes] = i;
+				rangeEnds[numOfNodes] = j;
+				depths[numOfNodes] = depth + 1;
+				edgeTokens[numOfEdges] = tokenId;
+				edgeTargets[numOfEdges] = numOfNodes;
+				numOfEdges++; // every node but the root has exactly one incoming edge
+				numOfNodes++;
+				i = j;
+			}
+		}
+		edgeStarts[numOfNodes] = numOfEdges;
+		
+		File trieFile = new File(matcherDir, TRIE_FILE_NAME);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(trieFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(numOfNodes);
+			out.writeInt(numOfEdges);
+			writeInts(out, edgeStarts, numOfNodes + 1);
+			writeInts(out, edgeTokens, numOfEdges);
+			writeInts(out, edgeTargets, numOfEdges);
+			writeInts(out, terminalBits, (numOfNodes + 31) / 32);
+		} finally {
+			out.close();
+		}
+		System.out.println("EntityMatcher: Built a trie of " + numOfNodes + " nodes over " + tokens.size()
+				+ " tokens from " + sequences.length + " searchStrings to " + matcherDir);
+	}
+	
+	private static String[] tokenize(String searchString) {
+		return searchString.split(" ", -1);
+	}
+	
+	private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+		for(int i = 0; i < length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+	
+	private static final Comparator<int[]> TOKEN_ID_ORDER = new Comparator<int[]>() {
+		@Override
+		public int compare(int[] a, int[] b) {
+			int length = Math.min(a.length, b.length);
+			for(int i = 0; i < length; i++) {
+				if(a[i] != b[i]) {
+					return a[i] < b[i] ? -1 : 1;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+	
+}
@@ -0,0 +1,457 @@
+package processor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import model.Entity;
+import reader.YagoReader;
+import util.SortedStringTable;
+
+/**
+ * Embedded, read-only store of YAGO entities with the schema of the Mongo entities collection, for
+ *   lookup-heavy work which doesn't need a database server. Files are memory-mapped, so opening a store
+ *   takes no time and no heap, and lookups are a few binary searches, safe from any number of threads.
+ *
+ * build() reads the YAGO TSV files twice through YagoReader and writes two files to the store directory:
+ *   strings.sst, a SortedStringTable of every name, relation key, relation value, cleanName, searchString
+ *     and disambig; a string's id is its index there
+ *   entities.bin, big-endian ints: magic, numOfEntities, numOfFacts,
+ *     int[numOfEntities] name, cleanName, searchString and disambig string ids, four arrays, entities
+ *       being numbered in name order,
+ *     int[numOfEntities + 1] offsets of each entity's facts,
+ *     int[numOfFacts] relation key and int[numOfFacts] relation value string ids, sorted per entity,
+ *     int[numOfEntities] entities in cleanName order and int[numOfEntities] entities in searchString
+ *       order, the secondary indexes
+ * Facts are read as EntityIndex reads them, and repeated facts are stored once. The build holds the
+ *   distinct strings, twice while strings.sst is written, and up to 28 bytes per fact in memory.
+ *
+ * Both files are mapped whole and addressed by int offsets, so each is limited to 2GB: strings.sst to
+ *   about 2GB of distinct UTF-8 strings, and entities.bin to 7 ints per entity plus 2 per stored fact,
+ *   e.g. 250M facts over 10M entities. That holds the YAGO core facts, labels and types, but not all of
+ *   YAGO; larger sets have to be split over several stores. build() fails as soon as a limit is passed,
+ *   pass 1 on the strings and pass 2 on the facts, rather than after the rest of the work.
+ * @author Li Quan Khoo
+ *
+ */
+public class EntityStore {
+	
+	public static final String DEFAULT_STORE_DIR = "output/entitystore-out/";
+	public static final String STRINGS_FILE_NAME = "strings.sst";
+	public static final String ENTITIES_FILE_NAME = "entities.bin";
+	public static final int MAGIC = 0x45535431; // "EST1"
+	
+	private static final int HEADER_SIZE = 3; // ints
+	private static final int MAX_FILE_INTS = Integer.MAX_VALUE / 4;
+	private static final int MAX_STRING_BYTES = Integer.MAX_VALUE; // bytes of data and offsets in strings.sst
+	private static final int MAX_FACTS = (MAX_FILE_INTS - HEADER_SIZE - 1) / 2;
+	
+	private SortedStringTable strings;
+	private IntBuffer entities;
+	private int numOfEntities;
+	private int numOfFacts;
+	private int nameIdsOffset;
+	private int cleanNameIdsOffset;
+	private int searchStringIdsOffset;
+	private int disambigIdsOffset;
+	private int factOffsetsOffset;
+	private int relationIdsOffset;
+	private int valueIdsOffset;
+	private int byCleanNameOffset;
+	private int bySearchStringOffset;
+	
+	private EntityStore(SortedStringTable strings, IntBuffer entities) throws IOException {
+		if(entities.get(0) != MAGIC) {
+			throw new IOException("Not an entity store");
+		}
+		this.strings = strings;
+		this.entities = entities;
+		this.numOfEntities = entities.get(1);
+		this.numOfFacts = entities.get(2);
+		int n = this.numOfEntities;
+		this.nameIdsOffset = HEADER_SIZE;
+		this.cleanNameIdsOffset = this.nameIdsOffset + n;
+		this.searchStringIdsOffset = this.cleanNameIdsOffset + n;
+		this.disambigIdsOffset = this.searchStringIdsOffset + n;
+		this.factOffsetsOffset = this.disambigIdsOffset + n;
+		this.relationIdsOffset = this.factOffsetsOffset + n + 1;
+		this.valueIdsOffset = this.relationIdsOffset + this.numOfFacts;
+		this.byCleanNameOffset = this.valueIdsOffset + this.numOfFacts;
+		this.bySearchStringOffset = this.byCleanNameOffset + n;
+	}
+	
+	public static EntityStore open() throws IOException {
+		return open(DEFAULT_STORE_DIR);
+	}
+	
+	public static EntityStore open(String storeDir) throws IOException {
+		SortedStringTable strings = SortedStringTable.open(new File(storeDir, STRINGS_FILE_NAME).getPath());
+		RandomAccessFile file = new RandomAccessFile(new File(storeDir, ENTITIES_FILE_NAME), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Entity store larger than 2GB: " + storeDir);
+			}
+			IntBuffer entities = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+			EntityStore store = new EntityStore(strings, entities);
+			System.out.println("EntityStore: " + store.size() + " entities, " + store.getNumOfFacts() + " facts in " + storeDir);
+			return store;
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+	}
+	
+	public int size() {
+		return this.numOfEntities;
+	}
+	
+	public int getNumOfFacts() {
+		return this.numOfFacts;
+	}
+	
+	/**
+	 * Id of the entity with the given raw YAGO name, e.g. "<Paris>", -1 if there is none
+	 */
+	public int indexOf(String name) {
+		int nameId = this.strings.indexOf(name);
+		if(nameId < 0) {
+			return -1;
+		}
+		int low = 0;
+		int high = this.numOfEntities - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleId = this.entities.get(this.nameIdsOffset + middle);
+			if(middleId < nameId) {
+				low = middle + 1;
+			} else if(middleId > nameId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+	
+	public Entity getEntity(int id) {
+		Entity entity = new Entity(getString(this.nameIdsOffset, id), getString(this.cleanNameIdsOffset, id),
+				getString(this.searchStringIdsOffset, id), getString(this.disambigIdsOffset, id));
+		int end = this.entities.get(this.factOffsetsOffset + id + 1);
+		for(int fact = this.entities.get(this.factOffsetsOffset + id); fact < end; fact++) {
+			entity.addRelation(this.strings.get(this.entities.get(this.relationIdsOffset + fact)),
+					this.strings.get(this.entities.get(this.valueIdsOffset + fact)));
+		}
+		return entity;
+	}
+	
+	/**
+	 * The entity with the given raw YAGO name, null if there is none
+	 */
+	public Entity getEntityByName(String name) {
+		int id = indexOf(name);
+		return (id < 0) ? null : getEntity(id);
+	}
+	
+	/**
+	 * All entities with the given cleanName, as MongoWriter.getEntity()
+	 */
+	public ArrayList<Entity> getEntitiesByCleanName(String cleanName) {
+		return getEntities(this.byCleanNameOffset, this.cleanNameIdsOffset, cleanName);
+	}
+	
+	public ArrayList<Entity> getEntitiesBySearchString(String searchString) {
+		return getEntities(this.bySearchStringOffset, this.searchStringIdsOffset, searchString);
+	}
+	
+	/**
+	 * All entities whose searchString is one of the given strings, as MongoWriter.getEntitiesBySearchStrings()
+	 */
+	public ArrayList<Entity> getEntitiesBySearchStrings(List<String> searchStrings) {
+		ArrayList<Entity> items = new ArrayList<Entity>();
+		for(String searchString : new HashSet<String>(searchStrings)) {
+			items.addAll(getEntitiesBySearchString(searchString));
+		}
+		return items;
+	}
+	
+	public boolean containsSearchString(String searchString) {
+		int stringId = this.strings.indexOf(searchString);
+		if(stringId < 0) {
+			return false;
+		}
+		int position = lowerBound(this.bySearchStringOffset, this.searchStringIdsOffset, stringId);
+		return position < this.numOfEntities
+				&& fieldOf(this.bySearchStringOffset, this.searchStringIdsOffset, position) == stringId;
+	}
+	
+	private String getString(int fieldOffset, int id) {
+		return this.strings.get(this.entities.get(fieldOffset + id));
+	}
+	
+	/*
+	 * Entities whose field, given by its string ids at fieldOffset, equals value, found through the index
+	 *   at indexOffset which lists the entities in order of that field
+	 */
+	private ArrayList<Entity> getEntities(int indexOffset, int fieldOffset, String value) {
+		ArrayList<Entity> items = new ArrayList<Entity>();
+		int stringId = this.strings.indexOf(value);
+		if(stringId < 0) {
+			return items;
+		}
+		for(int i = lowerBound(indexOffset, fieldOffset, stringId); i < this.numOfEntities
+				&& fieldOf(indexOffset, fieldOffset, i) == stringId; i++) {
+			items.add(getEntity(this.entities.get(indexOffset + i)));
+		}
+		return items;
+	}
+	
+	private int fieldOf(int indexOffset, int fieldOffset, int position) {
+		return this.entities.get(fieldOffset + this.entities.get(indexOffset + position));
+	}
+	
+	/*
+	 * First position in the index whose entity's field is not below stringId
+	 */
+	private int lowerBound(int indexOffset, int fieldOffset, int stringId) {
+		int low = 0;
+		int high = this.numOfEntities;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(fieldOf(indexOffset, fieldOffset, middle) < stringId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	public static void build() throws IOException {
+		build(EntityIndex.DEFAULT_YAGO_TSV_DIR, DEFAULT_STORE_DIR);
+	}
+	
+	/**
+	 * Stores all .tsv files in the given directory
+	 */
+	public static void build(String yagoTsvDir, String storeDir) throws IOException {
+		File[] files = new File(yagoTsvDir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".tsv");
+			}
+		});
+		if(files == null) {
+			throw new IOException("YAGO directory not found: " + yagoTsvDir);
+		}
+		Arrays.sort(files);
+		String[] paths = new String[files.length];
+		for(int i = 0; i < files.length; i++) {
+			paths[i] = files[i].getPath();
+		}
+		build(paths, storeDir);
+	}
+	
+	public static void build(String[] yagoTsvPaths, String storeDir) throws IOException {
+		new File(storeDir).mkdirs();
+		
+		// Pass 1: string table
+		HashSet<String> uniqueStrings = new HashSet<String>();
+		long stringBytes = 0;
+		for(String path : yagoTsvPaths) {
+			YagoReader reader = new YagoReader(path);
+			String previousSubject = null;
+			for(String line = reader.readNextLine_Tsv(); line != null; line = reader.readNextLine_Tsv()) {
+				String[] fact = EntityIndex.getFact(line);
+				if(fact == null) {
+					continue;
+				}
+				if(! fact[0].equals(previousSubject)) {
+					Entity entity = new Entity(fact[0]);
+					stringBytes += addString(uniqueStrings, entity.getName());
+					stringBytes += addString(uniqueStrings, entity.getCleanName());
+					stringBytes += addString(uniqueStrings, entity.getSearchString());
+					stringBytes += addString(uniqueStrings, entity.getDisambig());
+					previousSubject = fact[0];
+				}
+				stringBytes += addString(uniqueStrings, fact[1]);
+				stringBytes += addString(uniqueStrings, fact[2]);
+				if(stringBytes > MAX_STRING_BYTES) {
+					throw new IOException("Strings of the entity store would be larger than 2GB, at " + path);
+				}
+			}
+		}
+		String stringsPath = new File(storeDir, STRINGS_FILE_NAME).getPath();
+		SortedStringTable.write(uniqueStrings, stringsPath);
+		uniqueStrings = null;
+		SortedStringTable strings = SortedStringTable.open(stringsPath);
+		
+		// Pass 2: facts as string ids
+		int capacity = 1 << 16;
+		int[] subjectIds = new int[capacity];
+		int[] relationIds = new int[capacity];
+		int[] valueIds = new int[capacity];
+		int numOfFacts = 0;
+		for(String path : yagoTsvPaths) {
+			YagoReader reader = new YagoReader(path);
+			String previousSubject = null;
+			int previousSubjectId = -1;
+			for(String line = reader.readNextLine_Tsv(); line != null; line = reader.readNextLine_Tsv()) {
+				String[] fact = EntityIndex.getFact(line);
+				if(fact == null) {
+					continue;
+				}
+				if(numOfFacts == capacity) {
+					if(capacity == MAX_FACTS) {
+						throw new IOException("Entity store would hold more than " + MAX_FACTS + " facts, at " + path);
+					}
+					capacity = (int) Math.min(2L * capacity, MAX_FACTS);
+					subjectIds = Arrays.copyOf(subjectIds, capacity);
+					relationIds = Arrays.copyOf(relationIds, capacity);
+					valueIds = Arrays.copyOf(valueIds, capacity);
+				}
+				if(! fact[0].equals(previousSubject)) {
+					previousSubject = fact[0];
+					previousSubjectId = strings.indexOf(fact[0]);
+				}
+				subjectIds[numOfFacts] = previousSubjectId;
+				relationIds[numOfFacts] = strings.indexOf(fact[1]);
+				valueIds[numOfFacts] = strings.indexOf(fact[2]);
+				numOfFacts++;
+			}
+		}
+		
+		// Group facts by subject, then sort and deduplicate each subject's (relation, value) pairs
+		long[] order = new long[numOfFacts];
+		for(int i = 0; i < numOfFacts; i++) {
+			order[i] = ((long) subjectIds[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] entityNameIds = new int[16];
+		int[] factOffsets = new int[17];
+		int[] storedRelationIds = new int[numOfFacts];
+		int[] storedValueIds = new int[numOfFacts];
+		int numOfEntities = 0;
+		int numOfStoredFacts = 0;
+		long[] pairs = new long[16];
+		for(int start = 0; start < numOfFacts; ) {
+			int subjectId = (int) (order[start] >>> 32);
+			int end = start;
+			while(end < numOfFacts && (int) (order[end] >>> 32) == subjectId) {
+				end++;
+			}
+			if(end - start > pairs.length) {
+				pairs = new long[Math.max(pairs.length * 2, end - start)];
+			}
+			for(int i = start; i < end; i++) {
+				int fact = (int) order[i];
+				pairs[i - start] = ((long) relationIds[fact] << 32) | valueIds[fact];
+			}
+			Arrays.sort(pairs, 0, end - start);
+			
+			if(numOfEntities + 1 >= entityNameIds.length) {
+				entityNameIds = Arrays.copyOf(entityNameIds, (int) Math.min(2L * entityNameIds.length, MAX_FACTS + 1));
+				factOffsets = Arrays.copyOf(factOffsets, entityNameIds.length + 1);
+			}
+			entityNameIds[numOfEntities] = subjectId;
+			factOffsets[numOfEntities] = numOfStoredFacts;
+			numOfEntities++;
+			for(int i = 0; i < end - start; i++) {
+				if(i == 0 || pairs[i] != pairs[i - 1]) {
+					storedRelationIds[numOfStoredFacts] = (int) (pairs[i] >>> 32);
+					storedValueIds[numOfStoredFacts] = (int) pairs[i];
+					numOfStoredFacts++;
+				}
+			}
+			start = end;
+		}
+		factOffsets[numOfEntities] = numOfStoredFacts;
+		subjectIds = null;
+		relationIds = null;
+		valueIds = null;
+		order = null;
+		
+		// Derived fields and the secondary indexes over them
+		int[] cleanNameIds = new int[numOfEntities];
+		int[] searchStringIds = new int[numOfEntities];
+		int[] disambigIds = new int[numOfEntities];
+		for(int id = 0; id < numOfEntities; id++) {
+			Entity entity = new Entity(strings.get(entityNameIds[id]));
+			cleanNameIds[id] = strings.indexOf(entity.getCleanName());
+			searchStringIds[id] = strings.indexOf(entity.getSearchString());
+			disambigIds[id] = strings.indexOf(entity.getDisambig());
+		}
+		
+		long fileLength = 4L * (HEADER_SIZE + 7L * numOfEntities + 1 + 2L * numOfStoredFacts);
+		if(fileLength > 4L * MAX_FILE_INTS) {
+			throw new IOException("Entity store would be larger than 2GB: " + fileLength + " bytes");
+		}
+		File entitiesFile = new File(storeDir, ENTITIES_FILE_NAME);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(entitiesFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(numOfEntities);
+			out.writeInt(numOfStoredFacts);
+			writeInts(out, entityNameIds, numOfEntities);
+			writeInts(out, cleanNameIds, numOfEntities);
+			writeInts(out, searchStringIds, numOfEntities);
+			writeInts(out, disambigIds, numOfEntities);
+			writeInts(out, factOffsets, numOfEntities + 1);
+			writeInts(out, storedRelationIds, numOfStoredFacts);
+			writeInts(out, storedValueIds, numOfStoredFacts);
+			writeInts(out, sortedBy(cleanNameIds), numOfEntities);
+			writeInts(out, sortedBy(searchStringIds), numOfEntities);
+		} finally {
+			out.close();
+		}
+		System.out.println("EntityStore: Stored " + numOfEntities + " entities with " + numOfStoredFacts + " facts over "
+				+ strings.size() + " strings to " + storeDir);
+	}
+	
+	/*
+	 * Adds the string to the set, giving the bytes it takes in strings.sst if it's new, 0 otherwise
+	 */
+	private static long addString(HashSet<String> strings, String string) {
+		if(! strings.add(string)) {
+			return 0;
+		}
+		long length = 4; // offset
+		for(int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			length += (c < 0x80) ? 1 : (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) ? 2 : 3;
+		}
+		return length;
+	}
+	
+	/*
+	 * Entity ids in order of the given field, then of id
+	 */
+	private static int[] sortedBy(int[] fieldIds) {
+		long[] order = new long[fieldIds.length];
+		for(int id = 0; id < fieldIds.length; id++) {
+			order[id] = ((long) fieldIds[id] << 32) | id;
+		}
+		Arrays.sort(order);
+		int[] ids = new int[order.length];
+		for(int i = 0; i < order.length; i++) {
+			ids[i] = (int) order[i];
+		}
+		return ids;
+	}
+	
+	private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+		for(int i = 0; i < length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+	
+}
@@ -0,0 +1,81 @@
+package processor;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import model.QueryDictionary;
+
+/**
+ * N-gram fingerprints (see QueryDistance.fingerprint()) of the queries in a QueryDictionary, indexed
+ *   by query id. Each fingerprint is computed the first time it is asked for, then kept for the run,
+ *   so that all-pairs distance calculations don't redo the n-grams of a query for every pair.
+ *
+ * Lookups don't lock, and may come from any number of threads.
+ * @author Li Quan Khoo
+ *
+ */
+public class FingerprintCache {
+	
+	public static final int DEFAULT_NGRAM_SIZE = 3; // tri-grams, as Lucchese et al.
+	
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	
+	private static FingerprintCache defaultCache = new FingerprintCache(QueryDictionary.getDefault(), DEFAULT_NGRAM_SIZE);
+	
+	private QueryDictionary dictionary;
+	private int nGramSize;
+	
+	// Fingerprint of query id i is at chunks[i >> CHUNK_BITS][i & (CHUNK_SIZE - 1)]. Grown under lock
+	private volatile AtomicReferenceArray<int[]>[] chunks;
+	
+	public FingerprintCache(QueryDictionary dictionary, int nGramSize) {
+		this.dictionary = dictionary;
+		this.nGramSize = nGramSize;
+		this.chunks = newChunks(0);
+	}
+	
+	/**
+	 * Tri-gram fingerprints of the default QueryDictionary
+	 */
+	public static FingerprintCache getDefault() {
+		return defaultCache;
+	}
+	
+	public int getNGramSize() {
+		return this.nGramSize;
+	}
+	
+	public int[] get(int queryId) {
+		AtomicReferenceArray<int[]>[] chunks = this.chunks;
+		int chunk = queryId >>> CHUNK_BITS;
+		if(chunk < chunks.length) {
+			int[] fingerprint = chunks[chunk].get(queryId & (CHUNK_SIZE - 1));
+			if(fingerprint != null) {
+				return fingerprint;
+			}
+		}
+		
+		// Two threads may both compute the same fingerprint. Either result will do
+		int[] fingerprint = QueryDistance.fingerprint(this.dictionary.getQuery(queryId), this.nGramSize);
+		chunkOf(chunk).set(queryId & (CHUNK_SIZE - 1), fingerprint);
+		return fingerprint;
+	}
+	
+	private synchronized AtomicReferenceArray<int[]> chunkOf(int chunk) {
+		if(chunk >= this.chunks.length) {
+			AtomicReferenceArray<int[]>[] newChunks = newChunks(Math.max(chunk + 1, this.chunks.length * 2));
+			System.arraycopy(this.chunks, 0, newChunks, 0, this.chunks.length);
+			for(int i = this.chunks.length; i < newChunks.length; i++) {
+				newChunks[i] = new AtomicReferenceArray<int[]>(CHUNK_SIZE);
+			}
+			this.chunks = newChunks;
+		}
+		return this.chunks[chunk];
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static AtomicReferenceArray<int[]>[] newChunks(int length) {
+		return (AtomicReferenceArray<int[]>[]) new AtomicReferenceArray<?>[length];
+	}
+	
+}
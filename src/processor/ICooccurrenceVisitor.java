@@ -0,0 +1,19 @@
+package processor;
+
+/**
+ * Receives the aggregated record of one search string from CooccurrenceAggregator: the sessions it was
+ *   found in, and how many sessions it shared with each other search string. Search strings are given
+ *   by their aggregator id, see CooccurrenceAggregator.getSearchString().
+ * Only the first numOfSessions and numOfCooccurring elements of the arrays are valid, and the arrays
+ *   are reused for the next record.
+ * @author Li Quan Khoo
+ */
+public interface ICooccurrenceVisitor {
+	
+	/**
+	 * @param cooccurringIds	Ids of the other search strings, ascending
+	 * @param counts			Number of sessions shared with each of them
+	 */
+	public void visit(int searchStringId, int[] sessionIds, int numOfSessions, int[] cooccurringIds, int[] counts, int numOfCooccurring);
+	
+}
@@ -0,0 +1,12 @@
+package processor;
+
+/**
+ * Receives pairs of queries, by QueryDictionary id, along with their distance.
+ * Used to hand out near-duplicate and similarity pairs without collecting them all first.
+ * @author Li Quan Khoo
+ */
+public interface IQueryPairVisitor {
+	
+	public void visit(int queryId1, int queryId2, double distance);
+	
+}
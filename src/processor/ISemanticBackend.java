@@ -0,0 +1,18 @@
+package processor;
+
+import model.SparseVector;
+
+/**
+ * Source of semantic vectors of queries for QueryDistance.semanticDistance(), e.g. the YAGO categories
+ *   of the entities a query mentions, or the concept weights of its terms.
+ * Implementations are called from several threads at once.
+ * @author Li Quan Khoo
+ */
+public interface ISemanticBackend {
+	
+	/**
+	 * Semantic vector of the query, SparseVector.EMPTY if nothing is known about it
+	 */
+	public SparseVector getVector(String query);
+	
+}
@@ -0,0 +1,91 @@
+package processor;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import model.QueryDictionary;
+import model.SearchSession;
+
+import org.apache.commons.collections15.Transformer;
+
+import edu.uci.ics.jung.graph.UndirectedGraph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import edu.uci.ics.jung.io.GraphMLWriter;
+
+/**
+ * Views of a QcWccClusterer.EdgeList as a JUNG graph, for inspecting a session's similarity graph with
+ *   the JUNG algorithms and visualization, or exporting it as GraphML.
+ * Vertices are query positions within the session and edges are edge indices within the EdgeList.
+ *   JUNG's object graphs are much larger than the edge list, so this isn't meant for clustering itself.
+ * @author Li Quan Khoo
+ *
+ */
+public class JungGraphAdapter {
+	
+	private SearchSession session;
+	private QcWccClusterer.EdgeList edges;
+	
+	public JungGraphAdapter(SearchSession session, QcWccClusterer.EdgeList edges) {
+		this.session = session;
+		this.edges = edges;
+	}
+	
+	public UndirectedGraph<Integer, Integer> toGraph() {
+		UndirectedGraph<Integer, Integer> graph = new UndirectedSparseGraph<Integer, Integer>();
+		for(int vertex = 0; vertex < this.edges.getNumOfVertices(); vertex++) {
+			graph.addVertex(vertex);
+		}
+		for(int edge = 0; edge < this.edges.size(); edge++) {
+			graph.addEdge(edge, this.edges.getSource(edge), this.edges.getTarget(edge));
+		}
+		return graph;
+	}
+	
+	/**
+	 * Edge distances, as taken by the weighted JUNG algorithms, e.g. DijkstraShortestPath
+	 */
+	public Transformer<Integer, Number> getEdgeWeights() {
+		return new Transformer<Integer, Number>() {
+			@Override
+			public Number transform(Integer edge) {
+				return edges.getWeight(edge);
+			}
+		};
+	}
+	
+	public Transformer<Integer, String> getVertexLabels() {
+		return new Transformer<Integer, String>() {
+			@Override
+			public String transform(Integer vertex) {
+				return QueryDictionary.getDefault().getQuery(session.getQueryId(vertex));
+			}
+		};
+	}
+	
+	public void writeGraphML(Writer writer) throws IOException {
+		GraphMLWriter<Integer, Integer> graphMLWriter = new GraphMLWriter<Integer, Integer>();
+		graphMLWriter.addVertexData("query", "Query string", "", getVertexLabels());
+		graphMLWriter.addEdgeData("distance", "Query distance", "", new Transformer<Integer, String>() {
+			@Override
+			public String transform(Integer edge) {
+				return String.valueOf(edges.getWeight(edge));
+			}
+		});
+		graphMLWriter.save(toGraph(), writer);
+	}
+	
+	public void writeGraphML(String filePath) {
+		try {
+			FileWriter writer = new FileWriter(filePath);
+			try {
+				writeGraphML(writer);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			System.out.println("JungGraphAdapter: Error writing " + filePath);
+		}
+	}
+	
+}
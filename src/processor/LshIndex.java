@@ -0,0 +1,236 @@
+package processor;
+
+import java.util.Arrays;
+
+/**
+ * Banded locality-sensitive hashing index over MinHash signatures.
+ * Signatures are cut into bands of rows positions each. Two queries become a candidate pair when all
+ *   positions of at least one band agree, which for Jaccard similarity s happens with probability
+ *   1 - (1 - s^rows)^bands, an S-curve rising steeply around (1 / bands)^(1 / rows).
+ *
+ * Band keys are kept in one primitive long array per band, (band hash << 32 | position), and grouped
+ *   by sorting rather than by hash maps, so that millions of queries fit in a few arrays. The position
+ *   is the order the query was added in, which also indexes the query ids and the band hashes.
+ * Candidate pairs are handed out bucket by bucket rather than collected, so their number isn't bounded
+ *   by an array. A pair is handed out in the first band where the two queries share a bucket.
+ * Candidates are only likely to be near each other. Callers check them with an exact distance.
+ * @author Li Quan Khoo
+ *
+ */
+public class LshIndex {
+	
+	public static final int DEFAULT_MAX_BUCKET_SIZE = 1000;
+	public static final double DEFAULT_RECALL = 0.95; // at the threshold. Pairs nearer than it are found more often
+	
+	private int numOfBands;
+	private int rowsPerBand;
+	private long[][] bandEntries;
+	private int[][] bandHashes; // by position
+	private int[] queryIds; // by position
+	private int size;
+	private boolean sorted;
+	
+	public LshIndex(int numOfBands, int rowsPerBand) {
+		this.numOfBands = numOfBands;
+		this.rowsPerBand = rowsPerBand;
+		this.bandEntries = new long[numOfBands][1024];
+		this.bandHashes = new int[numOfBands][1024];
+		this.queryIds = new int[1024];
+		this.size = 0;
+		this.sorted = true;
+	}
+	
+	/**
+	 * Picks the split of numOfHashes signature positions into bands which makes pairs at the given
+	 *   Jaccard distance (similarity 1 - maxJaccardDistance) candidates with at least DEFAULT_RECALL
+	 *   probability, with as few candidates as possible, i.e. the most rows per band.
+	 */
+	public static LshIndex forThreshold(double maxJaccardDistance, int numOfHashes) {
+		return forThreshold(maxJaccardDistance, numOfHashes, DEFAULT_RECALL);
+	}
+	
+	public static LshIndex forThreshold(double maxJaccardDistance, int numOfHashes, double recall) {
+		double similarity = 1 - maxJaccardDistance;
+		int bestRows = 1;
+		for(int rows = 1; rows <= numOfHashes; rows++) {
+			int bands = numOfHashes / rows; // positions left over are unused
+			double probability = 1 - Math.pow(1 - Math.pow(similarity, rows), bands);
+			if(probability >= recall) {
+				bestRows = rows;
+			}
+		}
+		return new LshIndex(numOfHashes / bestRows, bestRows);
+	}
+	
+	public int getNumOfBands() { return this.numOfBands; }
+	public int getRowsPerBand() { return this.rowsPerBand; }
+	public int size() { return this.size; }
+	
+	/**
+	 * Adds a query by its signature, which must have at least numOfBands * rowsPerBand positions
+	 */
+	public void add(int queryId, int[] signature) {
+		if(this.size == this.queryIds.length) {
+			for(int band = 0; band < this.numOfBands; band++) {
+				this.bandEntries[band] = Arrays.copyOf(this.bandEntries[band], this.size * 2);
+				this.bandHashes[band] = Arrays.copyOf(this.bandHashes[band], this.size * 2);
+			}
+			this.queryIds = Arrays.copyOf(this.queryIds, this.size * 2);
+		}
+		for(int band = 0; band < this.numOfBands; band++) {
+			int bandHash = bandHash(signature, band);
+			this.bandHashes[band][this.size] = bandHash;
+			this.bandEntries[band][this.size] = entry(bandHash, this.size);
+		}
+		this.queryIds[this.size] = queryId;
+		this.size++;
+		this.sorted = false;
+	}
+	
+	private int bandHash(int[] signature, int band) {
+		int hash = band * 0x9E3779B9;
+		int start = band * this.rowsPerBand;
+		for(int i = start; i < start + this.rowsPerBand; i++) {
+			hash = hash * 31 + signature[i];
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+	
+	private static long entry(int bandHash, int position) {
+		return ((long) bandHash << 32) | (position & 0xffffffffL);
+	}
+	
+	private void sort() {
+		if(! this.sorted) {
+			for(int band = 0; band < this.numOfBands; band++) {
+				Arrays.sort(this.bandEntries[band], 0, this.size);
+			}
+			this.sorted = true;
+		}
+	}
+	
+	/**
+	 * Hands every candidate pair to the visitor, each once, as they are found, with a distance of NaN as
+	 *   it hasn't been measured. Buckets holding more than maxBucketSize queries are skipped, as they say
+	 *   little and would cost quadratically many pairs.
+	 * Returns the number of pairs visited.
+	 */
+	public long candidatePairs(int maxBucketSize, IQueryPairVisitor visitor) {
+		sort();
+		long numOfPairs = 0;
+		for(int band = 0; band < this.numOfBands; band++) {
+			long[] entries = this.bandEntries[band];
+			int start = 0;
+			while(start < this.size) {
+				int end = start + 1;
+				while(end < this.size && (entries[end] >>> 32) == (entries[start] >>> 32)) {
+					end++;
+				}
+				if(end - start > 1 && end - start <= maxBucketSize) {
+					for(int i = start; i < end; i++) {
+						for(int j = i + 1; j < end; j++) {
+							int position1 = (int) entries[i];
+							int position2 = (int) entries[j];
+							if(! metBefore(position1, position2, band, maxBucketSize)) {
+								visitor.visit(this.queryIds[position1], this.queryIds[position2], Double.NaN);
+								numOfPairs++;
+							}
+						}
+					}
+				}
+				start = end;
+			}
+		}
+		return numOfPairs;
+	}
+	
+	public long candidatePairs(IQueryPairVisitor visitor) {
+		return candidatePairs(DEFAULT_MAX_BUCKET_SIZE, visitor);
+	}
+	
+	/*
+	 * Whether the two queries already shared a bucket of at most maxBucketSize in a band before the given one
+	 */
+	private boolean metBefore(int position1, int position2, int band, int maxBucketSize) {
+		for(int earlier = 0; earlier < band; earlier++) {
+			int bandHash = this.bandHashes[earlier][position1];
+			if(bandHash == this.bandHashes[earlier][position2] && bucketSize(earlier, bandHash) <= maxBucketSize) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private int bucketSize(int band, int bandHash) {
+		long[] entries = this.bandEntries[band];
+		int first = lowerBound(entries, entry(bandHash, 0));
+		int end = (bandHash == Integer.MAX_VALUE) ? this.size : lowerBound(entries, entry(bandHash + 1, 0));
+		return end - first;
+	}
+	
+	private int lowerBound(long[] entries, long key) {
+		int low = 0;
+		int high = this.size;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(entries[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Ids of the queries sharing at least one band with the signature, each once, sorted
+	 */
+	public int[] query(int[] signature) {
+		sort();
+		int[] ids = new int[16];
+		int numOfIds = 0;
+		for(int band = 0; band < this.numOfBands; band++) {
+			long[] entries = this.bandEntries[band];
+			long key = entry(bandHash(signature, band), 0);
+			int i = Arrays.binarySearch(entries, 0, this.size, key);
+			if(i < 0) {
+				i = -i - 1;
+			}
+			for(; i < this.size && (entries[i] >>> 32) == (key >>> 32); i++) {
+				if(numOfIds == ids.length) {
+					ids = Arrays.copyOf(ids, ids.length * 2);
+				}
+				ids[numOfIds++] = this.queryIds[(int) entries[i]];
+			}
+		}
+		Arrays.sort(ids, 0, numOfIds);
+		int unique = 0;
+		for(int i = 0; i < numOfIds; i++) {
+			if(unique == 0 || ids[i] != ids[unique - 1]) {
+				ids[unique++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(ids, unique);
+	}
+	
+	/*
+	 * Pair of query ids packed into a long, smaller id first
+	 */
+	public static long pair(int queryId1, int queryId2) {
+		int first = Math.min(queryId1, queryId2);
+		int second = Math.max(queryId1, queryId2);
+		return ((long) first << 32) | (second & 0xffffffffL);
+	}
+	
+	public static int first(long pair) {
+		return (int) (pair >>> 32);
+	}
+	
+	public static int second(long pair) {
+		return (int) pair;
+	}
+	
+}
@@ -0,0 +1,83 @@
+package processor;
+
+import java.util.Random;
+
+/**
+ * MinHash signatures of n-gram fingerprints (see QueryDistance.fingerprint()).
+ * Each position of a signature is the minimum of one hash function over the n-grams of the query.
+ *   Two signatures agree at a position with a probability equal to the Jaccard similarity of the
+ *   n-gram sets, i.e. 1 - QueryDistance.jaccard().
+ * @author Li Quan Khoo
+ *
+ */
+public class MinHash {
+	
+	public static final int DEFAULT_NUM_OF_HASHES = 64;
+	public static final long DEFAULT_SEED = 0x5eed;
+	
+	// h_i(x) = high 31 bits of (a_i * x + b_i), with odd a_i
+	private long[] a;
+	private long[] b;
+	
+	public MinHash() {
+		this(DEFAULT_NUM_OF_HASHES, DEFAULT_SEED);
+	}
+	
+	/*
+	 * Signatures are only comparable when made by MinHash instances with the same numOfHashes and seed
+	 */
+	public MinHash(int numOfHashes, long seed) {
+		Random random = new Random(seed);
+		this.a = new long[numOfHashes];
+		this.b = new long[numOfHashes];
+		for(int i = 0; i < numOfHashes; i++) {
+			this.a[i] = random.nextLong() | 1;
+			this.b[i] = random.nextLong();
+		}
+	}
+	
+	public int getNumOfHashes() {
+		return this.a.length;
+	}
+	
+	/**
+	 * Signature of the fingerprint. An empty fingerprint gives a signature of Integer.MAX_VALUE throughout
+	 */
+	public int[] signature(int[] fingerprint) {
+		int[] signature = new int[this.a.length];
+		signature(fingerprint, signature);
+		return signature;
+	}
+	
+	/**
+	 * Writes the signature of the fingerprint into the given array, of length getNumOfHashes()
+	 */
+	public void signature(int[] fingerprint, int[] signature) {
+		for(int i = 0; i < this.a.length; i++) {
+			long a = this.a[i];
+			long b = this.b[i];
+			int min = Integer.MAX_VALUE;
+			for(int nGram : fingerprint) {
+				int hash = (int) ((a * (nGram & 0xffffffffL) + b) >>> 33); // non-negative
+				if(hash < min) {
+					min = hash;
+				}
+			}
+			signature[i] = min;
+		}
+	}
+	
+	/**
+	 * Fraction of positions at which the two signatures agree, an estimate of the Jaccard similarity
+	 */
+	public static double estimateSimilarity(int[] signature1, int[] signature2) {
+		int matches = 0;
+		for(int i = 0; i < signature1.length; i++) {
+			if(signature1[i] == signature2[i]) {
+				matches++;
+			}
+		}
+		return (double) matches / signature1.length;
+	}
+	
+}
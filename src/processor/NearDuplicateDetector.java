@@ -0,0 +1,117 @@
+package processor;
+
+import java.util.Arrays;
+
+import model.QueryDictionary;
+
+/**
+ * Finds pairs of queries within a distance of each other without comparing every query to every other.
+ * MinHash signatures of the queries' tri-gram fingerprints go into a banded LshIndex, which gives
+ *   candidate pairs likely to be within maxJaccardDistance of each other. Only the candidates are
+ *   checked with the exact conditional distance, through QueryDistance.isWithin() on the fingerprints
+ *   of the FingerprintCache, as DistanceMatrix does.
+ *
+ * Pairs whose Jaccard distance is above maxJaccardDistance are likely to be missed, so set it to the
+ *   loosest Jaccard distance a pair of interest can have. Since lexical distance is the mean of the
+ *   Levenshtein and Jaccard distances, that is at most twice the lexical distance sought.
+ * @author Li Quan Khoo
+ *
+ */
+public class NearDuplicateDetector {
+	
+	public static final double DEFAULT_MAX_JACCARD_DISTANCE = 0.5;
+	
+	private MinHash minHash;
+	private double maxJaccardDistance;
+	private int maxBucketSize;
+	private FingerprintCache fingerprints;
+	
+	private long numOfCandidates;
+	
+	public NearDuplicateDetector() {
+		this(DEFAULT_MAX_JACCARD_DISTANCE);
+	}
+	
+	public NearDuplicateDetector(double maxJaccardDistance) {
+		this(maxJaccardDistance, new MinHash(), LshIndex.DEFAULT_MAX_BUCKET_SIZE);
+	}
+	
+	public NearDuplicateDetector(double maxJaccardDistance, MinHash minHash, int maxBucketSize) {
+		this.maxJaccardDistance = maxJaccardDistance;
+		this.minHash = minHash;
+		this.maxBucketSize = maxBucketSize;
+		this.fingerprints = FingerprintCache.getDefault();
+	}
+	
+	/**
+	 * Hands every candidate pair among the given queries of the default QueryDictionary to the visitor,
+	 *   as LshIndex.candidatePairs() does. Queries too short to have a tri-gram are left out, as they are
+	 *   at Jaccard distance 1 from everything. Repeated ids are indexed once, so no query is paired
+	 *   with itself.
+	 * Returns the number of candidates.
+	 */
+	public long candidatePairs(int[] queryIds, IQueryPairVisitor visitor) {
+		LshIndex index = LshIndex.forThreshold(this.maxJaccardDistance, this.minHash.getNumOfHashes());
+		int[] signature = new int[this.minHash.getNumOfHashes()];
+		for(int queryId : distinct(queryIds)) {
+			int[] fingerprint = this.fingerprints.get(queryId);
+			if(fingerprint.length != 0) {
+				this.minHash.signature(fingerprint, signature);
+				index.add(queryId, signature);
+			}
+		}
+		long candidates = index.candidatePairs(this.maxBucketSize, visitor);
+		this.numOfCandidates += candidates;
+		return candidates;
+	}
+	
+	/**
+	 * Hands every pair of the given queries whose conditionalDistance() is at most maxDistance to the visitor.
+	 * Returns the number of pairs visited.
+	 */
+	public long findNearDuplicates(int[] queryIds, final double maxDistance, final IQueryPairVisitor visitor) {
+		final QueryDictionary dictionary = QueryDictionary.getDefault();
+		final long[] found = new long[1];
+		candidatePairs(queryIds, new IQueryPairVisitor() {
+			@Override
+			public void visit(int queryId1, int queryId2, double candidateDistance) {
+				if(queryId1 == queryId2) {
+					return;
+				}
+				String query1 = dictionary.getQuery(queryId1);
+				String query2 = dictionary.getQuery(queryId2);
+				int[] fingerprint1 = fingerprints.get(queryId1);
+				int[] fingerprint2 = fingerprints.get(queryId2);
+				if(QueryDistance.isWithin(query1, fingerprint1, query2, fingerprint2, DistanceMatrix.Metric.CONDITIONAL, maxDistance)) {
+					visitor.visit(queryId1, queryId2,
+							QueryDistance.distance(query1, fingerprint1, query2, fingerprint2, DistanceMatrix.Metric.CONDITIONAL));
+					found[0]++;
+				}
+			}
+		});
+		return found[0];
+	}
+	
+	/*
+	 * The given ids in ascending order, each once
+	 */
+	private static int[] distinct(int[] ids) {
+		int[] sorted = Arrays.copyOf(ids, ids.length);
+		Arrays.sort(sorted);
+		int size = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			if(size == 0 || sorted[i] != sorted[size - 1]) {
+				sorted[size++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, size);
+	}
+	
+	/*
+	 * Total number of candidate pairs generated so far, for reporting
+	 */
+	public long getNumOfCandidates() {
+		return this.numOfCandidates;
+	}
+	
+}
@@ -1,12 +1,10 @@
 package processor;
-import java.util.ArrayList;
-
 import model.LogObject;
 import model.SearchSession;
 import reader.AolLogReader;
+import reader.ILogReader;
 import writer.BatchFileWriter;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import writer.SessionStreamWriter;
 /**
  * This is the preprocessor class handling all the data cleanup and time splitting
  * Takes AOL log files and outputs a set of JSON files containing session information
@@ -30,67 +28,59 @@ public class Preprocessor {
 	public static final String DEFAULT_OUTPUT_DIR = "output/preprocessor-out/";
 	private String outputDir;
 	
-	private AolLogReader logReader;
+	private ILogReader logReader;
 	private Cleaner cleaner;
 	private BatchFileWriter writer;
+	private SessionStreamWriter sessionWriter;
 	
-	private SearchSession currentSession;
-	private long sessionLength;
-	private ArrayList<SearchSession> sessionArray;
+	private TimeSplitter timeSplitter;
+	private int nextSessionId;
 	
 	public Preprocessor() {
 		this(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_SESSION_LENGTH, DEFAULT_OUTPUT_DIR);
 	}
 	
 	public Preprocessor(int maxSessions, long defaultMaxSessionLength, String outputDir) {
+		this(maxSessions, defaultMaxSessionLength, outputDir, new AolLogReader());
+	}
+	
+	/*
+	 * Use this to pick the ingestion mode, e.g. a MappedAolLogReader to parse the logs on all cores
+	 */
+	public Preprocessor(int maxSessions, long defaultMaxSessionLength, String outputDir, ILogReader logReader) {
 		this.maxSessions = maxSessions;
 		this.maxSessionLength = defaultMaxSessionLength;
 		this.outputDir = outputDir;
-		this.logReader = new AolLogReader();
+		this.logReader = logReader;
 		this.cleaner = new Cleaner();
 		this.writer = new BatchFileWriter(this.outputDir, "json");
 		
-		this.currentSession = null;
-		this.sessionLength = 0;
-		this.sessionArray = new ArrayList<SearchSession>();
+		this.sessionWriter = new SessionStreamWriter(this.outputDir, this.maxSessions, SessionStreamWriter.DEFAULT_MAX_BYTES);
+		this.timeSplitter = new TimeSplitter(this.maxSessionLength);
+		this.nextSessionId = 0;
 	}
 	
 	/*
-	 * Write whatever's currently in sessionArray to file via BatchFileWriter 
+	 * Default is SessionStreamWriter.Format.JSON, the original pretty-printed arrays. JSONL and BINARY
+	 *   are much smaller, and are read back one session at a time by reader.PreprocessedLogReader
 	 */
-	private void write() {
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-		String json = gson.toJson(this.sessionArray);
-		writer.writeToFile(json, "output"); // Write to file
+	public void setOutputFormat(SessionStreamWriter.Format format) {
+		this.sessionWriter = new SessionStreamWriter(this.outputDir, this.maxSessions, SessionStreamWriter.DEFAULT_MAX_BYTES, format);
+	}
+	
+	/*
+	 * Numbers a finished session and streams it to the current output file. A new file is started every
+	 *   maxSessions sessions. Sessions must be passed in the order they were started
+	 */
+	void emit(SearchSession session) {
+		session.setSessionId(this.nextSessionId++);
+		this.sessionWriter.write(session);
 	}
 	
 	private void timeSplit(LogObject logObj) {
-		while(true) {
-			// If new session, add the log data and we're finished
-			if(currentSession == null) {
-				currentSession = new SearchSession(logObj);
-				return;
-			} else {
-				if(currentSession.getUserId() == logObj.getAnonId()) {
-					sessionLength = logObj.getQueryTime().getTime() - currentSession.getSessionStart().getTime();
-					if(sessionLength < maxSessionLength) { // If session length within normal bounds
-						currentSession.addQuery(logObj.getQuery());
-						currentSession.setSessionEnd(logObj.getQueryTime());
-						return;
-					}
-				}
-			}
-			// Otherwise terminate existing session
-			this.sessionArray.add(currentSession);
-			if(this.sessionArray.size() >= maxSessions) {
-				
-				// do stuff with the full array of sessions here
-				write();
-				
-				// Reset sessionArray
-				this.sessionArray = new ArrayList<SearchSession>();
-			}
-			currentSession = null; // Reset session, loop to beginning to write
+		SearchSession terminatedSession = this.timeSplitter.split(logObj);
+		if(terminatedSession != null) {
+			emit(terminatedSession);
 		}
 	}
 	
@@ -108,10 +98,36 @@ public class Preprocessor {
 			}
 			obj = this.logReader.readNextLine();
 		}
-		if(this.sessionArray.size() != 0) {
-			// do stuff with the partially full array of the last sessions here
-			write();
-		}
+		finish();
+	}
+	
+	/**
+	 * Sharded mode of run(). Log records are hash-partitioned by anonId across numOfShards worker threads,
+	 *   each of which cleans its records and runs its own TS-x time splitter. Finished sessions are merged
+	 *   back in the order they were started, so the output is identical to run() as long as the logs are
+	 *   sorted by user, which the AOL logs are.
+	 * @throws IllegalStateException	if a shard failed. The sessions written so far are closed off, but
+	 *   the output is incomplete
+	 */
+	public void runSharded(int numOfShards) {
+		
+		// Clear output directory
+		writer.deleteFilesInDir(this.outputDir);
 		
+		ShardedTimeSplitter shardedTimeSplitter = new ShardedTimeSplitter(this, numOfShards, this.maxSessionLength);
+		try {
+			shardedTimeSplitter.run(this.logReader);
+		} finally {
+			finish();
+		}
+	}
+	
+	private void finish() {
+		SearchSession lastSession = this.timeSplitter.flush();
+		if(lastSession != null) {
+			emit(lastSession);
+		}
+		this.sessionWriter.close();
+		StemCache.getDefault().printStats();
 	}
 }
@@ -0,0 +1,117 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.SearchSession;
+import reader.PreprocessedLogReader;
+
+/**
+ * QC-htc (query clustering, head-tail components) task splitting of Lucchese et al. 2011.
+ * Within each session, queries are compared only against the first (head) and last (tail) query of
+ *   a cluster rather than against all of its queries, so a session of n queries takes O(n) distance
+ *   computations for the sequential step rather than the O(n^2) of QC-wcc.
+ *
+ * Step 1 - sequential: each query joins the cluster of the queries just before it if it is near that
+ *   cluster's head or tail, and starts a new cluster otherwise.
+ * Step 2 - merging: each sequential cluster is merged into the first earlier cluster whose head or
+ *   tail is near its own head or tail, and becomes the new tail of that cluster.
+ * @author Li Quan Khoo
+ *
+ */
+public class QcHtcClusterer extends AbstractSessionClusterer {
+	
+	public static final String DEFAULT_OUTPUT_DIR = "output/qchtc-out/";
+	
+	/*
+	 * Lucchese et al. use the conditional distance with a threshold of 0.3. Without a semantic backend
+	 *   set on QueryDistance, the conditional distance is the lexical distance.
+	 */
+	public static final double DEFAULT_DISTANCE_THRESHOLD = 0.3;
+	
+	public QcHtcClusterer() {
+		this(PreprocessedLogReader.DEFAULT_INPUT_DIR, DEFAULT_OUTPUT_DIR, DEFAULT_DISTANCE_THRESHOLD);
+	}
+	
+	public QcHtcClusterer(String inputDir, String outputDir, double distanceThreshold) {
+		super(inputDir, outputDir, distanceThreshold);
+	}
+	
+	@Override
+	protected List<int[]> cluster(SearchSession session, SessionFeatures features) {
+		int size = features.size();
+		ArrayList<int[]> tasks = new ArrayList<int[]>();
+		if(size == 0) {
+			return tasks;
+		}
+		
+		// Step 1 - sequential clusters, as ranges [clusterStarts[c], clusterStarts[c + 1])
+		int[] clusterStarts = new int[size + 1];
+		int numOfClusters = 1;
+		for(int i = 1; i < size; i++) {
+			int head = clusterStarts[numOfClusters - 1];
+			int tail = i - 1;
+			if(! isNear(features, head, i) && (tail == head || ! isNear(features, tail, i))) {
+				clusterStarts[numOfClusters++] = i;
+			}
+		}
+		clusterStarts[numOfClusters] = size;
+		if(numOfClusters == 1) {
+			tasks.add(range(0, size));
+			return tasks;
+		}
+		
+		// Step 2 - merge clusters by head and tail
+		int[] mergedInto = new int[numOfClusters];	// merged cluster of each sequential cluster
+		int[] mergedHeads = new int[numOfClusters];
+		int[] mergedTails = new int[numOfClusters];
+		int[] mergedSizes = new int[numOfClusters];
+		int numOfMerged = 0;
+		for(int c = 0; c < numOfClusters; c++) {
+			int head = clusterStarts[c];
+			int tail = clusterStarts[c + 1] - 1;
+			int target = -1;
+			for(int m = 0; m < numOfMerged && target == -1; m++) {
+				if(isNearHeadOrTail(features, head, tail, mergedHeads[m], mergedTails[m])) {
+					target = m;
+				}
+			}
+			if(target == -1) {
+				target = numOfMerged++;
+				mergedHeads[target] = head;
+			}
+			mergedInto[c] = target;
+			mergedTails[target] = tail;
+			mergedSizes[target] += tail - head + 1;
+		}
+		
+		// Queries of each merged cluster, in chronological order
+		for(int m = 0; m < numOfMerged; m++) {
+			tasks.add(new int[mergedSizes[m]]);
+		}
+		int[] filled = new int[numOfMerged];
+		for(int c = 0; c < numOfClusters; c++) {
+			int[] task = tasks.get(mergedInto[c]);
+			for(int i = clusterStarts[c]; i < clusterStarts[c + 1]; i++) {
+				task[filled[mergedInto[c]]++] = i;
+			}
+		}
+		return tasks;
+	}
+	
+	private boolean isNearHeadOrTail(SessionFeatures features, int head1, int tail1, int head2, int tail2) {
+		return isNear(features, head1, head2)
+				|| (tail2 != head2 && isNear(features, head1, tail2))
+				|| (tail1 != head1 && isNear(features, tail1, head2))
+				|| (tail1 != head1 && tail2 != head2 && isNear(features, tail1, tail2));
+	}
+	
+	private static int[] range(int start, int end) {
+		int[] range = new int[end - start];
+		for(int i = 0; i < range.length; i++) {
+			range[i] = start + i;
+		}
+		return range;
+	}
+	
+}
@@ -0,0 +1,117 @@
+package processor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import model.SearchSession;
+import reader.PreprocessedLogReader;
+import util.UnionFind;
+
+/**
+ * QC-wcc (query clustering, weighted connected components) task splitting of Lucchese et al. 2011.
+ * Within each session, all pairs of queries are compared and those within the distance threshold are
+ *   joined by an edge. The tasks of the session are the connected components of that graph.
+ *
+ * Components are found with a UnionFind over query positions as the pairs are compared, and pairs
+ *   already in the same component are not compared at all. Where the weighted graph itself is wanted,
+ *   for inspection or export, buildGraph() gives it as a primitive edge list; see JungGraphAdapter.
+ * @author Li Quan Khoo
+ *
+ */
+public class QcWccClusterer extends AbstractSessionClusterer {
+	
+	public static final String DEFAULT_OUTPUT_DIR = "output/qcwcc-out/";
+	
+	// See QcHtcClusterer.DEFAULT_DISTANCE_THRESHOLD
+	public static final double DEFAULT_DISTANCE_THRESHOLD = 0.3;
+	
+	public QcWccClusterer() {
+		this(PreprocessedLogReader.DEFAULT_INPUT_DIR, DEFAULT_OUTPUT_DIR, DEFAULT_DISTANCE_THRESHOLD);
+	}
+	
+	public QcWccClusterer(String inputDir, String outputDir, double distanceThreshold) {
+		super(inputDir, outputDir, distanceThreshold);
+	}
+	
+	@Override
+	protected List<int[]> cluster(SearchSession session, SessionFeatures features) {
+		int size = features.size();
+		UnionFind components = new UnionFind(size);
+		for(int i = 0; i < size && components.getNumOfSets() > 1; i++) {
+			for(int j = i + 1; j < size; j++) {
+				if(! components.connected(i, j) && isNear(features, i, j)) {
+					components.union(i, j);
+				}
+			}
+		}
+		return Arrays.asList(components.sets());
+	}
+	
+	/**
+	 * The thresholded similarity graph of a session, with every pair within the threshold as an edge
+	 *   weighted by its distance
+	 */
+	public EdgeList buildGraph(SearchSession session) {
+		SessionFeatures features = new SessionFeatures(session);
+		int size = features.size();
+		EdgeList edges = new EdgeList(size);
+		for(int i = 0; i < size; i++) {
+			for(int j = i + 1; j < size; j++) {
+				if(isNear(features, i, j)) {
+					edges.add(i, j, (float) distance(features, i, j));
+				}
+			}
+		}
+		return edges;
+	}
+	
+	/**
+	 * Undirected weighted edges between query positions of a session, as parallel primitive arrays
+	 */
+	public static class EdgeList {
+		
+		private int numOfVertices;
+		private int[] sources;
+		private int[] targets;
+		private float[] weights;
+		private int size;
+		
+		public EdgeList(int numOfVertices) {
+			this.numOfVertices = numOfVertices;
+			this.sources = new int[16];
+			this.targets = new int[16];
+			this.weights = new float[16];
+			this.size = 0;
+		}
+		
+		public void add(int source, int target, float weight) {
+			if(this.size == this.sources.length) {
+				this.sources = Arrays.copyOf(this.sources, this.size * 2);
+				this.targets = Arrays.copyOf(this.targets, this.size * 2);
+				this.weights = Arrays.copyOf(this.weights, this.size * 2);
+			}
+			this.sources[this.size] = source;
+			this.targets[this.size] = target;
+			this.weights[this.size] = weight;
+			this.size++;
+		}
+		
+		public int getNumOfVertices() { return this.numOfVertices; }
+		public int size() { return this.size; }
+		public int getSource(int edge) { return this.sources[edge]; }
+		public int getTarget(int edge) { return this.targets[edge]; }
+		public float getWeight(int edge) { return this.weights[edge]; }
+		
+		/**
+		 * Connected components of the graph, as in QcWccClusterer.cluster()
+		 */
+		public int[][] components() {
+			UnionFind components = new UnionFind(this.numOfVertices);
+			for(int edge = 0; edge < this.size; edge++) {
+				components.union(this.sources[edge], this.targets[edge]);
+			}
+			return components.sets();
+		}
+	}
+	
+}
@@ -0,0 +1,487 @@
+package processor;
+
+import java.util.Arrays;
+
+import model.QueryDictionary;
+
+/**
+ * Class that calculates the query distance between two strings
+ * 
+ * @author Li Quan Khoo
+ */
+public class QueryDistance {
+	
+	// Current values place all weighting on the lexical distance. The semantic distance only comes in
+	//   through conditionalDistance(), and only once a backend is set with setSemanticBackend()
+	
+	
+	// Lexical distance weighting against semantic distance
+	// 0.5 means half/half, 1.0 means only consider lexical distance, 0.0 means only consider semantic distance
+	// Lucchese's best-result value for using only miu(1) is 1.0 (pg284)
+	public static final double DEFAULT_LEXICAL_DISTANCE_WEIGHT = 1.0;
+	
+	// For calculating the conditional distance function as defined in Lucchese et al. 2011
+	// If lexical distance is less than this value, then semantic distance is not considered at all
+	//   to satisfy the intuition that if two queries are extremely similar, then they very likely 
+	//   refer to the same thing / are reformulations
+	// 1.0 means always ignore semantic distance, 0.0 means always take into account semantic distance
+	
+	// Lucchese's value is 0.5 (pg285)
+	public static final double DEFAULT_LEXICAL_DISTANCE_OVERRIDE_THRESHOLD = 0.5;
+	// Lucchese's value is 4.0 (pg285)
+	public static final double DEFAULT_SEMANTIC_DISTANCE_MULTIPLIER = 4.0;
+	
+	private static volatile SemanticDistance semanticDistance = null;
+	
+	public QueryDistance() {
+		// Nothing to initialize
+	}
+	
+	/**
+	 * Sets where semanticDistance() gets its query vectors from, with a cache of the default size.
+	 *   null removes the backend
+	 */
+	public static void setSemanticBackend(ISemanticBackend backend) {
+		semanticDistance = (backend == null) ? null : new SemanticDistance(backend);
+	}
+	
+	public static void setSemanticDistance(SemanticDistance distance) {
+		semanticDistance = distance;
+	}
+	
+	public static SemanticDistance getSemanticDistance() {
+		return semanticDistance;
+	}
+	
+	public static double conditionalDistance(String str1, String str2) {
+		
+		return conditionalDistance(str1, str2,
+				DEFAULT_LEXICAL_DISTANCE_OVERRIDE_THRESHOLD,
+				DEFAULT_SEMANTIC_DISTANCE_MULTIPLIER);
+	}
+	
+	public static double conditionalDistance(String str1, String str2,
+			double lexicalOverrideThreshold, double semanticDistanceMultiplier) {
+		
+		return conditionalDistance(lexicalDistance(str1, str2), str1, str2,
+				lexicalOverrideThreshold, semanticDistanceMultiplier);
+		
+	}
+	
+	/*
+	 * conditionalDistance() for callers which have the lexical distance already, e.g. DistanceMatrix
+	 */
+	public static double conditionalDistance(double lexicalDistance, String str1, String str2,
+			double lexicalOverrideThreshold, double semanticDistanceMultiplier) {
+		
+		if(lexicalDistance < lexicalOverrideThreshold) {
+			return lexicalDistance;
+		} else {
+			return Math.min(lexicalDistance, semanticDistanceMultiplier * semanticDistance(str1, str2));
+		}
+	}
+	
+	public static double distance(String str1, String str2) {
+		return distance(str1, str2,	DEFAULT_LEXICAL_DISTANCE_WEIGHT);
+	}
+	
+	public static double distance(String str1, String str2, double lexicalDistanceWeight) {
+		return (lexicalDistance (str1, str2) * lexicalDistanceWeight)
+				+ semanticDistance(str1, str2) * (1 - lexicalDistanceWeight);
+	}
+	
+	/*
+	 * Cosine distance of the queries' semantic vectors, see SemanticDistance.
+	 * Without a backend nothing is known about any query, so all queries are at distance 1 and
+	 *   conditionalDistance() comes down to the lexical distance
+	 */
+	public static double semanticDistance(String str1, String str2) {
+		SemanticDistance distance = semanticDistance;
+		if(distance == null) {
+			return 1;
+		}
+		return distance.distance(str1, str2);
+	}
+	
+	/*
+	 * Calculate content distance based on normalized Levenshtein distance
+	 *   and Jaccard distance calculated with tri-grams
+	 */
+	public static double lexicalDistance(String str1, String str2) {
+		return (levenshtein(str1, str2, true) + jaccard(str1, str2, 3)) / 2;
+	}
+	
+	/*
+	 * lexicalDistance() of two queries of the default QueryDictionary. The n-gram fingerprints are
+	 *   computed once per query and taken from FingerprintCache.getDefault()
+	 */
+	public static double lexicalDistance(int queryId1, int queryId2) {
+		QueryDictionary dictionary = QueryDictionary.getDefault();
+		FingerprintCache fingerprints = FingerprintCache.getDefault();
+		return (levenshtein(dictionary.getQuery(queryId1), dictionary.getQuery(queryId2), true)
+				+ jaccard(fingerprints.get(queryId1), fingerprints.get(queryId2))) / 2;
+	}
+	
+	/**
+	 * Distance of the given metric between two queries, from their strings and tri-gram fingerprints.
+	 * Gives the same values as the String-based methods, without recomputing the n-grams.
+	 */
+	public static double distance(String str1, int[] fingerprint1, String str2, int[] fingerprint2, DistanceMatrix.Metric metric) {
+		switch(metric) {
+		case LEVENSHTEIN:
+			return levenshtein(str1, str2, true);
+		case JACCARD:
+			return jaccard(fingerprint1, fingerprint2);
+		case LEXICAL:
+			return (levenshtein(str1, str2, true) + jaccard(fingerprint1, fingerprint2)) / 2;
+		case CONDITIONAL:
+		default:
+			double lexicalDistance = (levenshtein(str1, str2, true) + jaccard(fingerprint1, fingerprint2)) / 2;
+			return conditionalDistance(lexicalDistance, str1, str2,
+					DEFAULT_LEXICAL_DISTANCE_OVERRIDE_THRESHOLD, DEFAULT_SEMANTIC_DISTANCE_MULTIPLIER);
+		}
+	}
+	
+	/**
+	 * Same as distance(..) <= threshold. The Levenshtein part stops early once it can no longer be within it.
+	 */
+	public static boolean isWithin(String str1, int[] fingerprint1, String str2, int[] fingerprint2,
+			DistanceMatrix.Metric metric, double threshold) {
+		switch(metric) {
+		case LEVENSHTEIN:
+			return levenshtein(str1, str2, threshold) <= threshold;
+		case LEXICAL:
+			// (levenshtein + jaccard) / 2 <= threshold  <=>  levenshtein <= 2 * threshold - jaccard
+			// The cutoff is loosened a little so that rounding in it can't cut off a pair on the threshold
+			double jaccard = jaccard(fingerprint1, fingerprint2);
+			double cutoff = 2 * threshold - jaccard + 1e-9;
+			if(cutoff < 0) {
+				return false;
+			}
+			double levenshtein = levenshtein(str1, str2, cutoff);
+			return levenshtein <= cutoff && (levenshtein + jaccard) / 2 <= threshold;
+		case CONDITIONAL: {
+			// The conditional distance is never above the lexical distance, and only falls below it
+			//   through the semantic term
+			double conditionalJaccard = jaccard(fingerprint1, fingerprint2);
+			double lexicalCutoff = 2 * threshold - conditionalJaccard + 1e-9;
+			double conditionalLevenshtein = Double.NaN;
+			if(lexicalCutoff >= 0) {
+				conditionalLevenshtein = levenshtein(str1, str2, lexicalCutoff);
+				if(conditionalLevenshtein <= lexicalCutoff && (conditionalLevenshtein + conditionalJaccard) / 2 <= threshold) {
+					return true;
+				}
+			}
+			double semanticTerm = DEFAULT_SEMANTIC_DISTANCE_MULTIPLIER * semanticDistance(str1, str2);
+			if(semanticTerm > threshold) {
+				return false;
+			}
+			// The semantic term only counts from the override threshold on, so the Levenshtein distance
+			//   is only needed up to there. Beyond it the value is inexact but still beyond it
+			if(! (conditionalLevenshtein <= lexicalCutoff)) {
+				conditionalLevenshtein = levenshtein(str1, str2,
+						2 * DEFAULT_LEXICAL_DISTANCE_OVERRIDE_THRESHOLD - conditionalJaccard + 1e-9);
+			}
+			double lexicalDistance = (conditionalLevenshtein + conditionalJaccard) / 2;
+			if(lexicalDistance < DEFAULT_LEXICAL_DISTANCE_OVERRIDE_THRESHOLD) {
+				return lexicalDistance <= threshold;
+			}
+			return Math.min(lexicalDistance, semanticTerm) <= threshold;
+		}
+		default:
+			return distance(str1, fingerprint1, str2, fingerprint2, metric) <= threshold;
+		}
+	}
+	
+	/*
+	 * Returns normalized Levenshtein distance between two strings
+	 * O(n) time for strings up to 64 characters, O(n^2) beyond
+	 */
+	public static double levenshtein(String str1, String str2) {
+		return levenshtein(str1, str2, true);
+	}
+	
+	/*
+	 * Levenshtein distance, normalized by the length of the longer string.
+	 * Either string being empty gives the length of the other, unnormalized.
+	 */
+	public static double levenshtein(String str1, String str2, boolean normalize) {
+		// degenerate cases
+		if(str1.equals(str2)) { return 0; }
+		if(str1.length() == 0) { return str2.length(); }
+		if(str2.length() == 0) { return str1.length(); }
+		
+		// The distance is symmetric. Use the shorter string as the pattern / inner loop
+		String pattern = str1.length() <= str2.length() ? str1 : str2;
+		String text = pattern == str1 ? str2 : str1;
+		
+		int distance;
+		if(pattern.length() <= 64) {
+			distance = myers(pattern, text, Integer.MAX_VALUE);
+		} else {
+			distance = levenshteinDP(pattern, text, Integer.MAX_VALUE);
+		}
+		
+		// return result
+		if(normalize) {
+			return (double) distance / text.length();
+		} else {
+			return (double) distance;
+		}
+	}
+	
+	/**
+	 * Normalized Levenshtein distance with early exit. Gives the same value as levenshtein(str1, str2)
+	 *   whenever that is at most cutoff. Otherwise gives some value above cutoff, usually without
+	 *   finishing the calculation.
+	 */
+	public static double levenshtein(String str1, String str2, double cutoff) {
+		// degenerate cases, same as levenshtein(String, String, boolean)
+		if(str1.equals(str2)) { return 0; }
+		if(str1.length() == 0) { return str2.length(); }
+		if(str2.length() == 0) { return str1.length(); }
+		
+		String pattern = str1.length() <= str2.length() ? str1 : str2;
+		String text = pattern == str1 ? str2 : str1;
+		int maxLen = text.length();
+		
+		// Largest distance whose normalized value is within cutoff
+		if(cutoff >= 1) {
+			return levenshtein(str1, str2, true);
+		}
+		if(cutoff < 0) {
+			return 1;
+		}
+		int maxDistance = (int) Math.floor(cutoff * maxLen);
+		if((double) (maxDistance + 1) / maxLen <= cutoff) {
+			maxDistance++;
+		} else if((double) maxDistance / maxLen > cutoff) {
+			maxDistance--;
+		}
+		
+		int distance;
+		if(text.length() - pattern.length() > maxDistance) {
+			distance = maxDistance + 1; // the length difference alone is too far
+		} else if(pattern.length() <= 64) {
+			distance = myers(pattern, text, maxDistance);
+		} else {
+			distance = levenshteinDP(pattern, text, maxDistance);
+		}
+		return (double) Math.min(distance, maxDistance + 1) / maxLen;
+	}
+	
+	// Per-thread match masks of the bit-vector algorithm, indexed by char. Cleared after use
+	private static final ThreadLocal<long[]> asciiMasks = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[128];
+		}
+	};
+	
+	/*
+	 * Bit-parallel Levenshtein distance of Myers 1999, in the formulation of Hyyro 2001.
+	 * The column of the DP matrix for each text character is held as vertical delta bit-vectors
+	 *   in one long, so the pattern can be at most 64 characters long.
+	 * Gives up once the distance is known to exceed maxDistance, returning some value above it.
+	 */
+	private static int myers(String pattern, String text, int maxDistance) {
+		int m = pattern.length();
+		int n = text.length();
+		
+		long[] masks = asciiMasks.get();
+		for(int i = 0; i < m; i++) {
+			char c = pattern.charAt(i);
+			if(c < 128) {
+				masks[c] |= 1L << i;
+			}
+		}
+		
+		long pv = -1L;
+		long mv = 0;
+		long last = 1L << (m - 1);
+		int score = m;
+		try {
+			for(int j = 0; j < n; j++) {
+				char c = text.charAt(j);
+				long eq = c < 128 ? masks[c] : nonAsciiMask(pattern, c);
+				long xv = eq | mv;
+				long xh = (((eq & pv) + pv) ^ pv) | eq;
+				long ph = mv | ~(xh | pv);
+				long mh = pv & xh;
+				if((ph & last) != 0) {
+					score++;
+				} else if((mh & last) != 0) {
+					score--;
+				}
+				// The remaining characters can bring the score down by at most one each
+				if(score - (n - j - 1) > maxDistance) {
+					return score - (n - j - 1);
+				}
+				ph = (ph << 1) | 1; // first row of the matrix counts up
+				mh <<= 1;
+				pv = mh | ~(xv | ph);
+				mv = ph & xv;
+			}
+			return score;
+		} finally {
+			for(int i = 0; i < m; i++) {
+				char c = pattern.charAt(i);
+				if(c < 128) {
+					masks[c] = 0;
+				}
+			}
+		}
+	}
+	
+	private static long nonAsciiMask(String pattern, char c) {
+		long mask = 0;
+		for(int i = 0; i < pattern.length(); i++) {
+			if(pattern.charAt(i) == c) {
+				mask |= 1L << i;
+			}
+		}
+		return mask;
+	}
+	
+	/*
+	 * Memory-efficient Levenshtein distance calculation:
+	 * http://www.codeproject.com/Articles/13525/Fast-memory-efficient-Levenshtein-algorithm
+	 * by Sten Hjelmqvist, 26 Mar 2012
+	 * Rows run along the inner string and are swapped rather than copied. When maxDistance is given, only
+	 *   the band of cells within maxDistance of the diagonal is computed (Ukkonen 1985), and the calculation
+	 *   stops as soon as a whole row exceeds maxDistance, returning some value above it.
+	 */
+	private static int levenshteinDP(String inner, String outer, int maxDistance) {
+		int innerLen = inner.length();
+		int band = Math.min(maxDistance, Math.max(innerLen, outer.length()));
+		int outside = band + 1; // stands in for every value beyond the band
+		
+		// working matrix
+		int[] v0 = new int[innerLen + 1];
+		int[] v1 = new int[innerLen + 1];
+		int[] swap;
+		
+		// algorithm
+		for(int j = 0; j <= innerLen; j++) {
+			v0[j] = Math.min(j, outside);
+		}
+		
+		for(int i = 0; i < outer.length(); i++) {
+			int from = Math.max(0, i - band);
+			int to = Math.min(innerLen - 1, i + band);
+			v1[0] = Math.min(i + 1, outside);
+			if(from > 0) {
+				v1[from] = outside;
+			}
+			int rowMin = v1[0];
+			char c = outer.charAt(i);
+			for(int j = from; j <= to; j++) {
+				int cost = c == inner.charAt(j) ? 0 : 1;
+				int value = Math.min(v1[j] + 1, Math.min(v0[j + 1] + 1, v0[j] + cost));
+				v1[j + 1] = Math.min(value, outside);
+				rowMin = Math.min(rowMin, v1[j + 1]);
+			}
+			if(to + 2 <= innerLen) {
+				v1[to + 2] = outside;
+			}
+			if(rowMin > band) {
+				return outside;
+			}
+			swap = v0;
+			v0 = v1;
+			v1 = swap;
+		}
+		
+		// return result
+		return v0[innerLen];
+	}
+	
+	/*
+	 * Returns normalized Jaccard distance based on tri-grams, which is what Lucchese et al. are doing
+	 * O(n log n) time complexity
+	 */
+	public static double jaccard(String str1, String str2) {
+		
+		return jaccard(str1, str2, 3);
+	}
+	
+	public static double jaccard(String str1, String str2, int nGramSize) {
+		if(str1.length() < nGramSize || str2.length() < nGramSize) {
+			return 1;
+		}
+		return jaccard(fingerprint(str1, nGramSize), fingerprint(str2, nGramSize));
+	}
+	
+	/**
+	 * Normalized Jaccard distance between two n-gram fingerprints, as given by fingerprint():
+	 *   1 - |intersection| / |union|
+	 * Linear merge of the two sorted arrays, O(n + m) time and no allocation.
+	 * An empty fingerprint, i.e. a string shorter than the n-gram size, is at distance 1 from everything.
+	 */
+	public static double jaccard(int[] fingerprint1, int[] fingerprint2) {
+		if(fingerprint1.length == 0 || fingerprint2.length == 0) {
+			return 1;
+		}
+		int intersection = 0;
+		int i = 0;
+		int j = 0;
+		while(i < fingerprint1.length && j < fingerprint2.length) {
+			if(fingerprint1[i] < fingerprint2[j]) {
+				i++;
+			} else if(fingerprint1[i] > fingerprint2[j]) {
+				j++;
+			} else {
+				intersection++;
+				i++;
+				j++;
+			}
+		}
+		int union = fingerprint1.length + fingerprint2.length - intersection;
+		return 1 - (double) intersection / union;
+	}
+	
+	/**
+	 * The distinct n-grams of the string, each hashed to an int, sorted ascending.
+	 * N-grams of up to 4 chars are packed exactly into a long, 16 bits per char, and longer ones are folded
+	 *   in with a 64-bit mix per char; only the final reduction to 32 bits can merge two n-grams, so two
+	 *   different n-grams share a hash with a probability of about 2^-32, which is taken as negligible.
+	 */
+	public static int[] fingerprint(String str, int nGramSize) {
+		int numOfNgrams = str.length() - nGramSize + 1;
+		if(numOfNgrams <= 0) {
+			return new int[0];
+		}
+		int[] hashes = new int[numOfNgrams];
+		for(int i = 0; i < numOfNgrams; i++) {
+			long packed = 0;
+			for(int k = i; k < i + nGramSize; k++) {
+				packed = (nGramSize <= 4) ? (packed << 16) | str.charAt(k) : mix(packed) ^ str.charAt(k);
+			}
+			hashes[i] = (int) (mix(packed) >>> 32);
+		}
+		Arrays.sort(hashes);
+		
+		// Deduplicate in place
+		int size = 1;
+		for(int i = 1; i < hashes.length; i++) {
+			if(hashes[i] != hashes[size - 1]) {
+				hashes[size++] = hashes[i];
+			}
+		}
+		return size == hashes.length ? hashes : Arrays.copyOf(hashes, size);
+	}
+	
+	/*
+	 * murmur3 64-bit finalizer, a bijection which spreads every input bit over the whole output, so that
+	 *   similar n-grams don't get neighbouring hashes
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+}
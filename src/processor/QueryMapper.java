@@ -0,0 +1,515 @@
+package processor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import reader.PreprocessedLogReader;
+
+import model.QueryDictionary;
+import model.SearchSession;
+
+import util.BloomFilter;
+import util.OrderedBatchPipeline;
+import util.StripedTinyLfuCache;
+import util.TinyLfuCache;
+
+import writer.ISearchMapSink;
+import writer.MongoWriter;
+
+/**
+ * Writes query string mappings to the MongoDB collection called queryMap
+ *
+ * run() is an OrderedBatchPipeline. The calling thread reads sessions into batches, a pool of worker
+ *   threads finds the entity search strings of each batch's sessions, and the calling thread then hands
+ *   them, in session order, to map(). At most a fixed number of batches is in flight, so a slow writer
+ *   holds back the reader. With a bulk sink, see setSearchMapSink(), writes are coalesced and flushed
+ *   on a thread of their own as well.
+ * All lookups made by the workers are thread-safe.
+ * @author Li Quan Khoo
+ */
+public class QueryMapper {
+	
+	public static final String DEFAULT_STOPWORDS_INPUT_FILE_PATH = "src/config/stopwords.ini";
+	public static final String DEFAULT_ENTITY_FILTER_PATH = "output/querymapper-out/entities.bloom";
+	public static final double DEFAULT_ENTITY_FILTER_FALSE_POSITIVE_RATE = 0.01;
+	public static final long DEFAULT_LOOKUP_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_QUERY_RESULTS_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+	
+	// Approximate heap bytes of a cached lookup beyond its strings' chars: entry, node and String headers
+	private static final int LOOKUP_CACHE_ENTRY_OVERHEAD = 120;
+	private static final int LOOKUP_CACHE_MEAN_ENTRY_BYTES = LOOKUP_CACHE_ENTRY_OVERHEAD + 2 * 16; // substrings average ~16 chars
+	private static final int LOOKUP_CACHE_SEGMENTS = 64; // independently locked, so the workers rarely wait on each other
+	// Approximate heap bytes of a cached query result beyond its strings' chars: entry, node, key and array,
+	//   and per search string its String header and array slot
+	private static final int QUERY_RESULTS_CACHE_ENTRY_OVERHEAD = 120;
+	private static final int QUERY_RESULTS_CACHE_STRING_OVERHEAD = 48;
+	private static final int QUERY_RESULTS_CACHE_MEAN_ENTRY_BYTES = QUERY_RESULTS_CACHE_ENTRY_OVERHEAD
+			+ QUERY_RESULTS_CACHE_STRING_OVERHEAD + 2 * 16; // a query holds about one search string of ~16 chars
+	private static final String NO_MATCH = "";
+	
+	public static final int DEFAULT_NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_BATCH_SIZE = 256; // sessions
+	
+	private PreprocessedLogReader logReader;
+	private HashMap<String, String> stopwords;
+	private MongoWriter mongoWriter;
+	private EntityIndex entityIndex = null; // entity lookups go to Mongo if not set
+	private BloomFilter entityFilter = null; // searchStrings it rules out aren't looked up at all
+	private EntityMatcher entityMatcher = null; // if set, finds entities in whole queries without substring lookups
+	private AtomicLong entityLookupCount = new AtomicLong();
+	private AtomicLong filteredLookupCount = new AtomicLong();
+	private ISearchMapSink searchMapSink = null; // if not set, each session is written to Mongo as it is mapped
+	private int numOfThreads;
+	private int batchSize;
+	
+	private StemCache stemCache;
+	
+	private StripedTinyLfuCache<String, String> lookupCache; // substring -> its entity search string, or NO_MATCH
+	private StripedTinyLfuCache<Integer, String[]> queryResultsCache; // query id -> entity search strings found in that query
+	
+	private long prevTime = System.currentTimeMillis();
+	private long currentTime;
+	private int updateCount = 0;
+	
+	public QueryMapper(MongoWriter mongoWriter) {
+		this(mongoWriter, new PreprocessedLogReader());
+	}
+	
+	public QueryMapper(MongoWriter mongoWriter, PreprocessedLogReader logReader) {
+		this.logReader = logReader;
+		this.mongoWriter = mongoWriter;
+		this.stemCache = StemCache.getDefault();
+		this.lookupCache = createLookupCache(DEFAULT_LOOKUP_CACHE_MAX_BYTES);
+		this.queryResultsCache = createQueryResultsCache(DEFAULT_QUERY_RESULTS_CACHE_MAX_BYTES);
+		this.numOfThreads = DEFAULT_NUM_OF_THREADS;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		initStopwords();
+	}
+	
+	public void setNumOfThreads(int numOfThreads) { this.numOfThreads = numOfThreads; }
+	public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+	
+	/**
+	 * Sends the search strings of each session to the given sink, e.g. a MongoSearchMapBulkWriter, or a
+	 *   CooccurrenceAggregator to write the queryMap once with final counts, instead of writing them to
+	 *   Mongo one at a time. The caller closes the sink after run()
+	 */
+	public void setSearchMapSink(ISearchMapSink searchMapSink) {
+		this.searchMapSink = searchMapSink;
+	}
+	
+	private static StripedTinyLfuCache<String, String> createLookupCache(long maxBytes) {
+		int expectedEntries = (int) Math.min(Integer.MAX_VALUE, maxBytes / LOOKUP_CACHE_MEAN_ENTRY_BYTES);
+		return new StripedTinyLfuCache<String, String>(maxBytes, expectedEntries, new TinyLfuCache.IWeigher<String, String>() {
+			@Override
+			public int weigh(String substring, String searchString) {
+				int chars = substring.length() + (searchString == substring ? 0 : searchString.length());
+				return 2 * chars + LOOKUP_CACHE_ENTRY_OVERHEAD;
+			}
+		}, LOOKUP_CACHE_SEGMENTS);
+	}
+	
+	/**
+	 * Bounds the substring lookup cache, which is kept for the whole run, by its approximate size in bytes
+	 */
+	public void setLookupCacheSize(long maxBytes) {
+		this.lookupCache = createLookupCache(maxBytes);
+	}
+	
+	private static StripedTinyLfuCache<Integer, String[]> createQueryResultsCache(long maxBytes) {
+		int expectedEntries = (int) Math.min(Integer.MAX_VALUE, maxBytes / QUERY_RESULTS_CACHE_MEAN_ENTRY_BYTES);
+		return new StripedTinyLfuCache<Integer, String[]>(maxBytes, expectedEntries, new TinyLfuCache.IWeigher<Integer, String[]>() {
+			@Override
+			public int weigh(Integer queryId, String[] searchStrings) {
+				int weight = QUERY_RESULTS_CACHE_ENTRY_OVERHEAD;
+				for(String searchString : searchStrings) {
+					weight += 2 * searchString.length() + QUERY_RESULTS_CACHE_STRING_OVERHEAD;
+				}
+				return weight;
+			}
+		}, LOOKUP_CACHE_SEGMENTS);
+	}
+	
+	/**
+	 * Bounds the per-query results cache, which is kept for the whole run like the lookup cache, by its
+	 *   approximate size in bytes. With an EntityMatcher set it is the only cache
+	 */
+	public void setQueryResultsCacheSize(long maxBytes) {
+		this.queryResultsCache = createQueryResultsCache(maxBytes);
+	}
+	
+	/**
+	 * Checks entity searchStrings against an offline EntityIndex rather than against Mongo
+	 */
+	public void setEntityIndex(EntityIndex entityIndex) {
+		this.entityIndex = entityIndex;
+	}
+	
+	/**
+	 * Rules out most non-entity substrings before they reach Mongo. Like the lookup cache, the filter is
+	 *   kept for the whole run
+	 */
+	public void setEntityFilter(BloomFilter entityFilter) {
+		this.entityFilter = entityFilter;
+	}
+	
+	public void useEntityFilter() {
+		useEntityFilter(DEFAULT_ENTITY_FILTER_PATH);
+	}
+	
+	/**
+	 * Loads the entity filter saved at the given path, first building it from the Mongo entities and
+	 *   saving it there if there's no such file. Delete the file after reloading the entities
+	 */
+	public void useEntityFilter(String path) {
+		try {
+			if(! new File(path).exists()) {
+				this.mongoWriter.buildSearchStringFilter(DEFAULT_ENTITY_FILTER_FALSE_POSITIVE_RATE).save(path);
+			}
+			this.entityFilter = BloomFilter.load(path);
+		} catch (IOException e) {
+			System.out.println("QueryMapper: Unable to load entity filter " + path + ", looking up all substrings");
+		}
+	}
+	
+	/**
+	 * Finds entities with the given matcher, which must have been built from the same entities as any
+	 *   entity index in use, rather than looking up every substring of each query
+	 */
+	public void setEntityMatcher(EntityMatcher entityMatcher) {
+		this.entityMatcher = entityMatcher;
+	}
+	
+	private void initStopwords() {
+		this.stopwords = new HashMap<String, String>();
+		
+		File inputFile = new File(DEFAULT_STOPWORDS_INPUT_FILE_PATH);
+		try {
+			FileReader fr = new FileReader(inputFile);
+			BufferedReader br = new BufferedReader(fr);
+			
+			String line = br.readLine();
+			String word = null;
+			while(line != null) {
+				word = line.replaceAll("[\n\r]", "");
+				stopwords.put(word, "");
+				line = br.readLine();
+			}
+			br.close();
+			
+		} catch (FileNotFoundException e) {
+			System.out.println("QueryMapper: Stopwords file not found");
+		} catch (IOException e) {
+			System.out.println("QueryMapper: IO exception reading stopwords file");
+		}
+	}
+	
+	private String[] generateQuerySubstrings(String query) {
+		
+		// degenerate
+		if(query == null || query.equals("")) {
+			return new String[] {};
+		}
+		
+		ArrayList<String> substrings = new ArrayList<String>();
+		String[] parts = query.split(" ");
+		StringBuilder substring = new StringBuilder(query.length());
+		
+		//          0     1     2     3
+		// String [***] [***] [***] [***]
+		//          ^                 ^
+		//          i                 j
+		//
+		
+		// Every substring starting at i is the previous one plus the next token
+		for(int i = 0; i < parts.length; i++) {
+			substring.setLength(0);
+			for(int j = i; j < parts.length; j++) {
+				if(j != i) {
+					substring.append(' ');
+				}
+				substring.append(parts[j]);
+				substrings.add(substring.toString());
+			}
+		}
+		
+		return substrings.toArray(new String[]{});
+		
+	}
+	
+	private static String joinTokens(String[] tokens, int start, int end) {
+		StringBuilder output = new StringBuilder();
+		for(int i = start; i < end; i++) {
+			if(i != start) {
+				output.append(' ');
+			}
+			output.append(tokens[i]);
+		}
+		return output.toString();
+	}
+	
+	/*
+	 * Same results as looking up every substring through getEntitySearchString(), from two passes of
+	 *   the entity matcher: one over the query's tokens, and one over their stems with stopwords left out,
+	 *   which are only used for spans of the query which were not entities as they were
+	 */
+	private void matchEntitySearchStrings(String query, ArrayList<String> found) {
+		if(query == null || query.equals("")) {
+			return;
+		}
+		String[] tokens = query.split(" ");
+		int n = tokens.length;
+		boolean[] matched = new boolean[n * (n + 1)]; // span [start, end) at start * (n + 1) + end
+		for(int[] span : this.entityMatcher.findSpans(tokens)) {
+			found.add(joinTokens(tokens, span[0], span[1]));
+			matched[span[0] * (n + 1) + span[1]] = true;
+		}
+		
+		// Stems of the tokens which aren't stopwords, and where they came from
+		String[] stems = new String[n];
+		int[] positions = new int[n];
+		int m = 0;
+		for(int i = 0; i < n; i++) {
+			if(! this.stopwords.containsKey(tokens[i])) {
+				stems[m] = this.stemCache.stem(tokens[i]);
+				positions[m] = i;
+				m++;
+			}
+		}
+		stems = Arrays.copyOf(stems, m);
+		
+		for(int[] span : this.entityMatcher.findSpans(stems)) {
+			
+			// Query spans which stem to this span may start or end on any of the stopwords around it
+			int firstStart = (span[0] == 0) ? 0 : positions[span[0] - 1] + 1;
+			int firstEnd = positions[span[1] - 1] + 1;
+			int lastEnd = (span[1] == m) ? n : positions[span[1]];
+			boolean unmatched = false;
+			for(int start = firstStart; start <= positions[span[0]] && ! unmatched; start++) {
+				for(int end = firstEnd; end <= lastEnd && ! unmatched; end++) {
+					unmatched = ! matched[start * (n + 1) + end];
+				}
+			}
+			if(unmatched) {
+				found.add(joinTokens(stems, span[0], span[1]));
+			}
+		}
+	}
+	
+	private String stemQueryString(String queryString) {
+		StringBuilder output = new StringBuilder();
+		
+		String[] tokens = queryString.split(" ");
+		for(String token : tokens) {
+			if(! this.stopwords.containsKey(token)) {
+				if(output.length() != 0) {
+					output.append(' ');
+				}
+				output.append(this.stemCache.stem(token));
+			}
+		}
+		return output.toString();
+	}
+	
+	private boolean entityExists(String searchString) {
+		this.entityLookupCount.incrementAndGet();
+		if(this.entityFilter != null && ! this.entityFilter.mightContain(searchString)) {
+			this.filteredLookupCount.incrementAndGet();
+			return false;
+		}
+		if(this.entityIndex != null) {
+			return this.entityIndex.contains(searchString);
+		}
+		DBObject entity = this.mongoWriter.getOneEntity(new BasicDBObject("searchString", searchString));
+		return entity != null;
+	}
+	
+	/*
+	 * The entity search string the substring refers to, itself or else its stemmed form, null if neither
+	 */
+	private String getEntitySearchString(String queryString) {
+		
+		// Cache hit
+		String searchString = this.lookupCache.get(queryString);
+		if(searchString != null) {
+			return (searchString == NO_MATCH) ? null : searchString;
+		}
+		
+		// Cache miss - entity lookup
+		searchString = NO_MATCH;
+		if(entityExists(queryString)) {
+			searchString = queryString;
+		} else {
+			String stemmedQueryString = stemQueryString(queryString);
+			if(! stemmedQueryString.equals(queryString) && entityExists(stemmedQueryString)) {
+				searchString = stemmedQueryString;
+			}
+		}
+		this.lookupCache.put(queryString, searchString);
+		return (searchString == NO_MATCH) ? null : searchString;
+	}
+	
+	/**
+	 * Prints the size, hits, misses and evictions of the query results cache, and of the substring lookup
+	 *   cache if it's in use, i.e. without an EntityMatcher
+	 */
+	public void printLookupCacheStats() {
+		System.out.println("QueryMapper: Query results cache " + this.queryResultsCache.size() + " queries, "
+				+ this.queryResultsCache.getWeight() / 1024 + "/" + this.queryResultsCache.getMaxWeight() / 1024 + "KB, "
+				+ this.queryResultsCache.getHits() + " hits, " + this.queryResultsCache.getMisses() + " misses ("
+				+ Math.round(this.queryResultsCache.getHitRate() * 1000) / 10.0 + "% hit rate), "
+				+ this.queryResultsCache.getEvictions() + " evictions");
+		if(this.entityMatcher != null) {
+			return;
+		}
+		System.out.println("QueryMapper: Lookup cache " + this.lookupCache.size() + " substrings, "
+				+ this.lookupCache.getWeight() / 1024 + "/" + this.lookupCache.getMaxWeight() / 1024 + "KB, "
+				+ this.lookupCache.getHits() + " hits, " + this.lookupCache.getMisses() + " misses ("
+				+ Math.round(this.lookupCache.getHitRate() * 1000) / 10.0 + "% hit rate), "
+				+ this.lookupCache.getEvictions() + " evictions");
+	}
+	
+	/*
+	 * Gives the entity search strings found within the query. Resolved once per query id
+	 */
+	private String[] getEntitySearchStrings(int queryId) {
+		String[] searchStrings = this.queryResultsCache.get(queryId);
+		if(searchStrings == null) {
+			ArrayList<String> found = new ArrayList<String>();
+			String query = QueryDictionary.getDefault().getQuery(queryId);
+			if(this.entityMatcher != null) {
+				matchEntitySearchStrings(query, found);
+			} else {
+				for(String substring : generateQuerySubstrings(query)) {
+					String searchString = getEntitySearchString(substring);
+					if(searchString != null) {
+						found.add(searchString);
+					}
+				}
+			}
+			searchStrings = found.toArray(new String[] {});
+			this.queryResultsCache.put(queryId, searchStrings);
+		}
+		return searchStrings;
+	}
+	
+	/*
+	 * Writes the session's search strings to the sink, or straight to the queryMap collection if no sink is set
+	 */
+	private void map(String[] searchStrings, int sessionId) {
+		if(this.searchMapSink != null) {
+			this.searchMapSink.addSession(sessionId, searchStrings);
+			return;
+		}
+		for(String searchString : searchStrings) {
+			mongoWriter.addOrUpdateSearchMap(searchString, searchStrings, sessionId);
+		}
+	}
+	
+	/*
+	 * The distinct entity search strings of each session of the batch. Runs on the worker threads
+	 */
+	private String[][] mapBatch(ArrayList<SearchSession> batch) {
+		String[][] results = new String[batch.size()][];
+		for(int i = 0; i < batch.size(); i++) {
+			SearchSession session = batch.get(i);
+			LinkedHashSet<String> searchStrings = new LinkedHashSet<String>();
+			
+			// for each query in session
+			for(int j = 0; j < session.getQueryCount(); j++) {
+				
+				// for each entity search string within the query
+				Collections.addAll(searchStrings, getEntitySearchStrings(session.getQueryId(j)));
+			}
+			results[i] = searchStrings.toArray(new String[] {});
+		}
+		return results;
+	}
+	
+	/*
+	 * Writer stage: hands the results of a batch to map(), in session order
+	 */
+	private void write(ArrayList<SearchSession> batch, String[][] results) {
+		for(int i = 0; i < batch.size(); i++) {
+			map(results[i], batch.get(i).getSessionId());
+			
+			this.updateCount++;
+			
+			if(this.updateCount % 10000 == 0) {
+				this.currentTime = System.currentTimeMillis();
+				int seconds = (int) Math.floor((this.currentTime - this.prevTime) / 1000);
+				this.prevTime = this.currentTime;
+				System.out.println("QueryMapper: " + this.updateCount / 1000 + "k sessions processed (" + seconds + "s)");
+			}
+		}
+	}
+	
+	/**
+	 * Maps every session of the log reader's input
+	 * @throws IllegalStateException	if a batch of sessions couldn't be mapped. The run stops there, and
+	 *   the sessions from that batch on are not written
+	 */
+	public void run() {
+		OrderedBatchPipeline<SearchSession, String[][]> pipeline = new OrderedBatchPipeline<SearchSession, String[][]>(
+				"QueryMapper", this.numOfThreads, this.batchSize) {
+			private String currentFileName = null;
+			
+			// Sessions are streamed in one at a time, so work starts before a file has been read in full
+			@Override
+			protected SearchSession read() {
+				SearchSession session = logReader.readNextSession();
+				
+				// Both caches are kept for the whole run. Their stats are printed after every file
+				if(session != null && ! logReader.getCurrentFileName().equals(this.currentFileName)) {
+					if(this.currentFileName != null) {
+						printLookupCacheStats();
+					}
+					this.currentFileName = logReader.getCurrentFileName();
+					System.out.println("QueryMapper: Processing sessions...");
+				}
+				return session;
+			}
+			
+			@Override
+			protected String[][] process(ArrayList<SearchSession> batch) {
+				return mapBatch(batch);
+			}
+			
+			@Override
+			protected void write(ArrayList<SearchSession> batch, String[][] results) {
+				QueryMapper.this.write(batch, results);
+			}
+		};
+		
+		try {
+			pipeline.run();
+		} catch (ExecutionException e) {
+			System.out.println("QueryMapper: Aborted after " + this.updateCount + " sessions, error mapping sessions: " + e.getCause());
+			throw new IllegalStateException("QueryMapper: Error mapping sessions", e.getCause());
+		} catch (InterruptedException e) {
+			System.out.println("QueryMapper: Interrupted");
+			Thread.currentThread().interrupt();
+			return;
+		}
+		
+		printLookupCacheStats();
+		if(this.entityFilter != null) {
+			System.out.println("QueryMapper: " + this.filteredLookupCount + " of " + this.entityLookupCount
+					+ " entity lookups ruled out by the entity filter");
+		}
+	}
+	
+}
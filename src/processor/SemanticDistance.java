@@ -0,0 +1,77 @@
+package processor;
+
+import model.QueryDictionary;
+import model.SparseVector;
+import util.LruCache;
+
+/**
+ * Semantic distance between queries, 1 - the cosine similarity of their vectors from an ISemanticBackend.
+ * Query vectors are kept in a bounded cache keyed by QueryDictionary id, so the backend (e.g. Mongo) is
+ *   asked about each query once rather than once per pair it takes part in. Queries which aren't in the
+ *   dictionary are asked about every time.
+ * Safe to use from multiple threads, as long as the backend is.
+ * @author Li Quan Khoo
+ *
+ */
+public class SemanticDistance {
+	
+	public static final int DEFAULT_MAX_CACHE_SIZE = 200000; // queries
+	
+	private ISemanticBackend backend;
+	private QueryDictionary dictionary;
+	private LruCache<Integer, SparseVector> vectorCache;
+	
+	public SemanticDistance(ISemanticBackend backend) {
+		this(backend, DEFAULT_MAX_CACHE_SIZE);
+	}
+	
+	public SemanticDistance(ISemanticBackend backend, int maxCacheSize) {
+		this.backend = backend;
+		this.dictionary = QueryDictionary.getDefault();
+		this.vectorCache = new LruCache<Integer, SparseVector>(maxCacheSize);
+	}
+	
+	public ISemanticBackend getBackend() {
+		return this.backend;
+	}
+	
+	/**
+	 * Between 0 and 1. Queries the backend knows nothing about are at distance 1 from everything
+	 */
+	public double distance(String str1, String str2) {
+		SparseVector vector1 = getVector(str1);
+		if(vector1.isEmpty()) {
+			return 1;
+		}
+		SparseVector vector2 = getVector(str2);
+		if(vector2.isEmpty()) {
+			return 1;
+		}
+		return Math.max(0, Math.min(1, 1 - vector1.cosine(vector2)));
+	}
+	
+	public SparseVector getVector(String query) {
+		int queryId = this.dictionary.lookup(query);
+		if(queryId == -1) {
+			return this.backend.getVector(query);
+		}
+		SparseVector vector = this.vectorCache.get(queryId);
+		if(vector == null) {
+			vector = this.backend.getVector(query);
+			this.vectorCache.put(queryId, vector);
+		}
+		return vector;
+	}
+	
+	public int size() { return this.vectorCache.size(); }
+	public long getHits() { return this.vectorCache.getHits(); }
+	public long getMisses() { return this.vectorCache.getMisses(); }
+	public double getHitRate() { return this.vectorCache.getHitRate(); }
+	
+	public void printStats() {
+		System.out.println("SemanticDistance: " + this.vectorCache.size() + "/" + this.vectorCache.getMaxSize() + " query vectors, "
+				+ this.vectorCache.getHits() + " hits, " + this.vectorCache.getMisses() + " misses ("
+				+ Math.round(this.vectorCache.getHitRate() * 1000) / 10.0 + "% hit rate)");
+	}
+	
+}
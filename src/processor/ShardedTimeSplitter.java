@@ -0,0 +1,276 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import model.LogObject;
+import model.SearchSession;
+import reader.ILogReader;
+
+/**
+ * Parallel TS-x session segmentation used by Preprocessor.runSharded().
+ *
+ * The calling thread reads the logs, numbers every record, and hash-partitions the records by anonId
+ *   into batches for a fixed set of shard threads. Each shard cleans its records and runs its own
+ *   TimeSplitter. All records of a user land on the same shard in their original order, so each shard
+ *   produces exactly the sessions the sequential splitter would for those users.
+ *
+ * A session is identified by the sequence number of its first record. Shards report finished sessions
+ *   along with a watermark: the lowest sequence number any session they finish later can have. Sessions
+ *   below the lowest watermark of all shards are final, and are passed on to Preprocessor.emit() in
+ *   sequence order. The output is therefore in the same order as the sequential mode.
+ * @author Li Quan Khoo
+ *
+ */
+public class ShardedTimeSplitter {
+	
+	public static final int DEFAULT_BATCH_SIZE = 1024; // records
+	
+	// Batches queued per shard before the reading thread blocks
+	private static final int QUEUED_BATCHES_PER_SHARD = 4;
+	
+	private Preprocessor preprocessor;
+	private int numOfShards;
+	private long maxSessionLength;
+	private int batchSize;
+	
+	// Merge state, guarded by this
+	private PriorityQueue<SequencedSession> pendingSessions;
+	private long[] watermarks;
+	private boolean failed;
+	
+	public ShardedTimeSplitter(Preprocessor preprocessor, int numOfShards, long maxSessionLength) {
+		this(preprocessor, numOfShards, maxSessionLength, DEFAULT_BATCH_SIZE);
+	}
+	
+	public ShardedTimeSplitter(Preprocessor preprocessor, int numOfShards, long maxSessionLength, int batchSize) {
+		this.preprocessor = preprocessor;
+		this.numOfShards = numOfShards;
+		this.maxSessionLength = maxSessionLength;
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Reads the given log reader to the end. Returns once every session has been passed to the preprocessor.
+	 * @throws IllegalStateException	if a shard failed, so some sessions are missing from the output.
+	 *   An exception from the log reader is passed on, after stopping the shards
+	 */
+	public void run(ILogReader logReader) {
+		
+		this.pendingSessions = new PriorityQueue<SequencedSession>();
+		this.watermarks = new long[this.numOfShards];
+		this.failed = false;
+		
+		ArrayList<ArrayBlockingQueue<Batch>> queues = new ArrayList<ArrayBlockingQueue<Batch>>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		Batch[] batches = new Batch[this.numOfShards];
+		for(int i = 0; i < this.numOfShards; i++) {
+			ArrayBlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES_PER_SHARD);
+			Thread thread = new Thread(new Shard(i, queue), "ShardedTimeSplitter-" + i);
+			queues.add(queue);
+			threads.add(thread);
+			batches[i] = new Batch(this.batchSize);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		boolean finished = false;
+		try {
+			long seq = 0;
+			LogObject obj = logReader.readNextLine();
+			while(obj != null) {
+				int shard = shardOf(obj.getAnonId());
+				Batch batch = batches[shard];
+				batch.add(obj, seq++);
+				if(batch.size == this.batchSize) {
+					queues.get(shard).put(batch);
+					batches[shard] = new Batch(this.batchSize);
+				}
+				obj = logReader.readNextLine();
+			}
+			for(int i = 0; i < this.numOfShards; i++) {
+				batches[i].isLast = true;
+				queues.get(i).put(batches[i]);
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			finished = true;
+		} catch (InterruptedException e) {
+			System.out.println("Preprocessor: Interrupted while splitting sessions");
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			
+			// The reader threw or we were interrupted: the shards won't get their last batches, so stop them,
+			//   and let them finish emitting before the caller closes the output
+			if(! finished) {
+				for(Thread thread : threads) {
+					thread.interrupt();
+				}
+				joinUninterruptibly(threads);
+			}
+		}
+		
+		if(this.failed) {
+			System.out.println("Preprocessor: ERROR: A session shard failed. Output is incomplete.");
+			throw new IllegalStateException("Preprocessor: A session shard failed. Output is incomplete");
+		}
+	}
+	
+	private static void joinUninterruptibly(ArrayList<Thread> threads) {
+		boolean interrupted = Thread.interrupted();
+		for(Thread thread : threads) {
+			while(thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private int shardOf(int anonId) {
+		int hash = anonId * 0x9E3779B9; // spread sequential ids
+		return ((hash ^ (hash >>> 16)) & 0x7fffffff) % this.numOfShards;
+	}
+	
+	/*
+	 * Takes in a shard's finished sessions and new watermark, then emits every session that is now final
+	 */
+	private synchronized void merge(int shard, ArrayList<SequencedSession> sessions, long watermark) {
+		this.pendingSessions.addAll(sessions);
+		this.watermarks[shard] = watermark;
+		
+		long lowestWatermark = Long.MAX_VALUE;
+		for(long shardWatermark : this.watermarks) {
+			lowestWatermark = Math.min(lowestWatermark, shardWatermark);
+		}
+		while(! this.pendingSessions.isEmpty() && this.pendingSessions.peek().seq < lowestWatermark) {
+			this.preprocessor.emit(this.pendingSessions.poll().session);
+		}
+	}
+	
+	private synchronized void fail() {
+		this.failed = true;
+	}
+	
+	/*
+	 * Records headed for one shard, with their sequence numbers
+	 */
+	private static class Batch {
+		private LogObject[] logObjects;
+		private long[] seqs;
+		private int size;
+		private boolean isLast;
+		
+		public Batch(int capacity) {
+			this.logObjects = new LogObject[capacity];
+			this.seqs = new long[capacity];
+			this.size = 0;
+			this.isLast = false;
+		}
+		
+		public void add(LogObject logObject, long seq) {
+			this.logObjects[this.size] = logObject;
+			this.seqs[this.size] = seq;
+			this.size++;
+		}
+	}
+	
+	private static class SequencedSession implements Comparable<SequencedSession> {
+		private long seq;
+		private SearchSession session;
+		
+		public SequencedSession(long seq, SearchSession session) {
+			this.seq = seq;
+			this.session = session;
+		}
+		
+		@Override
+		public int compareTo(SequencedSession other) {
+			return this.seq < other.seq ? -1 : (this.seq == other.seq ? 0 : 1);
+		}
+	}
+	
+	private class Shard implements Runnable {
+		
+		private int index;
+		private ArrayBlockingQueue<Batch> queue;
+		private Cleaner cleaner;
+		private TimeSplitter timeSplitter;
+		private long openSessionSeq;
+		
+		public Shard(int index, ArrayBlockingQueue<Batch> queue) {
+			this.index = index;
+			this.queue = queue;
+			this.cleaner = new Cleaner();
+			this.timeSplitter = new TimeSplitter(maxSessionLength);
+		}
+		
+		@Override
+		public void run() {
+			boolean ok = true;
+			try {
+				while(true) {
+					Batch batch = this.queue.take();
+					if(ok) {
+						try {
+							process(batch);
+						} catch (RuntimeException e) {
+							// Keep draining the queue so the reading thread never blocks on this shard
+							e.printStackTrace();
+							fail();
+							ok = false;
+							merge(this.index, new ArrayList<SequencedSession>(), Long.MAX_VALUE);
+						}
+					}
+					if(batch.isLast) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				fail();
+			}
+		}
+		
+		private void process(Batch batch) {
+			ArrayList<SequencedSession> terminatedSessions = new ArrayList<SequencedSession>();
+			for(int i = 0; i < batch.size; i++) {
+				LogObject obj = batch.logObjects[i];
+				obj.setQuery(this.cleaner.filter(obj.getQuery()));
+				if(obj.getQuery().equals("")) {
+					continue;
+				}
+				boolean hadOpenSession = this.timeSplitter.hasOpenSession();
+				SearchSession terminatedSession = this.timeSplitter.split(obj);
+				if(terminatedSession != null) {
+					terminatedSessions.add(new SequencedSession(this.openSessionSeq, terminatedSession));
+				}
+				if(terminatedSession != null || ! hadOpenSession) {
+					this.openSessionSeq = batch.seqs[i]; // obj started a new session
+				}
+			}
+			
+			long watermark;
+			if(batch.isLast) {
+				SearchSession lastSession = this.timeSplitter.flush();
+				if(lastSession != null) {
+					terminatedSessions.add(new SequencedSession(this.openSessionSeq, lastSession));
+				}
+				watermark = Long.MAX_VALUE;
+			} else if(this.timeSplitter.hasOpenSession()) {
+				watermark = this.openSessionSeq;
+			} else {
+				watermark = batch.seqs[batch.size - 1] + 1;
+			}
+			merge(this.index, terminatedSessions, watermark);
+		}
+	}
+	
+}
@@ -0,0 +1,129 @@
+package processor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+
+import libs.Stemmer;
+import util.LruCache;
+import writer.BatchFileWriter;
+
+/**
+ * Memoizes Porter stems of single tokens. The query vocabulary is heavily skewed, so a bounded cache
+ *   of the most recently used tokens saves running the stemmer on nearly every token.
+ * Shared by Cleaner and QueryMapper through getDefault(). Safe to use from multiple threads.
+ *
+ * The cache can be warm-started from a stem table written by save(): one "token\tstem" pair per line.
+ * @author Li Quan Khoo
+ *
+ */
+public class StemCache {
+	
+	public static final int DEFAULT_MAX_SIZE = 100000; // tokens
+	public static final String DEFAULT_STEM_TABLE_PATH = "output/stemcache-out/stems.tsv";
+	
+	private static StemCache defaultCache = new StemCache(DEFAULT_MAX_SIZE);
+	
+	private LruCache<String, String> cache;
+	private ThreadLocal<Stemmer> stemmer = new ThreadLocal<Stemmer>() {
+		@Override
+		protected Stemmer initialValue() {
+			return new Stemmer();
+		}
+	};
+	
+	public StemCache(int maxSize) {
+		this.cache = new LruCache<String, String>(maxSize);
+	}
+	
+	public static StemCache getDefault() {
+		return defaultCache;
+	}
+	
+	/*
+	 * Replaces the shared cache, e.g. to change its size. Set this up before any Cleaner or QueryMapper is created
+	 */
+	public static void setDefault(StemCache stemCache) {
+		defaultCache = stemCache;
+	}
+	
+	public String stem(String token) {
+		String stem = this.cache.get(token);
+		if(stem == null) {
+			Stemmer stemmer = this.stemmer.get();
+			stemmer.add(token.toCharArray(), token.length());
+			stemmer.stem();
+			stem = stemmer.toString();
+			this.cache.put(token, stem);
+		}
+		return stem;
+	}
+	
+	public int size() { return this.cache.size(); }
+	public long getHits() { return this.cache.getHits(); }
+	public long getMisses() { return this.cache.getMisses(); }
+	public double getHitRate() { return this.cache.getHitRate(); }
+	
+	public void printStats() {
+		System.out.println("StemCache: " + this.cache.size() + "/" + this.cache.getMaxSize() + " tokens, "
+				+ this.cache.getHits() + " hits, " + this.cache.getMisses() + " misses ("
+				+ Math.round(this.cache.getHitRate() * 1000) / 10.0 + "% hit rate)");
+	}
+	
+	/**
+	 * Warm-starts the cache from a stem table. Lines beyond the size of the cache push out the earlier ones.
+	 * Returns the number of entries read.
+	 */
+	public int load(String path) {
+		int count = 0;
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(path), BatchFileWriter.DEFAULT_ENCODING));
+			String line = br.readLine();
+			while(line != null) {
+				int tab = line.indexOf('\t');
+				if(tab > 0) {
+					this.cache.put(line.substring(0, tab), line.substring(tab + 1));
+					count++;
+				}
+				line = br.readLine();
+			}
+			br.close();
+		} catch (FileNotFoundException e) {
+			System.out.println("StemCache: Stem table (" + path + ") not found");
+		} catch (IOException e) {
+			System.out.println("StemCache: IO exception reading stem table");
+		}
+		this.cache.resetCounters();
+		return count;
+	}
+	
+	/**
+	 * Writes the cached stems out as a stem table for load(). Tokens containing tabs are left out
+	 */
+	public void save(String path) {
+		try {
+			new File(path).getAbsoluteFile().getParentFile().mkdirs();
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), BatchFileWriter.DEFAULT_ENCODING));
+			for(Map.Entry<String, String> entry : this.cache.entries()) {
+				if(entry.getKey().indexOf('\t') >= 0 || entry.getValue().indexOf('\t') >= 0) {
+					continue; // can't be told apart from the separator
+				}
+				bw.write(entry.getKey());
+				bw.write('\t');
+				bw.write(entry.getValue());
+				bw.write('\n');
+			}
+			bw.close();
+		} catch (IOException e) {
+			System.out.println("StemCache: IO exception writing stem table");
+		}
+	}
+	
+}
@@ -0,0 +1,118 @@
+package processor;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import model.QueryDictionary;
+import model.SparseVector;
+import writer.BatchFileWriter;
+
+/**
+ * Semantic vectors from a local file of term vectors, e.g. the Wikipedia concept weights of each term
+ *   as used by explicit semantic analysis. The vector of a query is the sum of the vectors of its terms.
+ *
+ * The file has one term per line, the term and its vector separated by a tab, the vector as
+ *   space-separated dimension:weight entries, e.g.
+ *   jaguar	Jaguar_Cars:0.82 Jaguar:0.77 Panthera:0.31
+ * Dimension names may themselves contain ':', the weight follows the last one.
+ * @author Li Quan Khoo
+ *
+ */
+public class TermVectorSemanticBackend implements ISemanticBackend {
+	
+	public static final String DEFAULT_TERM_VECTOR_PATH = "input/termvectors/termvectors.tsv";
+	
+	private HashMap<String, SparseVector> termVectors;
+	private QueryDictionary dimensions;
+	
+	public TermVectorSemanticBackend() {
+		this(DEFAULT_TERM_VECTOR_PATH);
+	}
+	
+	public TermVectorSemanticBackend(String path) {
+		this.termVectors = new HashMap<String, SparseVector>();
+		this.dimensions = new QueryDictionary();
+		load(path);
+	}
+	
+	private void load(String path) {
+		int skipped = 0;
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(path), BatchFileWriter.DEFAULT_ENCODING));
+			try {
+				String line = br.readLine();
+				while(line != null) {
+					if(! parseLine(line)) {
+						skipped++;
+					}
+					line = br.readLine();
+				}
+			} finally {
+				br.close();
+			}
+		} catch (FileNotFoundException e) {
+			System.out.println("TermVectorSemanticBackend: Term vector file not found: " + path);
+		} catch (IOException e) {
+			System.out.println("TermVectorSemanticBackend: IO exception reading term vector file " + path);
+		}
+		System.out.println("TermVectorSemanticBackend: " + this.termVectors.size() + " term vectors loaded over "
+				+ this.dimensions.size() + " dimensions, " + skipped + " lines skipped");
+	}
+	
+	private boolean parseLine(String line) {
+		int tab = line.indexOf('\t');
+		if(tab <= 0) {
+			return false;
+		}
+		String[] entries = line.substring(tab + 1).trim().split(" ");
+		int[] dimensionIds = new int[entries.length];
+		float[] weights = new float[entries.length];
+		int length = 0;
+		for(String entry : entries) {
+			int colon = entry.lastIndexOf(':');
+			if(colon <= 0) {
+				continue;
+			}
+			try {
+				weights[length] = Float.parseFloat(entry.substring(colon + 1));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			dimensionIds[length] = this.dimensions.getId(entry.substring(0, colon));
+			length++;
+		}
+		if(length == 0) {
+			return false;
+		}
+		this.termVectors.put(line.substring(0, tab), new SparseVector(dimensionIds, weights, length));
+		return true;
+	}
+	
+	public int size() {
+		return this.termVectors.size();
+	}
+	
+	@Override
+	public SparseVector getVector(String query) {
+		ArrayList<SparseVector> vectors = new ArrayList<SparseVector>();
+		for(String term : query.split(" ")) {
+			SparseVector vector = this.termVectors.get(term);
+			if(vector != null) {
+				vectors.add(vector);
+			}
+		}
+		if(vectors.isEmpty()) {
+			return SparseVector.EMPTY;
+		}
+		if(vectors.size() == 1) {
+			return vectors.get(0);
+		}
+		return SparseVector.sum(vectors);
+	}
+	
+}
@@ -0,0 +1,63 @@
+package processor;
+
+import model.LogObject;
+import model.SearchSession;
+
+/**
+ * Timesplitter (TS-x) session segmentation state machine, as used within Lucchese et al. 2011.
+ * Log records of a user are fed in time order. A session is closed as soon as a record of another user
+ *   arrives, or once the record falls outside maxSessionLength from the start of the session.
+ * One instance holds one open session, so it relies on the records of a user being contiguous.
+ * @author Li Quan Khoo
+ *
+ */
+public class TimeSplitter {
+	
+	private long maxSessionLength;
+	private SearchSession currentSession;
+	
+	public TimeSplitter(long maxSessionLength) {
+		this.maxSessionLength = maxSessionLength;
+		this.currentSession = null;
+	}
+	
+	/**
+	 * Adds the record to the open session, or opens a new session with it.
+	 * Returns the session this record terminated, or null if none was terminated.
+	 */
+	public SearchSession split(LogObject logObj) {
+		
+		// If new session, add the log data and we're finished
+		if(currentSession == null) {
+			currentSession = new SearchSession(logObj);
+			return null;
+		}
+		if(currentSession.getUserId() == logObj.getAnonId()) {
+			long sessionLength = logObj.getQueryTimeMillis() - currentSession.getSessionStartMillis();
+			if(sessionLength < maxSessionLength) { // If session length within normal bounds
+				currentSession.addQuery(logObj.getQuery());
+				currentSession.setSessionEnd(logObj.getQueryTimeMillis());
+				return null;
+			}
+		}
+		
+		// Otherwise terminate existing session and start a new one with this record
+		SearchSession terminatedSession = currentSession;
+		currentSession = new SearchSession(logObj);
+		return terminatedSession;
+	}
+	
+	public boolean hasOpenSession() {
+		return currentSession != null;
+	}
+	
+	/**
+	 * Terminates and returns the open session, if any. Call this once the input is exhausted.
+	 */
+	public SearchSession flush() {
+		SearchSession terminatedSession = currentSession;
+		currentSession = null;
+		return terminatedSession;
+	}
+	
+}
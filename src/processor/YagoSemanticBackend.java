@@ -0,0 +1,143 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Entity;
+import model.SparseVector;
+import writer.MongoWriter;
+
+import com.mongodb.DBObject;
+
+/**
+ * Semantic vectors from the YAGO entities loaded into Mongo by MongoWriter, or stored in an EntityStore.
+ * Every run of consecutive query terms is looked up as an entity searchString. Each entity found
+ *   contributes one dimension for itself and one for each of its relation values, e.g. its rdf:type
+ *   classes, so queries about different entities of the same kind still share dimensions.
+ *
+ * All the term runs of a query are looked up in a single Mongo query, or in the EntityStore, which needs no
+ *   server and can be shared by many threads. Callers should cache the vectors, as SemanticDistance does.
+ * Dimensions are hashes of "entity:" + name or relation key + "=" + value, so the backend keeps no state
+ *   and takes no lock. Two distinct dimensions share a hash with probability about 2^-32 per pair, a few
+ *   thousand pairs over all of YAGO, which only nudges the similarity of the few queries having both.
+ * @author Li Quan Khoo
+ *
+ */
+public class YagoSemanticBackend implements ISemanticBackend {
+	
+	public static final float ENTITY_WEIGHT = 1.0f;
+	public static final float RELATION_WEIGHT = 1.0f;
+	
+	private MongoWriter mongoWriter;
+	private EntityStore entityStore;
+	
+	public YagoSemanticBackend(MongoWriter mongoWriter) {
+		this.mongoWriter = mongoWriter;
+	}
+	
+	public YagoSemanticBackend(EntityStore entityStore) {
+		this.entityStore = entityStore;
+	}
+	
+	@Override
+	public SparseVector getVector(String query) {
+		List<String> searchStrings = getTermRuns(query);
+		if(searchStrings.isEmpty()) {
+			return SparseVector.EMPTY;
+		}
+		
+		ArrayList<Integer> dimensions = new ArrayList<Integer>();
+		ArrayList<Float> weights = new ArrayList<Float>();
+		if(this.entityStore != null) {
+			for(Entity entity : this.entityStore.getEntitiesBySearchStrings(searchStrings)) {
+				dimensions.add(dimensionOf("entity:", entity.getName()));
+				weights.add(ENTITY_WEIGHT);
+				for(String relationKey : entity.getRelations().keySet()) {
+					for(String value : entity.getRelationValues(relationKey)) {
+						dimensions.add(dimensionOf(relationKey + "=", String.valueOf(value)));
+						weights.add(RELATION_WEIGHT);
+					}
+				}
+			}
+			return toVector(dimensions, weights);
+		}
+		for(DBObject entity : this.mongoWriter.getEntitiesBySearchStrings(searchStrings)) {
+			dimensions.add(dimensionOf("entity:", String.valueOf(entity.get("name"))));
+			weights.add(ENTITY_WEIGHT);
+			Object relations = entity.get("relations");
+			if(relations instanceof DBObject) {
+				DBObject relationsObject = (DBObject) relations;
+				for(String relationKey : relationsObject.keySet()) {
+					Object values = relationsObject.get(relationKey);
+					if(values instanceof List) {
+						for(Object value : (List<?>) values) {
+							dimensions.add(dimensionOf(relationKey + "=", String.valueOf(value)));
+							weights.add(RELATION_WEIGHT);
+						}
+					} else if(values != null) {
+						dimensions.add(dimensionOf(relationKey + "=", String.valueOf(values)));
+						weights.add(RELATION_WEIGHT);
+					}
+				}
+			}
+		}
+		return toVector(dimensions, weights);
+	}
+	
+	/*
+	 * Dimension of prefix + value: 64-bit FNV-1a over the chars, avalanched and folded to 32 bits
+	 */
+	private static int dimensionOf(String prefix, String value) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < prefix.length(); i++) {
+			hash ^= prefix.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		for(int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return (int) (hash ^ (hash >>> 32));
+	}
+	
+	private static SparseVector toVector(ArrayList<Integer> dimensions, ArrayList<Float> weights) {
+		int[] dimensionArray = new int[dimensions.size()];
+		float[] weightArray = new float[weights.size()];
+		for(int i = 0; i < dimensionArray.length; i++) {
+			dimensionArray[i] = dimensions.get(i);
+			weightArray[i] = weights.get(i);
+		}
+		return new SparseVector(dimensionArray, weightArray, dimensionArray.length);
+	}
+	
+	/*
+	 * Every run of consecutive terms of the query, e.g. "a b c" gives "a b c", "a b", "b c", "a", "b", "c"
+	 */
+	private static List<String> getTermRuns(String query) {
+		ArrayList<String> runs = new ArrayList<String>();
+		if(query == null || query.isEmpty()) {
+			return runs;
+		}
+		String[] terms = query.split(" ");
+		StringBuilder run = new StringBuilder();
+		for(int length = terms.length; length > 0; length--) {
+			for(int start = 0; start + length <= terms.length; start++) {
+				run.setLength(0);
+				for(int i = start; i < start + length; i++) {
+					if(run.length() != 0) {
+						run.append(' ');
+					}
+					run.append(terms[i]);
+				}
+				if(run.length() != 0) {
+					runs.add(run.toString());
+				}
+			}
+		}
+		return runs;
+	}
+	
+}
@@ -1,10 +1,10 @@
 package reader;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.text.ParseException;
 import java.util.ArrayList;
 
 import model.LogObject;
@@ -17,7 +17,7 @@ import model.LogObject;
  * @author Li Quan Khoo
  *
  */
-public class AolLogReader {
+public class AolLogReader implements ILogReader {
 	
 	// Path to query logs
 	public static final String DEFAULT_LOG_DIR_PATH = "input/querylogs/";
@@ -25,9 +25,10 @@ public class AolLogReader {
 	// File containing names of all query files to process
 	public static final String DEFAULT_CONFIG_FILE_PATH = "src/config/logfiles.ini";
 	
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	
 	private int currentFileIndex;
-	private String nextLine; // field to hold readLine()'s output to avoid repeated initialization
-	private LogObject nextLogObject;
+	private LogLineParser parser;
 	private long fileSize;
 	private int reportPerPercent = 10; // How much of the current file is read before generating a report in the console
 	private int lastReportPercent;
@@ -35,27 +36,39 @@ public class AolLogReader {
 	
 	private ArrayList<String> queryLogFileNames;
 	private String logDirPath;
-	private FileReader fileReader;
-	private BufferedReader bufferedReader;
+	private FileInputStream inputStream;
+	
+	// Raw bytes of the current file, and the current line cut out of them. Both are reused for every line
+	private byte[] readBuffer;
+	private int readBufferPosition;
+	private int readBufferLimit;
+	private byte[] lineBuffer;
+	private int lineLength;
 	
 	public AolLogReader() {
 		this(DEFAULT_CONFIG_FILE_PATH, DEFAULT_LOG_DIR_PATH);
 	}
 	
 	public AolLogReader(String configFilePath, String logDirPath) {
-		this.queryLogFileNames = new ArrayList<String>();
 		this.currentFileIndex = 0;
 		this.logDirPath = logDirPath;
-		this.fileReader = null;
-		this.bufferedReader = null;
+		this.parser = new LogLineParser();
+		this.inputStream = null;
+		this.readBuffer = new byte[READ_BUFFER_SIZE];
+		this.lineBuffer = new byte[1024];
 		this.fileSize = 0;
 		this.lastReportPercent = 0;
 		this.bytesRead = 0;
-		getTargetFiles(configFilePath);
+		this.queryLogFileNames = getTargetFiles(configFilePath);
 	}
 	
-	private void getTargetFiles(String configFilePath) {
+	/*
+	 * Reads the list of query log file names out of the given configuration file.
+	 * Shared with MappedAolLogReader so both readers honor the same logfiles.ini
+	 */
+	static ArrayList<String> getTargetFiles(String configFilePath) {
 		
+		ArrayList<String> queryLogFileNames = new ArrayList<String>();
 		File configFile = new File(configFilePath);
 		try {
 			FileReader fr = new FileReader(configFile);
@@ -65,7 +78,7 @@ public class AolLogReader {
 			String word = null;
 			while(line != null) {
 				word = line.replaceAll("[\n\r]", "");
-				this.queryLogFileNames.add(word);
+				queryLogFileNames.add(word);
 				line = br.readLine();
 			}
 			br.close();
@@ -75,21 +88,67 @@ public class AolLogReader {
 		} catch (IOException e) {
 			System.out.println("IO exception reading query log configuration file");
 		}
+		return queryLogFileNames;
+	}
+	
+	/*
+	 * Cuts the next line out of the current file into lineBuffer, without the line terminator.
+	 * Returns false at EOF.
+	 */
+	private boolean readLine() throws IOException {
+		this.lineLength = 0;
+		boolean readAnything = false;
+		while(true) {
+			if(this.readBufferPosition == this.readBufferLimit) {
+				this.readBufferLimit = this.inputStream.read(this.readBuffer);
+				this.readBufferPosition = 0;
+				if(this.readBufferLimit <= 0) {
+					this.readBufferLimit = 0;
+					return readAnything;
+				}
+			}
+			readAnything = true;
+			
+			int start = this.readBufferPosition;
+			int end = start;
+			while(end < this.readBufferLimit && this.readBuffer[end] != '\n') {
+				end++;
+			}
+			if(this.lineLength + end - start > this.lineBuffer.length) {
+				byte[] newLineBuffer = new byte[Math.max(this.lineBuffer.length * 2, this.lineLength + end - start)];
+				System.arraycopy(this.lineBuffer, 0, newLineBuffer, 0, this.lineLength);
+				this.lineBuffer = newLineBuffer;
+			}
+			System.arraycopy(this.readBuffer, start, this.lineBuffer, this.lineLength, end - start);
+			this.lineLength += end - start;
+			
+			if(end < this.readBufferLimit) {
+				this.readBufferPosition = end + 1;
+				if(this.lineLength > 0 && this.lineBuffer[this.lineLength - 1] == '\r') {
+					this.lineLength--;
+				}
+				return true;
+			}
+			this.readBufferPosition = this.readBufferLimit;
+		}
 	}
 	
 	/**
 	 * Gives next query in line until EOF of last file is reached, then it returns null.
+	 * Malformed lines are reported and skipped.
 	 */
+	@Override
 	public LogObject readNextLine() {
 		
 		while(true) {
 			
-			if(this.bufferedReader != null) {
+			if(this.inputStream != null) {
 				// Read in line in current file
+				boolean hasLine = false;
 				try {
-					nextLine = this.bufferedReader.readLine();
-					if(nextLine != null) {
-						bytesRead += nextLine.getBytes().length;
+					hasLine = readLine();
+					if(hasLine) {
+						bytesRead += lineLength + 1;
 						if(bytesRead > fileSize / 100 * lastReportPercent) {
 							System.out.println("    ~" + lastReportPercent + "%");
 							lastReportPercent += reportPerPercent;
@@ -100,46 +159,42 @@ public class AolLogReader {
 					System.out.println("Error reading log file " + logDirPath + queryLogFileNames.get(currentFileIndex) + ".");
 				}
 				
-				// Return the line if it's valid
-				if(nextLine != null) {
-					try {
-						this.nextLogObject = new LogObject(nextLine);
-						return this.nextLogObject;
-					} catch (NumberFormatException e) { // thrown by Integer.parseInt()
-						System.out.println(nextLine);
-						System.out.println(e);
-						return null;
-					} catch (ParseException e) { // thrown by SimpleDateFormat.parse()
-						return null;
+				// Return the line if it's valid, otherwise move on to the next one
+				if(hasLine) {
+					if(this.parser.parse(this.lineBuffer, 0, this.lineLength)) {
+						return this.parser.toLogObject();
+					} else {
+						System.out.println(new String(this.lineBuffer, 0, this.lineLength));
+						System.out.println("Malformed query log line");
+						continue;
 					}
 					
 				} else {
 					// Otherwise EOF in current file reached. Close the file and increment the file index
 					try {
-						this.bufferedReader.close();
+						this.inputStream.close();
 						bytesRead = 0;
 						System.out.println("Finished reading file " + logDirPath + queryLogFileNames.get(currentFileIndex));
 					} catch (IOException e) {
 						System.out.println("Error closing query log file " + logDirPath + queryLogFileNames.get(currentFileIndex));
 					}
 					
-					this.fileReader = null;
-					this.bufferedReader = null;
+					this.inputStream = null;
 					this.currentFileIndex++;
 				}
 			}
 			
 			// Open next valid file, try until max number of files is reached.
-			while((this.fileReader == null
-					|| this.bufferedReader == null
-					) && currentFileIndex < queryLogFileNames.size()) {
+			while(this.inputStream == null && currentFileIndex < queryLogFileNames.size()) {
 				try {
 					System.out.println("Processing query log file " + logDirPath + queryLogFileNames.get(currentFileIndex));
 					File file = new File(new File(logDirPath), queryLogFileNames.get(currentFileIndex));
 					this.fileSize = file.length();
-					this.fileReader = new FileReader(file);
-					this.bufferedReader = new BufferedReader(this.fileReader);
-					this.bufferedReader.readLine(); // This skips the first line of every log file
+					this.lastReportPercent = 0;
+					this.inputStream = new FileInputStream(file);
+					this.readBufferPosition = 0;
+					this.readBufferLimit = 0;
+					readLine(); // This skips the first line of every log file
 				} catch (FileNotFoundException e) {
 					System.out.println("ERROR: Query log file " + logDirPath + queryLogFileNames.get(currentFileIndex) + " not found.");
 					this.currentFileIndex++;
@@ -149,7 +204,7 @@ public class AolLogReader {
 			}
 			
 			// If still cannot be initialized, we have reached the end of the list of files. Return null.
-			if(this.fileReader == null || this.bufferedReader == null) {
+			if(this.inputStream == null) {
 				return null;
 			}
 			
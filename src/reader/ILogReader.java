@@ -0,0 +1,15 @@
+package reader;
+
+import model.LogObject;
+
+/**
+ * Common interface of the query log readers consumed by the preprocessor.
+ * Implementations hand out log lines in file order and return null once every
+ *   configured file has been read.
+ * @author Li Quan Khoo
+ */
+public interface ILogReader {
+	
+	public LogObject readNextLine();
+	
+}
@@ -0,0 +1,187 @@
+package reader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import model.LogObject;
+
+/**
+ * Facade.
+ * Reads the columnar binary cache of the AOL logs written by writer.LogCacheWriter.
+ * Every column is memory-mapped, so rows come straight out of the page cache with no text parsing.
+ * Rows are handed out in the order they were written, i.e. the same order AolLogReader gives.
+ *
+ * Cache layout (all values big-endian), one file per column within the cache directory:
+ *   header.bin		magic, version, row count, query dictionary size, URL dictionary size
+ *   anonId.col		int per row
+ *   time.col		long per row, epoch millis
+ *   query.col		int per row, id into query.dict
+ *   rank.col		int per row, -1 if the row records no click
+ *   url.col		int per row, id into url.dict, -1 if the row records no click
+ *   query.dict		string table: int count, int offsets[count + 1], UTF-8 bytes
+ *   url.dict		string table, same layout
+ *
+ * Besides the ILogReader interface, rows can be accessed randomly through the primitive accessors.
+ * Those are safe to call from multiple threads.
+ * @author Li Quan Khoo
+ *
+ */
+public class LogCacheReader implements ILogReader {
+	
+	public static final int MAGIC = 0x414f4c43; // "AOLC"
+	public static final int VERSION = 1;
+	
+	public static final String HEADER_FILE_NAME = "header.bin";
+	public static final String ANON_ID_FILE_NAME = "anonId.col";
+	public static final String TIME_FILE_NAME = "time.col";
+	public static final String QUERY_FILE_NAME = "query.col";
+	public static final String RANK_FILE_NAME = "rank.col";
+	public static final String URL_FILE_NAME = "url.col";
+	public static final String QUERY_DICT_FILE_NAME = "query.dict";
+	public static final String URL_DICT_FILE_NAME = "url.dict";
+	
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	private String cacheDirPath;
+	private int rowCount;
+	private int currentRow;
+	private int reportPerPercent = 10; // How much of the cache is read before generating a report in the console
+	private int lastReportPercent;
+	
+	private IntBuffer anonIds;
+	private LongBuffer times;
+	private IntBuffer queryIds;
+	private IntBuffer ranks;
+	private IntBuffer urlIds;
+	private StringTable queries;
+	private StringTable urls;
+	
+	public LogCacheReader(String cacheDirPath) throws IOException {
+		this.cacheDirPath = cacheDirPath;
+		File dir = new File(cacheDirPath);
+		
+		DataInputStream header = new DataInputStream(new FileInputStream(new File(dir, HEADER_FILE_NAME)));
+		try {
+			if(header.readInt() != MAGIC || header.readInt() != VERSION) {
+				throw new IOException("Not a query log cache, or written by an incompatible version: " + cacheDirPath);
+			}
+			long rows = header.readLong();
+			if(rows > Integer.MAX_VALUE) {
+				throw new IOException("Query log cache too large: " + rows + " rows");
+			}
+			this.rowCount = (int) rows;
+		} finally {
+			header.close();
+		}
+		
+		this.anonIds = map(new File(dir, ANON_ID_FILE_NAME)).asIntBuffer();
+		this.times = map(new File(dir, TIME_FILE_NAME)).asLongBuffer();
+		this.queryIds = map(new File(dir, QUERY_FILE_NAME)).asIntBuffer();
+		this.ranks = map(new File(dir, RANK_FILE_NAME)).asIntBuffer();
+		this.urlIds = map(new File(dir, URL_FILE_NAME)).asIntBuffer();
+		this.queries = new StringTable(map(new File(dir, QUERY_DICT_FILE_NAME)));
+		this.urls = new StringTable(map(new File(dir, URL_DICT_FILE_NAME)));
+		
+		if(this.anonIds.limit() < this.rowCount || this.times.limit() < this.rowCount || this.queryIds.limit() < this.rowCount
+				|| this.ranks.limit() < this.rowCount || this.urlIds.limit() < this.rowCount) {
+			throw new IOException("Truncated query log cache: " + cacheDirPath);
+		}
+		
+		this.currentRow = 0;
+		this.lastReportPercent = 0;
+	}
+	
+	/*
+	 * The cache is complete only once header.bin has been written, which LogCacheWriter does last
+	 */
+	public static boolean exists(String cacheDirPath) {
+		return new File(cacheDirPath, HEADER_FILE_NAME).exists();
+	}
+	
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close(); // The mapping stays valid after the channel is closed
+		}
+	}
+	
+	/**
+	 * Gives next row until the end of the cache is reached, then it returns null.
+	 */
+	@Override
+	public LogObject readNextLine() {
+		if(this.currentRow >= this.rowCount) {
+			if(this.currentRow == this.rowCount) {
+				System.out.println("Finished reading query log cache " + this.cacheDirPath);
+				this.currentRow++;
+			}
+			return null;
+		}
+		if(this.currentRow == 0) {
+			System.out.println("Processing query log cache " + this.cacheDirPath);
+		}
+		if(this.currentRow >= (long) this.rowCount * this.lastReportPercent / 100) {
+			System.out.println("    ~" + this.lastReportPercent + "%");
+			this.lastReportPercent += this.reportPerPercent;
+		}
+		
+		int row = this.currentRow++;
+		int urlId = getUrlId(row);
+		return new LogObject(getAnonId(row), getQuery(getQueryId(row)), getQueryTime(row), getItemRank(row),
+				urlId < 0 ? "" : getUrl(urlId));
+	}
+	
+	public int getRowCount() { return this.rowCount; }
+	public int getAnonId(int row) { return this.anonIds.get(row); }
+	public long getQueryTime(int row) { return this.times.get(row); }
+	public int getQueryId(int row) { return this.queryIds.get(row); }
+	public int getItemRank(int row) { return this.ranks.get(row); }
+	public int getUrlId(int row) { return this.urlIds.get(row); }
+	
+	public int getQueryDictionarySize() { return this.queries.size(); }
+	public String getQuery(int queryId) { return this.queries.get(queryId); }
+	public int getUrlDictionarySize() { return this.urls.size(); }
+	public String getUrl(int urlId) { return this.urls.get(urlId); }
+	
+	/*
+	 * Memory-mapped string table: int count, int offsets[count + 1] relative to the byte section, UTF-8 bytes
+	 */
+	private static class StringTable {
+		
+		private ByteBuffer buffer;
+		private int size;
+		private int bytesStart;
+		
+		public StringTable(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.size = buffer.getInt(0);
+			this.bytesStart = 4 + (this.size + 1) * 4;
+		}
+		
+		public int size() {
+			return this.size;
+		}
+		
+		public String get(int id) {
+			int start = this.buffer.getInt(4 + id * 4);
+			int end = this.buffer.getInt(4 + (id + 1) * 4);
+			byte[] bytes = new byte[end - start];
+			for(int i = 0; i < bytes.length; i++) {
+				bytes[i] = this.buffer.get(this.bytesStart + start + i);
+			}
+			return new String(bytes, CHARSET);
+		}
+	}
+	
+}
@@ -0,0 +1,229 @@
+package reader;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import model.LogObject;
+
+/**
+ * Flyweight parser for a single AOL query log line held in a byte array.
+ * Call parse() on each line, then read the fields back through the accessors. The tab offsets are
+ *   scanned in place and numeric fields are decoded straight from the bytes, so nothing is allocated
+ *   per line unless the query or click URL is asked for as a String.
+ *
+ * Line format: AnonID \t Query \t QueryTime \t ItemRank \t ClickURL
+ * QueryTime is the fixed-width "yyyy-MM-dd HH:mm:ss" local time the logs use, and is converted to
+ *   epoch millis in the default time zone, which gives the same result as SimpleDateFormat.
+ *
+ * Instances are not thread-safe. Use one per thread.
+ * @author Li Quan Khoo
+ *
+ */
+public class LogLineParser {
+	
+	private static final int TIMESTAMP_LENGTH = 19; // yyyy-MM-dd HH:mm:ss
+	private static final long MILLIS_PER_QUARTER_HOUR = 15 * 60 * 1000;
+	
+	private Charset charset;
+	private Calendar calendar;
+	
+	// Time zone offset of the last local quarter hour seen. Log lines come in runs of nearby timestamps,
+	//   so this saves going through the Calendar for almost every line. Zone transitions fall on
+	//   quarter hour boundaries, so the offset is constant within one
+	private long cachedLocalQuarterHour;
+	private long cachedOffset;
+	
+	// Fields of the last parsed line
+	private byte[] buffer;
+	private int anonId;
+	private int queryStart;
+	private int queryEnd;
+	private long queryTime;
+	private int itemRank;
+	private int clickUrlStart;
+	private int clickUrlEnd;
+	
+	public LogLineParser() {
+		this(Charset.defaultCharset());
+	}
+	
+	public LogLineParser(Charset charset) {
+		this.charset = charset;
+		this.calendar = new GregorianCalendar();
+		this.cachedLocalQuarterHour = Long.MIN_VALUE;
+		this.cachedOffset = 0;
+	}
+	
+	/**
+	 * Parses the line held in buffer[start, end), excluding the line terminator.
+	 * Returns false if the line is malformed, in which case the accessors are undefined.
+	 */
+	public boolean parse(byte[] buffer, int start, int end) {
+		
+		// Locate the four tabs. Anything after a fifth tab is ignored, as String.split would
+		int tab1 = indexOfTab(buffer, start, end);
+		int tab2 = tab1 < 0 ? -1 : indexOfTab(buffer, tab1 + 1, end);
+		int tab3 = tab2 < 0 ? -1 : indexOfTab(buffer, tab2 + 1, end);
+		int tab4 = tab3 < 0 ? -1 : indexOfTab(buffer, tab3 + 1, end);
+		if(tab4 < 0) {
+			return false;
+		}
+		int tab5 = indexOfTab(buffer, tab4 + 1, end);
+		
+		long id = parseInt(buffer, start, tab1);
+		if(id == Long.MIN_VALUE) {
+			return false;
+		}
+		
+		long time = parseTimestamp(buffer, tab2 + 1, tab3);
+		if(time == Long.MIN_VALUE) {
+			return false;
+		}
+		
+		long rank = -1;
+		if(tab4 > tab3 + 1) {
+			rank = parseInt(buffer, tab3 + 1, tab4);
+			if(rank == Long.MIN_VALUE) {
+				return false;
+			}
+		}
+		
+		this.buffer = buffer;
+		this.anonId = (int) id;
+		this.queryStart = tab1 + 1;
+		this.queryEnd = tab2;
+		this.queryTime = time;
+		this.itemRank = (int) rank;
+		this.clickUrlStart = tab4 + 1;
+		this.clickUrlEnd = tab5 < 0 ? end : tab5;
+		return true;
+	}
+	
+	public int getAnonId() { return this.anonId; }
+	public long getQueryTime() { return this.queryTime; }
+	public int getItemRank() { return this.itemRank; } // -1 if the line records no click
+	
+	// Query span within getBuffer()
+	public byte[] getBuffer() { return this.buffer; }
+	public int getQueryStart() { return this.queryStart; }
+	public int getQueryEnd() { return this.queryEnd; }
+	
+	public boolean hasClickUrl() { return this.clickUrlEnd > this.clickUrlStart; }
+	
+	public String getQuery() {
+		return new String(this.buffer, this.queryStart, this.queryEnd - this.queryStart, this.charset);
+	}
+	
+	public String getClickUrl() {
+		if(! hasClickUrl()) {
+			return "";
+		}
+		return new String(this.buffer, this.clickUrlStart, this.clickUrlEnd - this.clickUrlStart, this.charset);
+	}
+	
+	public LogObject toLogObject() {
+		return new LogObject(this.anonId, getQuery(), this.queryTime, this.itemRank, getClickUrl());
+	}
+	
+	private static int indexOfTab(byte[] buffer, int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(buffer[i] == '\t') {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/*
+	 * Decimal integer with the same range as Integer.parseInt. Long.MIN_VALUE signals malformed input
+	 */
+	private static long parseInt(byte[] buffer, int start, int end) {
+		boolean negative = false;
+		if(start < end && (buffer[start] == '-' || buffer[start] == '+')) {
+			negative = buffer[start] == '-';
+			start++;
+		}
+		if(start >= end) {
+			return Long.MIN_VALUE;
+		}
+		long value = 0;
+		for(int i = start; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if(digit < 0 || digit > 9) {
+				return Long.MIN_VALUE;
+			}
+			value = value * 10 + digit;
+			if(value > (long) Integer.MAX_VALUE + 1) {
+				return Long.MIN_VALUE;
+			}
+		}
+		value = negative ? -value : value;
+		if(value > Integer.MAX_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		return value;
+	}
+	
+	/*
+	 * Decodes yyyy-MM-dd HH:mm:ss to epoch millis. Long.MIN_VALUE signals malformed input
+	 */
+	private long parseTimestamp(byte[] buffer, int start, int end) {
+		if(end - start != TIMESTAMP_LENGTH
+				|| buffer[start + 4] != '-' || buffer[start + 7] != '-' || buffer[start + 10] != ' '
+				|| buffer[start + 13] != ':' || buffer[start + 16] != ':') {
+			return Long.MIN_VALUE;
+		}
+		int year = digits(buffer, start, 4);
+		int month = digits(buffer, start + 5, 2);
+		int day = digits(buffer, start + 8, 2);
+		int hour = digits(buffer, start + 11, 2);
+		int minute = digits(buffer, start + 14, 2);
+		int second = digits(buffer, start + 17, 2);
+		if(year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+			return Long.MIN_VALUE;
+		}
+		
+		// Out of range fields are rolled over by the lenient Calendar, same as SimpleDateFormat
+		if(month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+			this.calendar.clear();
+			this.calendar.set(year, month - 1, day, hour, minute, second);
+			return this.calendar.getTimeInMillis();
+		}
+		
+		long localQuarterHour = (daysFromCivil(year, month, day) * 24 + hour) * 4 + minute / 15;
+		if(localQuarterHour != this.cachedLocalQuarterHour) {
+			this.calendar.clear();
+			this.calendar.set(year, month - 1, day, hour, minute - minute % 15, 0);
+			this.cachedOffset = this.calendar.getTimeInMillis() - localQuarterHour * MILLIS_PER_QUARTER_HOUR;
+			this.cachedLocalQuarterHour = localQuarterHour;
+		}
+		return localQuarterHour * MILLIS_PER_QUARTER_HOUR + (minute % 15) * 60000L + second * 1000L + this.cachedOffset;
+	}
+	
+	private static int digits(byte[] buffer, int start, int count) {
+		int value = 0;
+		for(int i = start; i < start + count; i++) {
+			int digit = buffer[i] - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	/*
+	 * Days since 1970-01-01 of a proleptic Gregorian date
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		if(month <= 2) {
+			year--;
+		}
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+	
+}
@@ -0,0 +1,302 @@
+package reader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import model.LogObject;
+
+/**
+ * Facade.
+ * Parallel counterpart of AolLogReader. Every file listed in the configuration file is memory-mapped
+ *   and cut into newline-aligned chunks, which are parsed into LogObjects on a pool of worker threads.
+ * Chunks are handed back in the order they were cut, so callers see exactly the same sequence of lines
+ *   as they would from AolLogReader. This keeps the per-user ordering that Preprocessor.timeSplit relies on.
+ * Like AolLogReader, the first line of every file is skipped as it only contains column information.
+ * @author Li Quan Khoo
+ *
+ */
+public class MappedAolLogReader implements ILogReader {
+	
+	// Size of the region mapped per chunk. Chunks are shortened to the last newline within the region
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024; // bytes
+	public static final int DEFAULT_NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	// Number of parsed / in-progress chunks kept per worker thread. Bounds memory use when the consumer is slower
+	private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+	
+	private ArrayList<String> queryLogFileNames;
+	private String logDirPath;
+	private int chunkSize;
+	private int maxChunksInFlight;
+	private Charset charset;
+	
+	private ExecutorService executor;
+	private LinkedList<Future<ParsedChunk>> pendingChunks;
+	
+	// State of the file currently being cut into chunks
+	private int currentFileIndex;
+	private RandomAccessFile currentFile;
+	private FileChannel currentChannel;
+	private long currentFileSize;
+	private long currentFilePosition;
+	
+	// State of the chunk currently being handed out
+	private ParsedChunk currentChunk;
+	private int currentChunkIndex;
+	private int reportPerPercent = 10; // How much of the current file is read before generating a report in the console
+	private int lastReportPercent;
+	
+	public MappedAolLogReader() {
+		this(AolLogReader.DEFAULT_CONFIG_FILE_PATH, AolLogReader.DEFAULT_LOG_DIR_PATH, DEFAULT_NUM_OF_THREADS, DEFAULT_CHUNK_SIZE);
+	}
+	
+	public MappedAolLogReader(String configFilePath, String logDirPath, int numOfThreads, int chunkSize) {
+		this.queryLogFileNames = AolLogReader.getTargetFiles(configFilePath);
+		this.logDirPath = logDirPath;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = numOfThreads * CHUNKS_IN_FLIGHT_PER_THREAD;
+		this.charset = Charset.defaultCharset(); // Same decoding as the FileReader used by AolLogReader
+		this.executor = Executors.newFixedThreadPool(numOfThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MappedAolLogReader-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.pendingChunks = new LinkedList<Future<ParsedChunk>>();
+		this.currentFileIndex = 0;
+		this.currentChunk = null;
+		this.currentChunkIndex = 0;
+		this.lastReportPercent = 0;
+	}
+	
+	/**
+	 * Gives next query in line until EOF of last file is reached, then it returns null.
+	 * Malformed lines are reported and skipped, as by AolLogReader.
+	 */
+	@Override
+	public LogObject readNextLine() {
+		
+		while(true) {
+			
+			if(this.currentChunk != null && this.currentChunkIndex < this.currentChunk.logObjects.size()) {
+				return this.currentChunk.logObjects.get(this.currentChunkIndex++);
+			}
+			
+			// Current chunk exhausted. Keep the workers busy, then wait for the next chunk in line
+			while(this.pendingChunks.size() < this.maxChunksInFlight && submitNextChunk()) {}
+			if(this.pendingChunks.isEmpty()) {
+				close();
+				return null;
+			}
+			
+			try {
+				this.currentChunk = this.pendingChunks.removeFirst().get();
+				this.currentChunkIndex = 0;
+				report(this.currentChunk);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				return null;
+			} catch (ExecutionException e) {
+				System.out.println("Error parsing query log chunk: " + e.getCause());
+				this.currentChunk = null;
+			}
+		}
+	}
+	
+	/**
+	 * Stops the worker threads. Called automatically once the last file has been read.
+	 */
+	public void close() {
+		this.executor.shutdownNow();
+		closeCurrentFile();
+	}
+	
+	private void report(ParsedChunk chunk) {
+		String fileName = this.logDirPath + this.queryLogFileNames.get(chunk.fileIndex);
+		if(chunk.startPosition == 0) {
+			System.out.println("Processing query log file " + fileName);
+			this.lastReportPercent = 0;
+		}
+		while(chunk.endPosition > chunk.fileSize / 100 * this.lastReportPercent && this.lastReportPercent <= 100) {
+			System.out.println("    ~" + this.lastReportPercent + "%");
+			this.lastReportPercent += this.reportPerPercent;
+		}
+		if(chunk.endPosition >= chunk.fileSize) {
+			System.out.println("Finished reading file " + fileName);
+		}
+	}
+	
+	/*
+	 * Maps the next newline-aligned region of the current file and submits it for parsing.
+	 * Returns false once there is nothing left to submit.
+	 */
+	private boolean submitNextChunk() {
+		
+		// Open next valid file, try until max number of files is reached.
+		while(this.currentChannel == null && this.currentFileIndex < this.queryLogFileNames.size()) {
+			openFile(this.currentFileIndex);
+			if(this.currentChannel == null) {
+				this.currentFileIndex++;
+			}
+		}
+		if(this.currentChannel == null) {
+			return false;
+		}
+		
+		String fileName = this.logDirPath + this.queryLogFileNames.get(this.currentFileIndex);
+		try {
+			long start = this.currentFilePosition;
+			long remaining = this.currentFileSize - start;
+			long mapLength = Math.min(this.chunkSize, remaining);
+			MappedByteBuffer buffer = this.currentChannel.map(FileChannel.MapMode.READ_ONLY, start, mapLength);
+			int length = (int) mapLength;
+			
+			// Unless this is the tail of the file, cut the chunk after its last newline.
+			// If a single line is longer than the mapped region, map a larger region and try again
+			while(start + mapLength < this.currentFileSize) {
+				length = lastNewlineIndex(buffer, (int) mapLength) + 1;
+				if(length > 0) {
+					break;
+				}
+				mapLength = Math.min(mapLength * 2, remaining);
+				buffer = this.currentChannel.map(FileChannel.MapMode.READ_ONLY, start, mapLength);
+				length = (int) mapLength;
+			}
+			buffer.limit(length);
+			
+			this.currentFilePosition += length;
+			this.pendingChunks.addLast(this.executor.submit(
+					new ChunkParser(buffer, this.currentFileIndex, start, this.currentFilePosition, this.currentFileSize)));
+			
+		} catch (IOException e) {
+			System.out.println("Error reading log file " + fileName + ".");
+			this.currentFilePosition = this.currentFileSize;
+		}
+		
+		if(this.currentFilePosition >= this.currentFileSize) {
+			closeCurrentFile();
+			this.currentFileIndex++;
+		}
+		return true;
+	}
+	
+	private static int lastNewlineIndex(MappedByteBuffer buffer, int length) {
+		for(int i = length - 1; i >= 0; i--) {
+			if(buffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private void openFile(int fileIndex) {
+		String fileName = this.logDirPath + this.queryLogFileNames.get(fileIndex);
+		try {
+			File file = new File(new File(this.logDirPath), this.queryLogFileNames.get(fileIndex));
+			this.currentFile = new RandomAccessFile(file, "r");
+			this.currentChannel = this.currentFile.getChannel();
+			this.currentFileSize = this.currentChannel.size();
+			this.currentFilePosition = 0;
+			if(this.currentFileSize == 0) {
+				closeCurrentFile();
+			}
+		} catch (FileNotFoundException e) {
+			System.out.println("ERROR: Query log file " + fileName + " not found.");
+		} catch (IOException e) {
+			System.out.println("Error reading log file " + fileName + ".");
+			closeCurrentFile();
+		}
+	}
+	
+	// Mappings stay valid after their channel is closed, so this is safe with chunks still in flight
+	private void closeCurrentFile() {
+		if(this.currentFile != null) {
+			try {
+				this.currentFile.close();
+			} catch (IOException e) {
+				System.out.println("Error closing query log file " + this.logDirPath + this.queryLogFileNames.get(this.currentFileIndex));
+			}
+		}
+		this.currentFile = null;
+		this.currentChannel = null;
+	}
+	
+	/*
+	 * Result of parsing one chunk, along with the bookkeeping needed for progress reports
+	 */
+	private static class ParsedChunk {
+		private ArrayList<LogObject> logObjects;
+		private int fileIndex;
+		private long startPosition;
+		private long endPosition;
+		private long fileSize;
+	}
+	
+	/*
+	 * Worker task turning one mapped chunk into LogObjects
+	 */
+	private class ChunkParser implements Callable<ParsedChunk> {
+		
+		private MappedByteBuffer buffer;
+		private ParsedChunk chunk;
+		
+		public ChunkParser(MappedByteBuffer buffer, int fileIndex, long startPosition, long endPosition, long fileSize) {
+			this.buffer = buffer;
+			this.chunk = new ParsedChunk();
+			this.chunk.fileIndex = fileIndex;
+			this.chunk.startPosition = startPosition;
+			this.chunk.endPosition = endPosition;
+			this.chunk.fileSize = fileSize;
+		}
+		
+		@Override
+		public ParsedChunk call() {
+			int length = this.buffer.limit();
+			byte[] bytes = new byte[length];
+			this.buffer.get(bytes);
+			this.buffer = null;
+			
+			LogLineParser parser = new LogLineParser(charset);
+			ArrayList<LogObject> logObjects = new ArrayList<LogObject>(length / 64);
+			int lineStart = 0;
+			boolean skipLine = this.chunk.startPosition == 0; // This skips the first line of every log file
+			for(int i = 0; i <= length; i++) {
+				if(i == length || bytes[i] == '\n') {
+					int lineEnd = i;
+					if(lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+						lineEnd--;
+					}
+					if(skipLine) {
+						skipLine = false;
+					} else if(i < length || lineEnd > lineStart) {
+						if(parser.parse(bytes, lineStart, lineEnd)) {
+							logObjects.add(parser.toLogObject());
+						} else {
+							System.out.println(new String(bytes, lineStart, lineEnd - lineStart, charset));
+							System.out.println("Malformed query log line");
+						}
+					}
+					lineStart = i + 1;
+				}
+			}
+			this.chunk.logObjects = logObjects;
+			return this.chunk;
+		}
+	}
+	
+}
@@ -0,0 +1,288 @@
+package reader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+
+import model.QueryDictionary;
+import model.SearchSession;
+import util.Varint;
+import writer.BatchFileWriter;
+import writer.SessionStreamWriter;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Facade.
+ * Reads back the session files written by the preprocessor, one session at a time, so that consumers
+ *   can start work before a file has been read in full. Handles every SessionStreamWriter.Format;
+ *   the format of each file is told by its extension (.json, .jsonl, .bin).
+ * Files are read in the order they were written, i.e. output-0, output-1, ...
+ * @author Li Quan Khoo
+ *
+ */
+public class PreprocessedLogReader {
+	
+	public static final String DEFAULT_INPUT_DIR = "output/preprocessor-out/";
+	
+	private File[] files;
+	private int currentFileIndex;
+	private File currentFile;
+	private SessionStreamWriter.Format currentFormat;
+	private Gson gson;
+	
+	// Current file
+	private JsonReader jsonReader;
+	private DataInputStream binaryIn;
+	private int[] binaryQueryIds; // file-local query id -> QueryDictionary id, for the binary format
+	private int binaryQueryCount;
+	private long previousStart;
+	private byte[] recordBuffer;
+	
+	public PreprocessedLogReader() {
+		this(DEFAULT_INPUT_DIR);
+	}
+	
+	public PreprocessedLogReader(String inputDir) {
+		this.gson = SearchSession.gson();
+		this.recordBuffer = new byte[1024];
+		this.currentFileIndex = -1;
+		
+		File[] files = new File(inputDir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return formatOf(name) != null;
+			}
+		});
+		if(files == null) {
+			System.out.println("PreprocessedLogReader: Input directory " + inputDir + " not found");
+			files = new File[0];
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				int diff = fileNumberOf(a.getName()) - fileNumberOf(b.getName());
+				return diff != 0 ? diff : a.getName().compareTo(b.getName());
+			}
+		});
+		this.files = files;
+	}
+	
+	private static SessionStreamWriter.Format formatOf(String fileName) {
+		for(SessionStreamWriter.Format format : SessionStreamWriter.Format.values()) {
+			if(fileName.endsWith("." + format.getFileExtension())) {
+				return format;
+			}
+		}
+		return null;
+	}
+	
+	// output-12.jsonl -> 12
+	private static int fileNumberOf(String fileName) {
+		int end = fileName.lastIndexOf('.');
+		int start = fileName.lastIndexOf('-', end) + 1;
+		try {
+			return Integer.parseInt(fileName.substring(start, end));
+		} catch (NumberFormatException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+	
+	public String getCurrentFileName() {
+		return this.currentFile == null ? null : this.currentFile.getName();
+	}
+	
+	/**
+	 * Gives the next session until all files have been read, then it returns null.
+	 * Files which cannot be read are reported and skipped.
+	 */
+	public SearchSession readNextSession() {
+		while(this.currentFile != null || openNextFile()) {
+			SearchSession session = readFromCurrentFile();
+			if(session != null) {
+				return session;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Whole-file compatibility mode. Gives all sessions of the next file, or null once all files have been read.
+	 */
+	public SearchSession[] getLogs() {
+		if(this.currentFile == null && ! openNextFile()) {
+			return null;
+		}
+		ArrayList<SearchSession> sessions = new ArrayList<SearchSession>();
+		SearchSession session = readFromCurrentFile();
+		while(session != null) {
+			sessions.add(session);
+			session = readFromCurrentFile();
+		}
+		return sessions.toArray(new SearchSession[] {});
+	}
+	
+	/*
+	 * Gives the next session of the current file. Closes the file and returns null once it is used up
+	 */
+	private SearchSession readFromCurrentFile() {
+		try {
+			SearchSession session = this.currentFormat == SessionStreamWriter.Format.BINARY
+					? readBinarySession() : readJsonSession();
+			if(session != null) {
+				return session;
+			}
+		} catch (IOException e) {
+			System.out.println("PreprocessedLogReader: IO exception reading " + this.currentFile.getName() + " (" + e.getMessage() + "). Skipping rest of file.");
+		} catch (JsonParseException e) {
+			System.out.println("PreprocessedLogReader: Malformed session in " + this.currentFile.getName() + ". Skipping rest of file.");
+		}
+		closeCurrentFile();
+		return null;
+	}
+	
+	private boolean openNextFile() {
+		while(++this.currentFileIndex < this.files.length) {
+			File file = this.files[this.currentFileIndex];
+			try {
+				open(file);
+				return true;
+			} catch (IOException e) {
+				System.out.println("PreprocessedLogReader: IO exception opening " + file.getName() + ". Skipping file.");
+				closeCurrentFile();
+			}
+		}
+		return false;
+	}
+	
+	private void open(File file) throws IOException {
+		this.currentFile = file;
+		this.currentFormat = formatOf(file.getName());
+		System.out.println("PreprocessedLogReader: Reading " + file.getName());
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		
+		switch(this.currentFormat) {
+		case JSON:
+			this.jsonReader = new JsonReader(new InputStreamReader(in, BatchFileWriter.DEFAULT_ENCODING));
+			this.jsonReader.beginArray();
+			break;
+		case JSONL:
+			// Lenient mode accepts top-level values one after another
+			this.jsonReader = new JsonReader(new InputStreamReader(in, BatchFileWriter.DEFAULT_ENCODING));
+			this.jsonReader.setLenient(true);
+			break;
+		case BINARY:
+			this.binaryIn = new DataInputStream(in);
+			if(this.binaryIn.readInt() != SessionStreamWriter.BINARY_MAGIC) {
+				throw new IOException("Not a binary session file: " + file.getName());
+			}
+			this.binaryQueryIds = new int[1024];
+			this.binaryQueryCount = 0;
+			this.previousStart = 0;
+			break;
+		}
+	}
+	
+	private void closeCurrentFile() {
+		try {
+			if(this.jsonReader != null) {
+				this.jsonReader.close();
+			}
+			if(this.binaryIn != null) {
+				this.binaryIn.close();
+			}
+		} catch (IOException e) {
+			// nothing left to read from it
+		}
+		this.jsonReader = null;
+		this.binaryIn = null;
+		this.binaryQueryIds = null;
+		this.currentFile = null;
+	}
+	
+	private SearchSession readJsonSession() throws IOException {
+		if(! this.jsonReader.hasNext() || this.jsonReader.peek() == JsonToken.END_DOCUMENT) {
+			return null;
+		}
+		return this.gson.fromJson(this.jsonReader, SearchSession.class);
+	}
+	
+	private SearchSession readBinarySession() throws IOException {
+		
+		// The file may only end where a record would start. Anywhere else it has been cut short
+		int b = this.binaryIn.read();
+		if(b < 0) {
+			return null; // clean end of file
+		}
+		int length;
+		try {
+			long value = b & 0x7f;
+			for(int shift = 7; (b & 0x80) != 0; shift += 7) {
+				if(shift >= 64) {
+					throw new IOException("Malformed record length");
+				}
+				b = this.binaryIn.readUnsignedByte();
+				value |= (long) (b & 0x7f) << shift;
+			}
+			if(value > Integer.MAX_VALUE) {
+				throw new IOException("Malformed record length " + value);
+			}
+			length = (int) value;
+			if(length > this.recordBuffer.length) {
+				this.recordBuffer = new byte[Math.max(length, this.recordBuffer.length * 2)];
+			}
+			this.binaryIn.readFully(this.recordBuffer, 0, length);
+		} catch (EOFException e) {
+			throw new IOException("Truncated session record");
+		}
+		
+		byte[] buffer = this.recordBuffer;
+		int[] position = new int[] {0};
+		int sessionId = (int) Varint.read(buffer, position, length);
+		long start = this.previousStart + Varint.unzigzag(Varint.read(buffer, position, length));
+		long end = start + Varint.unzigzag(Varint.read(buffer, position, length));
+		int queryCount = (int) Varint.read(buffer, position, length);
+		this.previousStart = start;
+		
+		SearchSession session = new SearchSession(-1, new Date(start));
+		session.setSessionId(sessionId);
+		session.setSessionEnd(end);
+		for(int i = 0; i < queryCount; i++) {
+			long ref = Varint.read(buffer, position, length);
+			int queryId = (int) (ref >>> 1);
+			if((ref & 1) != 0) {
+				int byteLength = (int) Varint.read(buffer, position, length);
+				if(position[0] + byteLength > length) {
+					throw new IOException("Truncated session record");
+				}
+				if(queryId != this.binaryQueryCount) {
+					throw new IOException("Out of order query id " + queryId);
+				}
+				if(this.binaryQueryCount == this.binaryQueryIds.length) {
+					this.binaryQueryIds = Arrays.copyOf(this.binaryQueryIds, this.binaryQueryCount * 2);
+				}
+				String query = new String(buffer, position[0], byteLength, SessionStreamWriter.CHARSET);
+				this.binaryQueryIds[this.binaryQueryCount++] = QueryDictionary.getDefault().getId(query);
+				position[0] += byteLength;
+			}
+			if(queryId >= this.binaryQueryCount) {
+				throw new IOException("Unknown query id " + queryId);
+			}
+			session.addQueryId(this.binaryQueryIds[queryId]);
+		}
+		return session;
+	}
+	
+}
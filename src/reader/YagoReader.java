@@ -99,6 +99,7 @@ public class YagoReader {
 						if(line.equals("") ||
 								line.startsWith("@") ||
 								line.startsWith("#")) {
+							line = this.bufferedReader.readLine();
 							continue;
 						}
 						return line;
@@ -0,0 +1,151 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bloom filter over strings. mightContain() is never wrong about a string that was added, and wrong
+ *   about other strings with a probability set by the bits per string and the number of hash functions.
+ *
+ * The bits are held in a LongBuffer, so a filter can be read straight from a memory-mapped file,
+ *   see SortedStringTable. Hash functions are derived from one 64-bit hash by double hashing
+ *   (Kirsch and Mitzenmacher), so each check hashes the string once. The hashes are combined in 64 bits
+ *   and reduced over all the bits, so filters beyond 2^31 bits use every bit.
+ * Adding is not thread-safe. Checking is.
+ *
+ * save() writes a filter to its own file: int magic, int numOfHashes, int numOfLongs, long[numOfLongs].
+ *   load() maps such a file read-only, so loaded filters can't be added to.
+ * @author Li Quan Khoo
+ *
+ */
+public class BloomFilter {
+	
+	public static final int MAGIC = 0x424c4d32; // "BLM2"
+	private static final int HEADER_SIZE = 12; // bytes
+	
+	private LongBuffer bits;
+	private long numOfBits;
+	private int numOfHashes;
+	
+	/**
+	 * Empty filter sized for the expected number of strings at the given false positive rate
+	 */
+	public BloomFilter(long expectedSize, double falsePositiveRate) {
+		this(LongBuffer.allocate(numOfLongs(expectedSize, falsePositiveRate)),
+				numOfHashes(expectedSize, numOfLongs(expectedSize, falsePositiveRate) * 64L));
+	}
+	
+	/**
+	 * Filter over existing bits, e.g. a slice of a mapped file
+	 */
+	public BloomFilter(LongBuffer bits, int numOfHashes) {
+		this.bits = bits;
+		this.numOfBits = bits.capacity() * 64L;
+		this.numOfHashes = numOfHashes;
+	}
+	
+	private static int numOfLongs(long expectedSize, double falsePositiveRate) {
+		// m = -n ln p / (ln 2)^2
+		double numOfBits = -Math.max(1, expectedSize) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		return (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(numOfBits / 64));
+	}
+	
+	private static int numOfHashes(long expectedSize, long numOfBits) {
+		// k = m / n ln 2
+		return Math.max(1, (int) Math.round((double) numOfBits / Math.max(1, expectedSize) * Math.log(2)));
+	}
+	
+	public LongBuffer getBits() { return this.bits; }
+	public int getNumOfLongs() { return this.bits.capacity(); }
+	public int getNumOfHashes() { return this.numOfHashes; }
+	
+	public static BloomFilter load(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a Bloom filter: " + path);
+			}
+			int numOfHashes = buffer.getInt(4);
+			int numOfLongs = buffer.getInt(8);
+			buffer.position(HEADER_SIZE);
+			buffer.limit(HEADER_SIZE + numOfLongs * 8);
+			return new BloomFilter(buffer.slice().asLongBuffer(), numOfHashes);
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+	}
+	
+	public void save(String path) throws IOException {
+		File file = new File(path);
+		if(file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(this.numOfHashes);
+			out.writeInt(getNumOfLongs());
+			for(int i = 0; i < getNumOfLongs(); i++) {
+				out.writeLong(this.bits.get(i));
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	public void add(String string) {
+		long hash1 = hash(string);
+		long hash2 = mix(hash1);
+		for(int i = 1; i <= this.numOfHashes; i++) {
+			long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % this.numOfBits;
+			int index = (int) (bit >>> 6);
+			this.bits.put(index, this.bits.get(index) | (1L << bit));
+		}
+	}
+	
+	public boolean mightContain(String string) {
+		long hash1 = hash(string);
+		long hash2 = mix(hash1);
+		for(int i = 1; i <= this.numOfHashes; i++) {
+			long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % this.numOfBits;
+			if((this.bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * 64-bit FNV-1a over the chars, with a final avalanche so all the bits are usable
+	 */
+	private static long hash(String string) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < string.length(); i++) {
+			hash ^= string.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+	
+	/*
+	 * Avalanche of murmur3 (fmix64). Also gives the second hash from the first
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+}
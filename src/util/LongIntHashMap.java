@@ -0,0 +1,131 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative longs to ints, by open addressing with linear probing over two primitive
+ *   arrays, so an entry takes 12 bytes of table rather than the ~80 bytes of a boxed HashMap entry.
+ * Used to count pairs of ints packed into one long, see pack().
+ * Not thread-safe.
+ * @author Li Quan Khoo
+ *
+ */
+public class LongIntHashMap {
+	
+	private static final long EMPTY = -1;
+	private static final double MAX_LOAD_FACTOR = 0.6;
+	
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	
+	public LongIntHashMap() {
+		this(1 << 10);
+	}
+	
+	public LongIntHashMap(int expectedSize) {
+		allocate(Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD_FACTOR)) - 1) << 1);
+	}
+	
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new int[capacity];
+		this.size = 0;
+		this.mask = capacity - 1;
+	}
+	
+	public static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xffffffffL);
+	}
+	
+	public static int high(long key) {
+		return (int) (key >>> 32);
+	}
+	
+	public static int low(long key) {
+		return (int) key;
+	}
+	
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * Bytes taken by the table
+	 */
+	public long getMemoryBytes() {
+		return this.keys.length * 12L;
+	}
+	
+	/**
+	 * The value of key, 0 if absent
+	 */
+	public int get(long key) {
+		int slot = slotOf(key);
+		return (this.keys[slot] == key) ? this.values[slot] : 0;
+	}
+	
+	/**
+	 * Adds delta to the value of key, which starts at 0
+	 */
+	public void add(long key, int delta) {
+		int slot = slotOf(key);
+		if(this.keys[slot] == EMPTY) {
+			this.keys[slot] = key;
+			if(++this.size > this.keys.length * MAX_LOAD_FACTOR) {
+				rehash();
+				slot = slotOf(key);
+			}
+		}
+		this.values[slot] += delta;
+	}
+	
+	/**
+	 * All keys, in ascending order
+	 */
+	public long[] sortedKeys() {
+		long[] present = new long[this.size];
+		int count = 0;
+		for(long key : this.keys) {
+			if(key != EMPTY) {
+				present[count++] = key;
+			}
+		}
+		Arrays.sort(present);
+		return present;
+	}
+	
+	public void clear() {
+		allocate(16);
+	}
+	
+	/*
+	 * Slot holding key, or the empty slot where it would go
+	 */
+	private int slotOf(long key) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		int slot = (int) (hash ^ (hash >>> 32)) & this.mask;
+		while(this.keys[slot] != key && this.keys[slot] != EMPTY) {
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+	
+	private void rehash() {
+		long[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		int size = this.size;
+		allocate(oldKeys.length * 2);
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != EMPTY) {
+				int slot = slotOf(oldKeys[i]);
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+		this.size = size;
+	}
+	
+}
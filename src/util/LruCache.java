@@ -0,0 +1,143 @@
+package util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded least-recently-used cache which can be shared between threads.
+ * Keys are hash-partitioned across segments, each an access-ordered LinkedHashMap under its own lock,
+ *   so threads working on different keys seldom wait for one another. Each segment evicts its own
+ *   least recently used entry, so eviction is LRU per segment rather than strictly global.
+ * Hits and misses are counted for reporting.
+ * @author Li Quan Khoo
+ *
+ */
+public class LruCache<K, V> {
+	
+	public static final int DEFAULT_NUM_OF_SEGMENTS = 16;
+	
+	private Segment<K, V>[] segments;
+	private int maxSize;
+	private AtomicLong hits;
+	private AtomicLong misses;
+	
+	public LruCache(int maxSize) {
+		this(maxSize, DEFAULT_NUM_OF_SEGMENTS);
+	}
+	
+	public LruCache(int maxSize, int numOfSegments) {
+		numOfSegments = Math.max(1, Math.min(numOfSegments, maxSize));
+		this.maxSize = maxSize;
+		@SuppressWarnings("unchecked")
+		Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[numOfSegments];
+		this.segments = segments;
+		for(int i = 0; i < numOfSegments; i++) {
+			// Spread the remainder so that the segment capacities add up to maxSize
+			int capacity = maxSize / numOfSegments + (i < maxSize % numOfSegments ? 1 : 0);
+			this.segments[i] = new Segment<K, V>(capacity);
+		}
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+	
+	private Segment<K, V> segmentOf(Object key) {
+		int hash = key.hashCode() * 0x9E3779B9;
+		return this.segments[((hash ^ (hash >>> 16)) & 0x7fffffff) % this.segments.length];
+	}
+	
+	/**
+	 * Gives the cached value, or null on a miss
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentOf(key);
+		V value;
+		synchronized(segment) {
+			value = segment.get(key);
+		}
+		if(value == null) {
+			this.misses.incrementAndGet();
+		} else {
+			this.hits.incrementAndGet();
+		}
+		return value;
+	}
+	
+	public void put(K key, V value) {
+		Segment<K, V> segment = segmentOf(key);
+		synchronized(segment) {
+			segment.put(key, value);
+		}
+	}
+	
+	public int size() {
+		int size = 0;
+		for(Segment<K, V> segment : this.segments) {
+			synchronized(segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+	
+	/**
+	 * Copy of the current entries, least recently used first within each segment
+	 */
+	public ArrayList<Map.Entry<K, V>> entries() {
+		ArrayList<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+		for(Segment<K, V> segment : this.segments) {
+			synchronized(segment) {
+				for(Map.Entry<K, V> entry : segment.entrySet()) {
+					entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(entry));
+				}
+			}
+		}
+		return entries;
+	}
+	
+	public void clear() {
+		for(Segment<K, V> segment : this.segments) {
+			synchronized(segment) {
+				segment.clear();
+			}
+		}
+		resetCounters();
+	}
+	
+	public long getHits() { return this.hits.get(); }
+	public long getMisses() { return this.misses.get(); }
+	
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long total = hits + this.misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+	
+	public void resetCounters() {
+		this.hits.set(0);
+		this.misses.set(0);
+	}
+	
+	@SuppressWarnings("serial")
+	private static class Segment<K, V> extends LinkedHashMap<K, V> {
+		
+		private int capacity;
+		
+		public Segment(int capacity) {
+			super(16, 0.75f, true); // access order
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > this.capacity;
+		}
+	}
+	
+}
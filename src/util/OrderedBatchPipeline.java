@@ -0,0 +1,103 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pipeline of three stages over a stream of items. The calling thread reads items into batches, a pool of
+ *   worker threads processes each batch, and the calling thread then hands the results to write(), in the
+ *   order the batches were read. At most BATCHES_IN_FLIGHT_PER_THREAD batches per worker are queued or in
+ *   progress, so a slow writer holds back the reader and memory use doesn't depend on the size of the input.
+ *
+ * A batch which fails to process stops the pipeline: nothing from that batch on is written, and run()
+ *   throws with the cause.
+ * @author Li Quan Khoo
+ *
+ */
+public abstract class OrderedBatchPipeline<T, R> {
+	
+	// Batches queued or in progress per worker thread
+	public static final int BATCHES_IN_FLIGHT_PER_THREAD = 2;
+	
+	private String name;
+	private int numOfThreads;
+	private int batchSize;
+	
+	/**
+	 * @param name			Prefix of the worker thread names
+	 * @param numOfThreads	Worker threads
+	 * @param batchSize		Items per batch
+	 */
+	public OrderedBatchPipeline(String name, int numOfThreads, int batchSize) {
+		this.name = name;
+		this.numOfThreads = numOfThreads;
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Reader stage. Gives the next item, or null at the end of the input. Called from the calling thread
+	 */
+	protected abstract T read();
+	
+	/**
+	 * Mapper stage. Called from the worker threads, several batches at once
+	 */
+	protected abstract R process(ArrayList<T> batch) throws Exception;
+	
+	/**
+	 * Writer stage. Called from the calling thread, one batch at a time, in input order
+	 */
+	protected abstract void write(ArrayList<T> batch, R result);
+	
+	/**
+	 * Runs the whole input through the pipeline
+	 * @throws ExecutionException		if a batch failed to process, with its exception as the cause
+	 * @throws InterruptedException		if the calling thread was interrupted while waiting for a batch
+	 */
+	public void run() throws ExecutionException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(this.numOfThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		LinkedList<ArrayList<T>> pendingBatches = new LinkedList<ArrayList<T>>();
+		LinkedList<Future<R>> pendingResults = new LinkedList<Future<R>>();
+		int maxBatchesInFlight = this.numOfThreads * BATCHES_IN_FLIGHT_PER_THREAD;
+		
+		try {
+			T item = read();
+			while(item != null) {
+				final ArrayList<T> batch = new ArrayList<T>(this.batchSize);
+				while(item != null && batch.size() < this.batchSize) {
+					batch.add(item);
+					item = read();
+				}
+				pendingBatches.add(batch);
+				pendingResults.add(executor.submit(new Callable<R>() {
+					@Override
+					public R call() throws Exception {
+						return process(batch);
+					}
+				}));
+				if(pendingResults.size() >= maxBatchesInFlight) {
+					write(pendingBatches.removeFirst(), pendingResults.removeFirst().get());
+				}
+			}
+			while(! pendingResults.isEmpty()) {
+				write(pendingBatches.removeFirst(), pendingResults.removeFirst().get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+}
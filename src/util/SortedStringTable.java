@@ -0,0 +1,217 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Immutable set of strings in a file, read through a memory mapping, so a table can be opened in
+ *   no time and takes no heap whatever its size.
+ * Strings are stored as sorted UTF-8 and found by binary search. A Bloom filter in front of them
+ *   answers most lookups of absent strings without touching the table.
+ *
+ * File layout, big-endian:
+ *   int magic, int numOfStrings, int numOfBloomHashes, int numOfBloomLongs,
+ *   long[numOfBloomLongs] Bloom filter bits,
+ *   int[numOfStrings + 1] offsets of the strings within the string data,
+ *   string data: the UTF-8 bytes of the strings in unsigned byte order, i.e. code point order
+ * @author Li Quan Khoo
+ *
+ */
+public class SortedStringTable {
+	
+	public static final int MAGIC = 0x53535432; // "SST2"
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	private static final int HEADER_SIZE = 16; // bytes
+	
+	private ByteBuffer buffer;
+	private int size;
+	private BloomFilter bloomFilter;
+	private int offsetsStart;
+	private int dataStart;
+	
+	private SortedStringTable(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if(buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a sorted string table");
+		}
+		this.size = buffer.getInt(4);
+		int numOfBloomHashes = buffer.getInt(8);
+		int numOfBloomLongs = buffer.getInt(12);
+		
+		ByteBuffer bloomBytes = buffer.duplicate();
+		bloomBytes.position(HEADER_SIZE);
+		bloomBytes.limit(HEADER_SIZE + numOfBloomLongs * 8);
+		LongBuffer bloomBits = bloomBytes.slice().asLongBuffer();
+		this.bloomFilter = new BloomFilter(bloomBits, numOfBloomHashes);
+		
+		this.offsetsStart = HEADER_SIZE + numOfBloomLongs * 8;
+		this.dataStart = this.offsetsStart + (this.size + 1) * 4;
+	}
+	
+	/**
+	 * Maps an existing table file read-only
+	 */
+	public static SortedStringTable open(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Table larger than 2GB: " + path);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new SortedStringTable(buffer);
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+	}
+	
+	public int size() {
+		return this.size;
+	}
+	
+	public boolean contains(String string) {
+		if(! this.bloomFilter.mightContain(string)) {
+			return false;
+		}
+		return indexOf(string) >= 0;
+	}
+	
+	/**
+	 * Position of the string in the table, or -(insertion point) - 1 if absent, as Arrays.binarySearch()
+	 */
+	public int indexOf(String string) {
+		byte[] key = string.getBytes(CHARSET);
+		int low = 0;
+		int high = this.size - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compareAt(middle, key);
+			if(comparison < 0) {
+				low = middle + 1;
+			} else if(comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+	
+	public String get(int index) {
+		int start = this.dataStart + this.buffer.getInt(this.offsetsStart + index * 4);
+		int end = this.dataStart + this.buffer.getInt(this.offsetsStart + (index + 1) * 4);
+		byte[] bytes = new byte[end - start];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = this.buffer.get(start + i);
+		}
+		return new String(bytes, CHARSET);
+	}
+	
+	/*
+	 * Compares the index-th string with the key, by unsigned bytes
+	 */
+	private int compareAt(int index, byte[] key) {
+		int start = this.dataStart + this.buffer.getInt(this.offsetsStart + index * 4);
+		int end = this.dataStart + this.buffer.getInt(this.offsetsStart + (index + 1) * 4);
+		int length = Math.min(end - start, key.length);
+		for(int i = 0; i < length; i++) {
+			int difference = (this.buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+			if(difference != 0) {
+				return difference;
+			}
+		}
+		return (end - start) - key.length;
+	}
+	
+	/**
+	 * Writes a table of the given strings, in any order and with repeats, to the given path
+	 * @return	number of distinct strings written
+	 */
+	public static int write(Collection<String> strings, String path) throws IOException {
+		return write(strings, path, DEFAULT_FALSE_POSITIVE_RATE);
+	}
+	
+	public static int write(Collection<String> strings, String path, double falsePositiveRate) throws IOException {
+		ArrayList<byte[]> keys = new ArrayList<byte[]>(strings.size());
+		for(String string : strings) {
+			keys.add(string.getBytes(CHARSET));
+		}
+		Collections.sort(keys, UNSIGNED_BYTES_ORDER);
+		
+		// Drop repeats and build the filter
+		int unique = 0;
+		for(int i = 0; i < keys.size(); i++) {
+			if(unique == 0 || UNSIGNED_BYTES_ORDER.compare(keys.get(i), keys.get(unique - 1)) != 0) {
+				keys.set(unique++, keys.get(i));
+			}
+		}
+		BloomFilter bloomFilter = new BloomFilter(unique, falsePositiveRate);
+		long dataLength = 0;
+		for(int i = 0; i < unique; i++) {
+			bloomFilter.add(new String(keys.get(i), CHARSET));
+			dataLength += keys.get(i).length;
+		}
+		long fileLength = HEADER_SIZE + bloomFilter.getNumOfLongs() * 8L + (unique + 1) * 4L + dataLength;
+		if(fileLength > Integer.MAX_VALUE) {
+			throw new IOException("Table would be larger than 2GB: " + fileLength + " bytes");
+		}
+		
+		File file = new File(path);
+		if(file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(unique);
+			out.writeInt(bloomFilter.getNumOfHashes());
+			out.writeInt(bloomFilter.getNumOfLongs());
+			LongBuffer bits = bloomFilter.getBits();
+			for(int i = 0; i < bloomFilter.getNumOfLongs(); i++) {
+				out.writeLong(bits.get(i));
+			}
+			int offset = 0;
+			for(int i = 0; i < unique; i++) {
+				out.writeInt(offset);
+				offset += keys.get(i).length;
+			}
+			out.writeInt(offset);
+			for(int i = 0; i < unique; i++) {
+				out.write(keys.get(i));
+			}
+		} finally {
+			out.close();
+		}
+		return unique;
+	}
+	
+	private static final Comparator<byte[]> UNSIGNED_BYTES_ORDER = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			int length = Math.min(a.length, b.length);
+			for(int i = 0; i < length; i++) {
+				int difference = (a[i] & 0xff) - (b[i] & 0xff);
+				if(difference != 0) {
+					return difference;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+	
+}
@@ -0,0 +1,100 @@
+package util;
+
+/**
+ * TinyLfuCache split into independently locked segments, so that many threads can use it at once
+ *   without queueing on a single lock. Each key always goes to the same segment, chosen by its hash,
+ *   and each segment gets an equal share of the weight and of the expected entries.
+ * Eviction is per segment, which with many entries and a well spread hash is close to eviction over
+ *   the whole cache.
+ * @author Li Quan Khoo
+ *
+ */
+public class StripedTinyLfuCache<K, V> {
+	
+	private TinyLfuCache<K, V>[] segments;
+	private int mask;
+	private long maxWeight;
+	
+	/**
+	 * @param numOfSegments		Rounded up to a power of two
+	 * @see TinyLfuCache#TinyLfuCache(long, int, TinyLfuCache.IWeigher)
+	 */
+	@SuppressWarnings("unchecked")
+	public StripedTinyLfuCache(long maxWeight, int expectedEntries, TinyLfuCache.IWeigher<K, V> weigher, int numOfSegments) {
+		int size = Integer.highestOneBit(Math.max(1, numOfSegments - 1) << 1);
+		this.segments = (TinyLfuCache<K, V>[]) new TinyLfuCache<?, ?>[size];
+		for(int i = 0; i < size; i++) {
+			this.segments[i] = new TinyLfuCache<K, V>(Math.max(1, maxWeight / size), Math.max(1, expectedEntries / size), weigher);
+		}
+		this.mask = size - 1;
+		this.maxWeight = maxWeight;
+	}
+	
+	private TinyLfuCache<K, V> segmentOf(K key) {
+		int hash = key.hashCode() * 0x9E3779B9;
+		return this.segments[(hash >>> 16) & this.mask];
+	}
+	
+	public V get(K key) {
+		return segmentOf(key).get(key);
+	}
+	
+	public void put(K key, V value) {
+		segmentOf(key).put(key, value);
+	}
+	
+	public long getMaxWeight() { return this.maxWeight; }
+	
+	public int size() {
+		int size = 0;
+		for(TinyLfuCache<K, V> segment : this.segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+	
+	public long getWeight() {
+		long weight = 0;
+		for(TinyLfuCache<K, V> segment : this.segments) {
+			weight += segment.getWeight();
+		}
+		return weight;
+	}
+	
+	public long getHits() {
+		long hits = 0;
+		for(TinyLfuCache<K, V> segment : this.segments) {
+			hits += segment.getHits();
+		}
+		return hits;
+	}
+	
+	public long getMisses() {
+		long misses = 0;
+		for(TinyLfuCache<K, V> segment : this.segments) {
+			misses += segment.getMisses();
+		}
+		return misses;
+	}
+	
+	public long getEvictions() {
+		long evictions = 0;
+		for(TinyLfuCache<K, V> segment : this.segments) {
+			evictions += segment.getEvictions();
+		}
+		return evictions;
+	}
+	
+	public double getHitRate() {
+		long hits = getHits();
+		long requests = hits + getMisses();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+	
+	public void clear() {
+		for(TinyLfuCache<K, V> segment : this.segments) {
+			segment.clear();
+		}
+	}
+	
+}
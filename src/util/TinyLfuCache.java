@@ -0,0 +1,289 @@
+package util;
+
+import java.util.HashMap;
+
+/**
+ * Bounded cache with W-TinyLFU admission and eviction (Einziger, Friedman and Manes 2015), as used by
+ *   Caffeine. Unlike an LRU cache, a burst of one-off keys can't flush out keys which are used often.
+ *
+ * New entries go to a small LRU window. Entries leaving the window are only admitted to the main
+ *   space if they have been asked for more often than the entry they would evict, by an approximate
+ *   frequency count over recent requests kept in a count-min sketch. The main space is a segmented
+ *   LRU: entries hit again while on probation move to the protected segment.
+ *
+ * Capacity is a total weight. Entries weigh 1 unless a weigher is given, e.g. to bound the cache by
+ *   the size of its string keys rather than their number. The frequency sketch is sized by the number
+ *   of entries the cache is expected to hold, which a weighted cache has to be told.
+ * All methods are synchronized.
+ * @author Li Quan Khoo
+ *
+ */
+public class TinyLfuCache<K, V> {
+	
+	public interface IWeigher<K, V> {
+		public int weigh(K key, V value);
+	}
+	
+	public static final double WINDOW_FRACTION = 0.01;
+	public static final double PROTECTED_FRACTION = 0.8; // of the main space
+	public static final int MAX_SKETCH_ENTRIES = 1 << 24;
+	
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	
+	private HashMap<K, Node<K, V>> nodes;
+	private IWeigher<K, V> weigher;
+	private FrequencySketch sketch;
+	
+	// One circular list per region, least recently used first after the sentinel
+	private Node<K, V>[] regions;
+	private long[] regionWeights;
+	private long maxWeight;
+	private long maxWindowWeight;
+	private long maxProtectedWeight;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	
+	public TinyLfuCache(long maxWeight) {
+		this(maxWeight, (int) Math.min(maxWeight, MAX_SKETCH_ENTRIES), null);
+	}
+	
+	/**
+	 * @param maxWeight			Total weight of the entries held
+	 * @param expectedEntries	Number of entries expected at maxWeight, e.g. maxWeight over the mean weight
+	 * @param weigher			Weight of an entry, or null for 1 each
+	 */
+	public TinyLfuCache(long maxWeight, int expectedEntries, IWeigher<K, V> weigher) {
+		this.nodes = new HashMap<K, Node<K, V>>();
+		this.weigher = weigher;
+		this.sketch = new FrequencySketch(Math.min(expectedEntries, MAX_SKETCH_ENTRIES));
+		@SuppressWarnings("unchecked")
+		Node<K, V>[] regions = (Node<K, V>[]) new Node<?, ?>[3];
+		this.regions = regions;
+		for(int region = 0; region < 3; region++) {
+			this.regions[region] = new Node<K, V>(null, null, 0);
+		}
+		this.regionWeights = new long[3];
+		this.maxWeight = maxWeight;
+		this.maxWindowWeight = Math.max(1, (long) (maxWeight * WINDOW_FRACTION));
+		this.maxProtectedWeight = (long) ((maxWeight - this.maxWindowWeight) * PROTECTED_FRACTION);
+	}
+	
+	public synchronized V get(K key) {
+		this.sketch.increment(key);
+		Node<K, V> node = this.nodes.get(key);
+		if(node == null) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		onHit(node);
+		return node.value;
+	}
+	
+	public synchronized void put(K key, V value) {
+		int weight = (this.weigher == null) ? 1 : this.weigher.weigh(key, value);
+		Node<K, V> node = this.nodes.get(key);
+		if(node != null) {
+			this.regionWeights[node.region] += weight - node.weight;
+			node.value = value;
+			node.weight = weight;
+			onHit(node);
+		} else {
+			if(weight > this.maxWeight) {
+				this.evictions++;
+				return;
+			}
+			node = new Node<K, V>(key, value, weight);
+			this.nodes.put(key, node);
+			append(WINDOW, node);
+		}
+		evict();
+	}
+	
+	public synchronized int size() { return this.nodes.size(); }
+	public synchronized long getWeight() { return this.regionWeights[WINDOW] + this.regionWeights[PROBATION] + this.regionWeights[PROTECTED]; }
+	public long getMaxWeight() { return this.maxWeight; }
+	public synchronized long getHits() { return this.hits; }
+	public synchronized long getMisses() { return this.misses; }
+	public synchronized long getEvictions() { return this.evictions; }
+	
+	public synchronized double getHitRate() {
+		long requests = this.hits + this.misses;
+		return requests == 0 ? 0 : (double) this.hits / requests;
+	}
+	
+	public synchronized void clear() {
+		this.nodes.clear();
+		for(int region = 0; region < 3; region++) {
+			this.regions[region].previous = this.regions[region];
+			this.regions[region].next = this.regions[region];
+			this.regionWeights[region] = 0;
+		}
+	}
+	
+	private void onHit(Node<K, V> node) {
+		if(node.region == PROBATION) {
+			unlink(node);
+			append(PROTECTED, node);
+			
+			// Demote the least recently used protected entries to make room
+			while(this.regionWeights[PROTECTED] > this.maxProtectedWeight) {
+				Node<K, V> demoted = this.regions[PROTECTED].next;
+				unlink(demoted);
+				append(PROBATION, demoted);
+			}
+		} else {
+			int region = node.region;
+			unlink(node);
+			append(region, node);
+		}
+	}
+	
+	private void evict() {
+		
+		// Entries leaving the window are candidates for the main space
+		while(this.regionWeights[WINDOW] > this.maxWindowWeight) {
+			Node<K, V> candidate = this.regions[WINDOW].next;
+			unlink(candidate);
+			append(PROBATION, candidate);
+			admitOrReject(candidate);
+		}
+		
+		// A grown entry may still leave the cache overweight
+		while(getWeight() > this.maxWeight) {
+			Node<K, V> victim = firstOf(PROBATION, PROTECTED, WINDOW);
+			remove(victim);
+		}
+	}
+	
+	/*
+	 * Evicts entries on probation in least recently used order to make room for the candidate, as long as
+	 *   each is used less often than the candidate. Otherwise evicts the candidate itself
+	 */
+	private void admitOrReject(Node<K, V> candidate) {
+		int candidateFrequency = this.sketch.frequency(candidate.key);
+		while(getWeight() > this.maxWeight) {
+			Node<K, V> victim = firstOf(PROBATION, PROTECTED, PROTECTED);
+			if(victim == candidate) {
+				// Nothing else left on probation, take from the protected segment
+				victim = this.regions[PROTECTED].next;
+				if(victim == this.regions[PROTECTED]) {
+					remove(candidate);
+					return;
+				}
+			}
+			if(candidateFrequency > this.sketch.frequency(victim.key)) {
+				remove(victim);
+			} else {
+				remove(candidate);
+				return;
+			}
+		}
+	}
+	
+	private Node<K, V> firstOf(int region1, int region2, int region3) {
+		if(this.regions[region1].next != this.regions[region1]) {
+			return this.regions[region1].next;
+		}
+		if(this.regions[region2].next != this.regions[region2]) {
+			return this.regions[region2].next;
+		}
+		return this.regions[region3].next;
+	}
+	
+	private void remove(Node<K, V> node) {
+		unlink(node);
+		this.nodes.remove(node.key);
+		this.evictions++;
+	}
+	
+	private void append(int region, Node<K, V> node) {
+		Node<K, V> sentinel = this.regions[region];
+		node.previous = sentinel.previous;
+		node.next = sentinel;
+		sentinel.previous.next = node;
+		sentinel.previous = node;
+		node.region = region;
+		this.regionWeights[region] += node.weight;
+	}
+	
+	private void unlink(Node<K, V> node) {
+		node.previous.next = node.next;
+		node.next.previous = node.previous;
+		this.regionWeights[node.region] -= node.weight;
+	}
+	
+	private static class Node<K, V> {
+		private K key;
+		private V value;
+		private int weight;
+		private int region;
+		private Node<K, V> previous;
+		private Node<K, V> next;
+		
+		public Node(K key, V value, int weight) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.previous = this;
+			this.next = this;
+		}
+	}
+	
+	/*
+	 * Count-min sketch of 4 rows of saturating counters. All counts are halved once the number of
+	 *   increments reaches 10 times the width, so the counts follow the recent popularity of keys
+	 */
+	private static class FrequencySketch {
+		private static final int DEPTH = 4;
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = {0x97cb3127, 0xb0e3d8c5, 0x6c5a3f8d, 0xe1d0ff3b};
+		
+		private byte[] counts;
+		private int mask;
+		private int increments;
+		private int sampleSize;
+		
+		public FrequencySketch(int expectedSize) {
+			int width = Integer.highestOneBit(Math.max(16, expectedSize - 1) << 1);
+			this.counts = new byte[DEPTH * width];
+			this.mask = width - 1;
+			this.increments = 0;
+			this.sampleSize = 10 * width;
+		}
+		
+		private int indexOf(Object key, int row) {
+			int hash = key.hashCode() * SEEDS[row];
+			hash ^= hash >>> 16;
+			return row * (this.mask + 1) + (hash & this.mask);
+		}
+		
+		public int frequency(Object key) {
+			int frequency = MAX_COUNT;
+			for(int row = 0; row < DEPTH; row++) {
+				frequency = Math.min(frequency, this.counts[indexOf(key, row)]);
+			}
+			return frequency;
+		}
+		
+		public void increment(Object key) {
+			for(int row = 0; row < DEPTH; row++) {
+				int index = indexOf(key, row);
+				if(this.counts[index] < MAX_COUNT) {
+					this.counts[index]++;
+				}
+			}
+			if(++this.increments >= this.sampleSize) {
+				for(int i = 0; i < this.counts.length; i++) {
+					this.counts[i] >>= 1;
+				}
+				this.increments /= 2;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,101 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint sets over the integers 0 .. size-1, with union by rank and path halving, so that any
+ *   sequence of operations runs in effectively linear time.
+ * Not thread-safe.
+ * @author Li Quan Khoo
+ *
+ */
+public class UnionFind {
+	
+	private int[] parents;
+	private byte[] ranks;
+	private int numOfSets;
+	
+	public UnionFind(int size) {
+		this.parents = new int[size];
+		this.ranks = new byte[size];
+		for(int i = 0; i < size; i++) {
+			this.parents[i] = i;
+		}
+		this.numOfSets = size;
+	}
+	
+	public int size() {
+		return this.parents.length;
+	}
+	
+	public int getNumOfSets() {
+		return this.numOfSets;
+	}
+	
+	/**
+	 * Representative of the set holding i
+	 */
+	public int find(int i) {
+		while(this.parents[i] != i) {
+			this.parents[i] = this.parents[this.parents[i]];
+			i = this.parents[i];
+		}
+		return i;
+	}
+	
+	public boolean connected(int i, int j) {
+		return find(i) == find(j);
+	}
+	
+	/**
+	 * Joins the sets holding i and j. Returns false if they were already the same set
+	 */
+	public boolean union(int i, int j) {
+		int rootI = find(i);
+		int rootJ = find(j);
+		if(rootI == rootJ) {
+			return false;
+		}
+		if(this.ranks[rootI] < this.ranks[rootJ]) {
+			this.parents[rootI] = rootJ;
+		} else if(this.ranks[rootI] > this.ranks[rootJ]) {
+			this.parents[rootJ] = rootI;
+		} else {
+			this.parents[rootJ] = rootI;
+			this.ranks[rootI]++;
+		}
+		this.numOfSets--;
+		return true;
+	}
+	
+	/**
+	 * Members of each set, in ascending order. Sets are ordered by their smallest member
+	 */
+	public int[][] sets() {
+		int size = this.parents.length;
+		int[] setOfRoot = new int[size];
+		Arrays.fill(setOfRoot, -1);
+		int[] setSizes = new int[this.numOfSets];
+		int[] setOfMember = new int[size];
+		int numOfSetsSeen = 0;
+		for(int i = 0; i < size; i++) {
+			int root = find(i);
+			if(setOfRoot[root] == -1) {
+				setOfRoot[root] = numOfSetsSeen++;
+			}
+			setOfMember[i] = setOfRoot[root];
+			setSizes[setOfMember[i]]++;
+		}
+		int[][] sets = new int[this.numOfSets][];
+		for(int s = 0; s < sets.length; s++) {
+			sets[s] = new int[setSizes[s]];
+			setSizes[s] = 0;
+		}
+		for(int i = 0; i < size; i++) {
+			int s = setOfMember[i];
+			sets[s][setSizes[s]++] = i;
+		}
+		return sets;
+	}
+	
+}
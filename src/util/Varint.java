@@ -0,0 +1,71 @@
+package util;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * LEB128-style variable length encoding of non-negative ints and longs, 7 bits per byte.
+ * Signed values go through zigzag encoding first so that small negative numbers stay short.
+ * @author Li Quan Khoo
+ *
+ */
+public class Varint {
+	
+	private Varint() {
+		// static methods only
+	}
+	
+	public static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	public static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Writes value into buffer at offset. Returns the offset just past the written bytes.
+	 * The buffer must have room for 10 bytes.
+	 */
+	public static int write(long value, byte[] buffer, int offset) {
+		while((value & ~0x7fL) != 0) {
+			buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buffer[offset++] = (byte) value;
+		return offset;
+	}
+	
+	public static long read(DataInput in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * Reads a value from buffer[position[0], limit), advancing position[0] past it.
+	 */
+	public static long read(byte[] buffer, int[] position, int limit) throws IOException {
+		long value = 0;
+		int offset = position[0];
+		for(int shift = 0; shift < 64; shift += 7) {
+			if(offset >= limit) {
+				throw new IOException("Truncated varint");
+			}
+			byte b = buffer[offset++];
+			value |= (long) (b & 0x7f) << shift;
+			if((b & 0x80) == 0) {
+				position[0] = offset;
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+}
@@ -52,6 +52,26 @@ public class BatchFileWriter {
 	
 	public void writeToFile(String string, String fileName, String encoding) {
 		
+		File file = nextFile(fileName);
+		String modifiedFileName = file.getName();
+		try {
+	        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+	        writer.write(string);
+	        writer.close();
+		} catch (FileNotFoundException e) {
+			System.out.println("ERROR: Cannot write to file " + modifiedFileName + ".");
+		} catch (IOException e) {
+			System.out.println("ERROR: IO Exception writing file " + modifiedFileName + ".");
+		}
+		
+	}
+	
+	/*
+	 * Returns the next free file for the given name, numbered the same way as writeToFile does.
+	 * Use this for writers that stream to the file themselves.
+	 */
+	public File nextFile(String fileName) {
+		
 		if(! this.numberingMap.containsKey(fileName)) {
 			this.numberingMap.put(fileName, 0);
 		}
@@ -71,16 +91,7 @@ public class BatchFileWriter {
 			}
 		}
 		this.numberingMap.put(fileName, numbering);
-		try {
-	        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-	        writer.write(string);
-	        writer.close();
-		} catch (FileNotFoundException e) {
-			System.out.println("ERROR: Cannot write to file " + modifiedFileName + ".");
-		} catch (IOException e) {
-			System.out.println("ERROR: IO Exception writing file " + modifiedFileName + ".");
-		}
-		
+		return file;
 	}
 	
 	/*
@@ -0,0 +1,22 @@
+package writer;
+
+/**
+ * Destination of QueryMapper output: the entity search strings found in each session, from which the
+ *   queryMap records the sessions of every search string and its co-occurrence counts with the others.
+ * Sessions are added from one thread at a time.
+ * @author Li Quan Khoo
+ */
+public interface ISearchMapSink {
+	
+	/**
+	 * @param sessionId			Id of the session, as numbered by the preprocessor
+	 * @param searchStrings		Distinct entity search strings found in the session
+	 */
+	public void addSession(int sessionId, String[] searchStrings);
+	
+	/**
+	 * Writes out anything held back. No sessions may be added afterwards
+	 */
+	public void close();
+	
+}
@@ -0,0 +1,155 @@
+package writer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import model.LogObject;
+import reader.ILogReader;
+import reader.LogCacheReader;
+
+/**
+ * One-time conversion of the AOL query logs into the columnar binary cache read by reader.LogCacheReader.
+ * See LogCacheReader for the layout. Queries and click URLs are dictionary-encoded, so every row takes
+ *   a fixed 24 bytes and each distinct string is stored once.
+ *
+ * The dictionaries are built in memory during conversion. The header is written last, so an
+ *   interrupted conversion never leaves behind a cache that LogCacheReader would accept.
+ * @author Li Quan Khoo
+ *
+ */
+public class LogCacheWriter {
+	
+	public static final String DEFAULT_OUTPUT_DIR = "output/logcache-out/";
+	
+	private String outputDir;
+	
+	private HashMap<String, Integer> queryIds;
+	private ArrayList<String> queries;
+	private HashMap<String, Integer> urlIds;
+	private ArrayList<String> urls;
+	
+	public LogCacheWriter() {
+		this(DEFAULT_OUTPUT_DIR);
+	}
+	
+	public LogCacheWriter(String outputDir) {
+		this.outputDir = outputDir;
+	}
+	
+	/**
+	 * Drains the given reader into the cache, replacing any cache already in the output directory.
+	 * Returns the number of rows written.
+	 */
+	public long write(ILogReader logReader) throws IOException {
+		
+		File dir = new File(this.outputDir);
+		dir.mkdirs();
+		new File(dir, LogCacheReader.HEADER_FILE_NAME).delete();
+		
+		this.queryIds = new HashMap<String, Integer>();
+		this.queries = new ArrayList<String>();
+		this.urlIds = new HashMap<String, Integer>();
+		this.urls = new ArrayList<String>();
+		
+		DataOutputStream anonIdOut = open(new File(dir, LogCacheReader.ANON_ID_FILE_NAME));
+		DataOutputStream timeOut = open(new File(dir, LogCacheReader.TIME_FILE_NAME));
+		DataOutputStream queryOut = open(new File(dir, LogCacheReader.QUERY_FILE_NAME));
+		DataOutputStream rankOut = open(new File(dir, LogCacheReader.RANK_FILE_NAME));
+		DataOutputStream urlOut = open(new File(dir, LogCacheReader.URL_FILE_NAME));
+		
+		long rowCount = 0;
+		try {
+			LogObject obj = logReader.readNextLine();
+			while(obj != null) {
+				if(rowCount == Integer.MAX_VALUE) {
+					throw new IOException("LogCacheWriter: Too many rows for a single cache");
+				}
+				anonIdOut.writeInt(obj.getAnonId());
+				timeOut.writeLong(obj.getQueryTimeMillis());
+				queryOut.writeInt(intern(obj.getQuery(), this.queryIds, this.queries));
+				rankOut.writeInt(obj.getItemRank());
+				urlOut.writeInt(obj.getClickUrl().equals("") ? -1 : intern(obj.getClickUrl(), this.urlIds, this.urls));
+				rowCount++;
+				obj = logReader.readNextLine();
+			}
+		} finally {
+			anonIdOut.close();
+			timeOut.close();
+			queryOut.close();
+			rankOut.close();
+			urlOut.close();
+		}
+		
+		writeStringTable(new File(dir, LogCacheReader.QUERY_DICT_FILE_NAME), this.queries);
+		writeStringTable(new File(dir, LogCacheReader.URL_DICT_FILE_NAME), this.urls);
+		
+		DataOutputStream header = open(new File(dir, LogCacheReader.HEADER_FILE_NAME));
+		try {
+			header.writeInt(LogCacheReader.MAGIC);
+			header.writeInt(LogCacheReader.VERSION);
+			header.writeLong(rowCount);
+			header.writeInt(this.queries.size());
+			header.writeInt(this.urls.size());
+		} finally {
+			header.close();
+		}
+		
+		System.out.println("LogCacheWriter: " + rowCount + " rows, " + this.queries.size() + " distinct queries, "
+				+ this.urls.size() + " distinct URLs written to " + this.outputDir);
+		
+		// Dictionaries are only needed during conversion
+		this.queryIds = null;
+		this.queries = null;
+		this.urlIds = null;
+		this.urls = null;
+		return rowCount;
+	}
+	
+	private static DataOutputStream open(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+	
+	private static int intern(String string, HashMap<String, Integer> ids, ArrayList<String> strings) {
+		Integer id = ids.get(string);
+		if(id == null) {
+			id = strings.size();
+			ids.put(string, id);
+			strings.add(string);
+		}
+		return id;
+	}
+	
+	private static void writeStringTable(File file, ArrayList<String> strings) throws IOException {
+		byte[][] encoded = new byte[strings.size()][];
+		long totalLength = 0;
+		for(int i = 0; i < encoded.length; i++) {
+			encoded[i] = strings.get(i).getBytes(LogCacheReader.CHARSET);
+			totalLength += encoded[i].length;
+		}
+		if(totalLength + 4L * (encoded.length + 2) > Integer.MAX_VALUE) {
+			throw new IOException("LogCacheWriter: String table too large for " + file.getName());
+		}
+		
+		DataOutputStream out = open(file);
+		try {
+			out.writeInt(encoded.length);
+			int offset = 0;
+			out.writeInt(offset);
+			for(byte[] bytes : encoded) {
+				offset += bytes.length;
+				out.writeInt(offset);
+			}
+			for(byte[] bytes : encoded) {
+				out.write(bytes);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+}
@@ -0,0 +1,226 @@
+package writer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ * Background thread writing the buffers of a Mongo bulk writer, as used by MongoEntityBulkWriter and
+ *   MongoSearchMapBulkWriter. send() issues the updates of a buffer through upsert(), unacknowledged and
+ *   back to back on one connection.
+ * Errors are counted per update. An update the driver rejects, e.g. an oversized document, is counted
+ *   and the rest of the buffer is still sent. Failures on the server are asked for with getPreviousError()
+ *   after every ERROR_CHECK_INTERVAL updates and at the end of the buffer, which reports the last failure
+ *   since the previous check. Several server failures within one interval count once, but none goes
+ *   unnoticed.
+ *
+ * At most MAX_PENDING_BUFFERS buffers wait for the flusher. Beyond that enqueue() blocks, so a fast
+ *   producer can't outrun the database by more than a few buffers. If maxIdleMillis is given, onIdle()
+ *   is asked for a buffer whenever none has come in for that long, e.g. to write out an aged buffer.
+ * @author Li Quan Khoo
+ *
+ */
+abstract class MongoBulkFlusher<B> {
+	
+	public static final int MAX_PENDING_BUFFERS = 2;
+	public static final int ERROR_CHECK_INTERVAL = 100; // updates
+	
+	private DB db;
+	private String name;
+	private long maxIdleMillis; // 0 to wait for buffers indefinitely
+	private BlockingQueue<Batch<B>> pendingBatches;
+	private Thread thread;
+	
+	private volatile long errorCount = 0;
+	private int uncheckedUpdates = 0; // since the last error check, on the flusher thread
+	
+	public MongoBulkFlusher(DB db, String name, long maxIdleMillis) {
+		this.db = db;
+		this.name = name;
+		this.maxIdleMillis = maxIdleMillis;
+		this.pendingBatches = new ArrayBlockingQueue<Batch<B>>(MAX_PENDING_BUFFERS);
+		
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, name + "-flusher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Sends the updates of the buffer with upsert(), without waiting for acknowledgement. Runs on the
+	 *   flusher thread
+	 */
+	protected abstract void send(B buffer);
+	
+	/**
+	 * Upserts one document, unacknowledged. Only to be called from send()
+	 */
+	protected void upsert(DBCollection collection, DBObject query, DBObject update) {
+		try {
+			collection.update(query, update, true, false, WriteConcern.NORMAL);
+		} catch (RuntimeException e) {
+			this.errorCount++;
+			System.out.println(this.name + ": Error writing update: " + e.getMessage());
+		}
+		this.uncheckedUpdates++;
+		if(this.uncheckedUpdates >= ERROR_CHECK_INTERVAL) {
+			checkErrors();
+		}
+	}
+	
+	/**
+	 * Called on the flusher thread after a buffer has been written, successfully or not
+	 */
+	protected abstract void onWritten(B buffer);
+	
+	/**
+	 * A buffer to write when none has been enqueued for maxIdleMillis, or null
+	 */
+	protected B onIdle() {
+		return null;
+	}
+	
+	/**
+	 * Hands a buffer to the flusher. Blocks while MAX_PENDING_BUFFERS buffers are waiting
+	 * @return	false if interrupted, in which case the buffer isn't written
+	 */
+	public boolean enqueue(B buffer) {
+		return enqueue(new Batch<B>(buffer, null));
+	}
+	
+	/**
+	 * Hands a buffer to the flusher, and waits until it and everything before it has been written
+	 */
+	public void enqueueAndWait(B buffer) {
+		CountDownLatch written = new CountDownLatch(1);
+		if(enqueue(new Batch<B>(buffer, written))) {
+			try {
+				written.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Writes everything enqueued and stops the flusher
+	 */
+	public void close() {
+		enqueue(new Batch<B>(null, null));
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Updates which failed to write, counting several server failures within one ERROR_CHECK_INTERVAL once
+	 */
+	public long getErrorCount() {
+		return this.errorCount;
+	}
+	
+	private boolean enqueue(Batch<B> batch) {
+		try {
+			this.pendingBatches.put(batch);
+			return true;
+		} catch (InterruptedException e) {
+			System.out.println(this.name + ": Interrupted, buffer not written");
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	private void flushLoop() {
+		while(true) {
+			Batch<B> batch;
+			try {
+				if(this.maxIdleMillis > 0) {
+					batch = this.pendingBatches.poll(this.maxIdleMillis, TimeUnit.MILLISECONDS);
+				} else {
+					batch = this.pendingBatches.take();
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(batch == null) {
+				B buffer = onIdle();
+				if(buffer == null) {
+					continue;
+				}
+				batch = new Batch<B>(buffer, null);
+			}
+			if(batch.buffer == null) {
+				return; // closed
+			}
+			write(batch.buffer);
+			if(batch.written != null) {
+				batch.written.countDown();
+			}
+		}
+	}
+	
+	private void write(B buffer) {
+		this.db.requestStart();
+		try {
+			this.db.resetError();
+			this.uncheckedUpdates = 0;
+			send(buffer);
+			checkErrors();
+		} catch (RuntimeException e) {
+			this.errorCount++;
+			System.out.println(this.name + ": Error writing buffer: " + e.getMessage());
+		} finally {
+			this.db.requestDone();
+		}
+		onWritten(buffer);
+	}
+	
+	/*
+	 * Waits for the updates sent since the last check, and counts a failure among them. Runs on the
+	 *   flusher thread, within the request of write()
+	 */
+	private void checkErrors() {
+		this.uncheckedUpdates = 0;
+		try {
+			// getpreverror reports the failure in "err", not in the "errmsg" of getErrorMessage()
+			CommandResult result = this.db.getPreviousError();
+			Object error = result.ok() ? result.get("err") : result.getErrorMessage();
+			if(error != null) {
+				this.errorCount++;
+				System.out.println(this.name + ": Error writing update: " + error);
+				this.db.resetError();
+			}
+		} catch (RuntimeException e) {
+			this.errorCount++;
+			System.out.println(this.name + ": Error checking updates: " + e.getMessage());
+		}
+	}
+	
+	/*
+	 * A buffer on its way to the flusher. written, if given, is counted down once it's been written.
+	 *   A batch without a buffer stops the flusher
+	 */
+	private static class Batch<B> {
+		private B buffer;
+		private CountDownLatch written;
+		
+		public Batch(B buffer, CountDownLatch written) {
+			this.buffer = buffer;
+			this.written = written;
+		}
+	}
+	
+}
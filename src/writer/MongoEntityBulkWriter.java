@@ -0,0 +1,218 @@
+package writer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+
+/**
+ * Bulk mode of MongoWriter.addOrUpdateEntity(). YAGO facts are grouped by entity in memory, and each
+ *   entity is written with a single upsert carrying all of its buffered relations, instead of two
+ *   round trips per fact.
+ *
+ * A buffer is handed to a MongoBulkFlusher once it holds maxBufferedFacts facts, or once it is older
+ *   than maxBufferAgeMillis. The flusher sends the upserts of a buffer unacknowledged, back to back on
+ *   one connection, and checks for failed upserts every MongoBulkFlusher.ERROR_CHECK_INTERVAL. At most
+ *   MAX_PENDING_BUFFERS buffers wait for the flusher. Beyond that add() blocks, so a fast reader can't
+ *   outrun the database by more than a few buffers.
+ * @author Li Quan Khoo
+ *
+ */
+public class MongoEntityBulkWriter {
+	
+	public static final int DEFAULT_MAX_BUFFERED_FACTS = 100000;
+	public static final long DEFAULT_MAX_BUFFER_AGE_MILLIS = 5000;
+	public static final int MAX_PENDING_BUFFERS = MongoBulkFlusher.MAX_PENDING_BUFFERS;
+	public static final long REPORT_INTERVAL_MILLIS = 30000;
+	
+	private DBCollection entities;
+	private int maxBufferedFacts;
+	private long maxBufferAgeMillis;
+	
+	private HashMap<String, BufferedEntity> buffer;
+	private int bufferedFacts;
+	private long bufferStartTime;
+	private MongoBulkFlusher<HashMap<String, BufferedEntity>> flusher;
+	
+	// Throughput, as written by the flusher
+	private volatile long factCount = 0;
+	private volatile long entityUpdateCount = 0;
+	private long startTime;
+	private long lastReportTime;
+	private long lastReportFactCount;
+	
+	public MongoEntityBulkWriter(DB db, DBCollection entities, int maxBufferedFacts, long maxBufferAgeMillis) {
+		this.entities = entities;
+		this.maxBufferedFacts = maxBufferedFacts;
+		this.maxBufferAgeMillis = maxBufferAgeMillis;
+		this.buffer = new HashMap<String, BufferedEntity>();
+		this.bufferedFacts = 0;
+		this.bufferStartTime = System.currentTimeMillis();
+		this.startTime = System.currentTimeMillis();
+		this.lastReportTime = this.startTime;
+		this.lastReportFactCount = 0;
+		
+		this.flusher = new MongoBulkFlusher<HashMap<String, BufferedEntity>>(db, "MongoEntityBulkWriter", maxBufferAgeMillis) {
+			@Override
+			protected void send(HashMap<String, BufferedEntity> buffer) {
+				for(BufferedEntity entity : buffer.values()) {
+					upsert(entities, new BasicDBObject("name", entity.name), entity.toUpdate());
+				}
+			}
+			
+			@Override
+			protected void onWritten(HashMap<String, BufferedEntity> buffer) {
+				written(buffer);
+			}
+			
+			// Nothing full came in time. Take the current buffer if it has aged out
+			@Override
+			protected HashMap<String, BufferedEntity> onIdle() {
+				synchronized(MongoEntityBulkWriter.this) {
+					if(bufferedFacts > 0 && System.currentTimeMillis() - bufferStartTime >= MongoEntityBulkWriter.this.maxBufferAgeMillis) {
+						return swapBuffer();
+					}
+				}
+				return null;
+			}
+		};
+	}
+	
+	/**
+	 * Buffers a fact. Blocks while the flusher is MAX_PENDING_BUFFERS buffers behind
+	 */
+	public void add(String name, String relationKey, String relationValue) {
+		HashMap<String, BufferedEntity> fullBuffer = null;
+		synchronized(this) {
+			BufferedEntity entity = this.buffer.get(name);
+			if(entity == null) {
+				entity = new BufferedEntity(name);
+				this.buffer.put(name, entity);
+			}
+			if(entity.add(relationKey, relationValue)) {
+				this.bufferedFacts++;
+			}
+			if(this.bufferedFacts >= this.maxBufferedFacts) {
+				fullBuffer = swapBuffer();
+			}
+		}
+		if(fullBuffer != null) {
+			this.flusher.enqueue(fullBuffer);
+		}
+	}
+	
+	/**
+	 * Hands the current buffer to the flusher, and waits until everything buffered so far is written
+	 */
+	public void flush() {
+		HashMap<String, BufferedEntity> currentBuffer;
+		synchronized(this) {
+			currentBuffer = swapBuffer();
+		}
+		this.flusher.enqueueAndWait(currentBuffer);
+	}
+	
+	/**
+	 * Writes everything buffered and stops the flusher
+	 */
+	public void close() {
+		flush();
+		this.flusher.close();
+		printStats();
+	}
+	
+	private HashMap<String, BufferedEntity> swapBuffer() {
+		HashMap<String, BufferedEntity> fullBuffer = this.buffer;
+		this.buffer = new HashMap<String, BufferedEntity>();
+		this.bufferedFacts = 0;
+		this.bufferStartTime = System.currentTimeMillis();
+		return fullBuffer;
+	}
+	
+	/*
+	 * Counts a buffer the flusher has written, and reports throughput now and then
+	 */
+	private void written(HashMap<String, BufferedEntity> buffer) {
+		long facts = 0;
+		for(BufferedEntity entity : buffer.values()) {
+			facts += entity.numOfFacts;
+		}
+		this.factCount += facts;
+		this.entityUpdateCount += buffer.size();
+		
+		long now = System.currentTimeMillis();
+		if(now - this.lastReportTime >= REPORT_INTERVAL_MILLIS) {
+			double seconds = (now - this.lastReportTime) / 1000.0;
+			System.out.println("MongoWriter: " + this.factCount / 1000 + "k facts in " + this.entityUpdateCount / 1000 + "k entity upserts, "
+					+ Math.round((this.factCount - this.lastReportFactCount) / seconds) + " facts/s");
+			this.lastReportTime = now;
+			this.lastReportFactCount = this.factCount;
+		}
+	}
+	
+	public long getFactCount() { return this.factCount; }
+	public long getEntityUpdateCount() { return this.entityUpdateCount; }
+	public long getErrorCount() { return this.flusher.getErrorCount(); }
+	
+	/**
+	 * Facts written per second since the writer was started
+	 */
+	public double getThroughput() {
+		long millis = Math.max(1, System.currentTimeMillis() - this.startTime);
+		return this.factCount * 1000.0 / millis;
+	}
+	
+	public void printStats() {
+		System.out.println("MongoWriter: " + this.factCount + " facts in " + this.entityUpdateCount + " entity upserts, "
+				+ Math.round(getThroughput()) + " facts/s overall, " + getErrorCount() + " failed upserts");
+	}
+	
+	/*
+	 * The buffered facts of one entity, as relation key -> values
+	 */
+	private static class BufferedEntity {
+		private String name;
+		private HashMap<String, LinkedHashSet<String>> relations;
+		private int numOfFacts;
+		
+		public BufferedEntity(String name) {
+			this.name = name;
+			this.relations = new HashMap<String, LinkedHashSet<String>>(4);
+			this.numOfFacts = 0;
+		}
+		
+		public boolean add(String relationKey, String relationValue) {
+			LinkedHashSet<String> values = this.relations.get(relationKey);
+			if(values == null) {
+				values = new LinkedHashSet<String>();
+				this.relations.put(relationKey, values);
+			}
+			if(values.add(relationValue)) {
+				this.numOfFacts++;
+				return true;
+			}
+			return false;
+		}
+		
+		/*
+		 * One upsert creating the entity if needed and adding all of the buffered relation values.
+		 *   "relations" isn't set on insert, as that would conflict with the $addToSet paths below it
+		 */
+		public BasicDBObject toUpdate() {
+			BasicDBObject setFields = MongoWriter.getEntityFields(this.name);
+			BasicDBObject addFields = new BasicDBObject();
+			for(Map.Entry<String, LinkedHashSet<String>> relation : this.relations.entrySet()) {
+				BasicDBList values = new BasicDBList();
+				values.addAll(new ArrayList<String>(relation.getValue()));
+				addFields.put("relations." + relation.getKey(), new BasicDBObject("$each", values));
+			}
+			return new BasicDBObject("$setOnInsert", setFields).append("$addToSet", addFields);
+		}
+	}
+	
+}
@@ -0,0 +1,184 @@
+package writer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+
+/**
+ * Bulk counterpart of MongoWriter.addOrUpdateSearchMap(). Sessions are coalesced in memory per search
+ *   string, so a search string found in many sessions of a buffer is written with one upsert adding all
+ *   of those sessions and the summed co-occurrence counts, instead of one upsert per session.
+ *
+ * A buffer is handed to a MongoBulkFlusher once it holds maxBufferedSessions sessions. As for
+ *   MongoEntityBulkWriter, the flusher sends a buffer's upserts unacknowledged on one connection and
+ *   checks for failed upserts every MongoBulkFlusher.ERROR_CHECK_INTERVAL. At most MAX_PENDING_BUFFERS
+ *   buffers wait for the flusher. Beyond that addSession() blocks, which holds back the stages feeding it.
+ * @author Li Quan Khoo
+ *
+ */
+public class MongoSearchMapBulkWriter implements ISearchMapSink {
+	
+	public static final int DEFAULT_MAX_BUFFERED_SESSIONS = 50000;
+	public static final int MAX_PENDING_BUFFERS = MongoBulkFlusher.MAX_PENDING_BUFFERS;
+	
+	private DBCollection queryMap;
+	private int maxBufferedSessions;
+	
+	private HashMap<String, BufferedSearchString> buffer;
+	private int bufferedSessions;
+	private MongoBulkFlusher<HashMap<String, BufferedSearchString>> flusher;
+	
+	private long sessionCount = 0;
+	private volatile long updateCount = 0;
+	private long startTime;
+	
+	public MongoSearchMapBulkWriter(DB db, DBCollection queryMap, int maxBufferedSessions) {
+		this.queryMap = queryMap;
+		this.maxBufferedSessions = maxBufferedSessions;
+		this.buffer = new HashMap<String, BufferedSearchString>();
+		this.bufferedSessions = 0;
+		this.startTime = System.currentTimeMillis();
+		
+		this.flusher = new MongoBulkFlusher<HashMap<String, BufferedSearchString>>(db, "MongoSearchMapBulkWriter", 0) {
+			@Override
+			protected void send(HashMap<String, BufferedSearchString> buffer) {
+				for(BufferedSearchString searchString : buffer.values()) {
+					upsert(queryMap, new BasicDBObject("searchString", searchString.searchString), searchString.toUpdate());
+				}
+			}
+			
+			@Override
+			protected void onWritten(HashMap<String, BufferedSearchString> buffer) {
+				updateCount += buffer.size();
+			}
+		};
+	}
+	
+	@Override
+	public void addSession(int sessionId, String[] searchStrings) {
+		for(String searchString : searchStrings) {
+			BufferedSearchString buffered = this.buffer.get(searchString);
+			if(buffered == null) {
+				buffered = new BufferedSearchString(searchString);
+				this.buffer.put(searchString, buffered);
+			}
+			buffered.add(sessionId, searchStrings);
+		}
+		this.sessionCount++;
+		if(++this.bufferedSessions >= this.maxBufferedSessions) {
+			this.flusher.enqueue(swapBuffer());
+		}
+	}
+	
+	/**
+	 * Buffers a search string's sessions and co-occurrence counts as aggregated elsewhere, e.g. by
+	 *   CooccurrenceAggregator. Only the first numOfSessions and numOfCooccurring elements are used.
+	 *   Counts towards maxBufferedSessions by its number of sessions
+	 */
+	public void addSearchString(String searchString, int[] sessionIds, int numOfSessions, String[] cooccurring, int[] counts, int numOfCooccurring) {
+		BufferedSearchString buffered = this.buffer.get(searchString);
+		if(buffered == null) {
+			buffered = new BufferedSearchString(searchString);
+			this.buffer.put(searchString, buffered);
+		}
+		buffered.addAll(sessionIds, numOfSessions, cooccurring, counts, numOfCooccurring);
+		this.bufferedSessions += Math.max(1, numOfSessions);
+		if(this.bufferedSessions >= this.maxBufferedSessions) {
+			this.flusher.enqueue(swapBuffer());
+		}
+	}
+	
+	/**
+	 * Writes everything buffered and stops the flusher
+	 */
+	@Override
+	public void close() {
+		if(! this.buffer.isEmpty()) {
+			this.flusher.enqueue(swapBuffer());
+		}
+		this.flusher.close();
+		printStats();
+	}
+	
+	private HashMap<String, BufferedSearchString> swapBuffer() {
+		HashMap<String, BufferedSearchString> fullBuffer = this.buffer;
+		this.buffer = new HashMap<String, BufferedSearchString>();
+		this.bufferedSessions = 0;
+		return fullBuffer;
+	}
+	
+	public long getSessionCount() { return this.sessionCount; }
+	public long getUpdateCount() { return this.updateCount; }
+	public long getErrorCount() { return this.flusher.getErrorCount(); }
+	
+	public void printStats() {
+		double seconds = Math.max(1, System.currentTimeMillis() - this.startTime) / 1000.0;
+		System.out.println("MongoSearchMapBulkWriter: " + this.sessionCount + " sessions in " + this.updateCount + " search string upserts, "
+				+ Math.round(this.sessionCount / seconds) + " sessions/s overall, " + getErrorCount() + " failed upserts");
+	}
+	
+	/*
+	 * The buffered sessions of one search string, and its summed co-occurrence counts
+	 */
+	private static class BufferedSearchString {
+		private String searchString;
+		private BasicDBList sessions;
+		private HashMap<String, int[]> cooccurrences;
+		
+		public BufferedSearchString(String searchString) {
+			this.searchString = searchString;
+			this.sessions = new BasicDBList();
+			this.cooccurrences = new HashMap<String, int[]>();
+		}
+		
+		public void add(int sessionId, String[] searchStrings) {
+			this.sessions.add(sessionId);
+			for(String other : searchStrings) {
+				if(! other.equals(this.searchString)) {
+					int[] count = this.cooccurrences.get(other);
+					if(count == null) {
+						count = new int[1];
+						this.cooccurrences.put(other, count);
+					}
+					count[0]++;
+				}
+			}
+		}
+		
+		public void addAll(int[] sessionIds, int numOfSessions, String[] others, int[] counts, int numOfOthers) {
+			for(int i = 0; i < numOfSessions; i++) {
+				this.sessions.add(sessionIds[i]);
+			}
+			for(int i = 0; i < numOfOthers; i++) {
+				int[] count = this.cooccurrences.get(others[i]);
+				if(count == null) {
+					count = new int[1];
+					this.cooccurrences.put(others[i], count);
+				}
+				count[0] += counts[i];
+			}
+		}
+		
+		/*
+		 * Same effect as one MongoWriter.addOrUpdateSearchMap() call per buffered session
+		 */
+		public BasicDBObject toUpdate() {
+			BasicDBObject updateOperator = new BasicDBObject("$addToSet",
+					new BasicDBObject("sessions", new BasicDBObject("$each", this.sessions)));
+			if(! this.cooccurrences.isEmpty()) {
+				BasicDBObject incFields = new BasicDBObject();
+				for(Map.Entry<String, int[]> cooccurrence : this.cooccurrences.entrySet()) {
+					String field = "cooccurrences." + MongoWriter.escapeKey(cooccurrence.getKey());
+					incFields.put(field, incFields.getInt(field, 0) + cooccurrence.getValue()[0]); // keys may escape alike
+				}
+				updateOperator.put("$inc", incFields);
+			}
+			return updateOperator;
+		}
+	}
+	
+}
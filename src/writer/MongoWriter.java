@@ -3,8 +3,7 @@ package writer;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 
 import com.mongodb.BasicDBList;
 import com.mongodb.DBCursor;
@@ -14,6 +13,9 @@ import com.mongodb.DBCollection;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 
+import model.Entity;
+import util.BloomFilter;
+
 /**
  * Class handling connections to a MongoDB instance for YAGO reader output
  * 
@@ -25,6 +27,8 @@ public class MongoWriter {
 	private DB db;
 	private DBCollection entities;
 	private DBCollection classes;
+	private DBCollection queryMap;
+	private MongoEntityBulkWriter bulkWriter = null;
 	
 	private long updateCount = 0;
 	private long prevTime = System.currentTimeMillis();
@@ -38,8 +42,10 @@ public class MongoWriter {
 			
 			this.entities = db.getCollection("entities");
 			this.classes = db.getCollection("classes");
+			this.queryMap = db.getCollection("queryMap");
 			
 			this.entities.ensureIndex(new BasicDBObject("name", 1).append("cleanName", 1).append("searchString", 1));
+			this.entities.ensureIndex(new BasicDBObject("searchString", 1));
 			
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
@@ -48,9 +54,54 @@ public class MongoWriter {
 	}
 	
 	public void close() {
+		stopBulkMode();
 		mongoClient.close();
 	}
 	
+	/**
+	 * From here on, addOrUpdateEntity() buffers facts and writes them in bulk, see MongoEntityBulkWriter.
+	 *   Facts may reach the database some time after the call. flush(), stopBulkMode() and close()
+	 *   wait until they have
+	 */
+	public void startBulkMode() {
+		startBulkMode(MongoEntityBulkWriter.DEFAULT_MAX_BUFFERED_FACTS, MongoEntityBulkWriter.DEFAULT_MAX_BUFFER_AGE_MILLIS);
+	}
+	
+	public void startBulkMode(int maxBufferedFacts, long maxBufferAgeMillis) {
+		if(this.bulkWriter == null) {
+			this.bulkWriter = new MongoEntityBulkWriter(this.db, this.entities, maxBufferedFacts, maxBufferAgeMillis);
+		}
+	}
+	
+	public void stopBulkMode() {
+		if(this.bulkWriter != null) {
+			this.bulkWriter.close();
+			this.bulkWriter = null;
+		}
+	}
+	
+	public void flush() {
+		if(this.bulkWriter != null) {
+			this.bulkWriter.flush();
+		}
+	}
+	
+	public MongoEntityBulkWriter getBulkWriter() {
+		return this.bulkWriter;
+	}
+	
+	/**
+	 * Sink for QueryMapper which writes the queryMap in bulk, see MongoSearchMapBulkWriter. Close it
+	 *   before closing this writer
+	 */
+	public MongoSearchMapBulkWriter createSearchMapBulkWriter() {
+		return createSearchMapBulkWriter(MongoSearchMapBulkWriter.DEFAULT_MAX_BUFFERED_SESSIONS);
+	}
+	
+	public MongoSearchMapBulkWriter createSearchMapBulkWriter(int maxBufferedSessions) {
+		return new MongoSearchMapBulkWriter(this.db, this.queryMap, maxBufferedSessions);
+	}
+	
 	/**
 	 * Searches for the given name within the entity Mongo collection. If it doesn't exist then create it.
 	 * If it exists then perform a mixin for its key value pairs
@@ -59,29 +110,17 @@ public class MongoWriter {
 	 * @param relationValue		Value of the relation -- what's this entity related to via the given relation. Give the raw value that YAGO gives
 	 */
 	public void addOrUpdateEntity(String name, String relationKey, String relationValue) {
-				
-		Pattern qualifiedNamePattern = Pattern.compile("((.*)\\((.*)\\))");
-		Matcher qualifiedNameMatcher;
 		
-		String cleanName = name.replace("_", " ").replace("<", "").replace(">", "");
-		String searchString = cleanName.toLowerCase();
-		String disambig = "";
-		
-		qualifiedNameMatcher = qualifiedNamePattern.matcher(cleanName);
-		if(qualifiedNameMatcher.find()) {
-			cleanName = qualifiedNameMatcher.group(2);
-			disambig = qualifiedNameMatcher.group(3);
+		if(this.bulkWriter != null) {
+			this.bulkWriter.add(name, relationKey, relationValue);
+			return;
 		}
 		
 		BasicDBObject selector = new BasicDBObject("name", name);
 		BasicDBObject insertionOperator = new BasicDBObject();
 		BasicDBObject addOperator = new BasicDBObject();
-		BasicDBObject setFields = new BasicDBObject();
+		BasicDBObject setFields = getEntityFields(name);
 		BasicDBObject addFields = new BasicDBObject();
-		setFields.put("name", name);
-		setFields.put("cleanName", cleanName);
-		setFields.put("searchString", searchString);
-		setFields.put("disambig", disambig);
 		setFields.put("relations", new BasicDBObject());
 		
 		addFields.put("relations." + relationKey, relationValue);
@@ -101,6 +140,61 @@ public class MongoWriter {
 		
 	}
 	
+	/*
+	 * The fields of a new entity document derived from its raw YAGO name, all but its relations
+	 */
+	static BasicDBObject getEntityFields(String name) {
+		Entity entity = new Entity(name);
+		BasicDBObject fields = new BasicDBObject();
+		fields.put("name", name);
+		fields.put("cleanName", entity.getCleanName());
+		fields.put("searchString", entity.getSearchString());
+		fields.put("disambig", entity.getDisambig());
+		return fields;
+	}
+	
+	/**
+	 * The searchString an entity is stored and looked up under, from its raw YAGO name,
+	 *   e.g. <Paris_(band)> -> "paris (band)"
+	 */
+	public static String toSearchString(String name) {
+		return Entity.toSearchString(name);
+	}
+	
+	/**
+	 * Records that searchString occurred in the given session, along with every other search string
+	 *   it co-occurred with in that session. Used by QueryMapper to build the queryMap collection.
+	 * @param searchString		Entity search string found in the session
+	 * @param searchStrings		All entity search strings found in the session, including searchString itself
+	 * @param sessionId			Id of the session, as numbered by the preprocessor
+	 */
+	public void addOrUpdateSearchMap(String searchString, String[] searchStrings, int sessionId) {
+		
+		BasicDBObject selector = new BasicDBObject("searchString", searchString);
+		BasicDBObject incFields = new BasicDBObject();
+		for(String other : searchStrings) {
+			if(! other.equals(searchString)) {
+				incFields.put("cooccurrences." + escapeKey(other), 1);
+			}
+		}
+		BasicDBObject updateOperator = new BasicDBObject("$addToSet", new BasicDBObject("sessions", sessionId));
+		if(! incFields.isEmpty()) {
+			updateOperator.put("$inc", incFields);
+		}
+		this.queryMap.update(selector, updateOperator, true, false);
+	}
+	
+	/*
+	 * Mongo field names may not contain '.' or start with '$'. Replace them with their full-width forms
+	 */
+	static String escapeKey(String key) {
+		key = key.replace('.', '\uff0e');
+		if(key.startsWith("$")) {
+			key = '\uff04' + key.substring(1);
+		}
+		return key;
+	}
+	
 	public DBCollection getEntities() {
 		return this.entities;
 	}
@@ -109,6 +203,14 @@ public class MongoWriter {
 		return this.classes;
 	}
 	
+	public DBCollection getQueryMap() {
+		return this.queryMap;
+	}
+	
+	public DBObject getOneEntity(DBObject query) {
+		return this.entities.findOne(query);
+	}
+	
 	public ArrayList<DBObject> getEntity(String cleanName) {
 		ArrayList<DBObject> items = new ArrayList<DBObject>();
 		DBCursor cursor = this.entities.find(new BasicDBObject("cleanName", cleanName));
@@ -122,6 +224,47 @@ public class MongoWriter {
 		return items;
 	}
 	
+	/*
+	 * All entities whose searchString is one of the given strings, in one round trip
+	 */
+	public ArrayList<DBObject> getEntitiesBySearchStrings(List<String> searchStrings) {
+		ArrayList<DBObject> items = new ArrayList<DBObject>();
+		BasicDBList values = new BasicDBList();
+		values.addAll(searchStrings);
+		DBCursor cursor = this.entities.find(new BasicDBObject("searchString", new BasicDBObject("$in", values)));
+		try {
+			while(cursor.hasNext()) {
+				items.add(cursor.next());
+			}
+		} finally {
+			cursor.close();
+		}
+		return items;
+	}
+	
+	/**
+	 * Bloom filter of the searchStrings of all entities, for telling without a query that a string
+	 *   is not an entity
+	 */
+	public BloomFilter buildSearchStringFilter(double falsePositiveRate) {
+		BloomFilter filter = new BloomFilter(getEntityCount(), falsePositiveRate);
+		DBCursor cursor = this.entities.find(new BasicDBObject(), new BasicDBObject("searchString", 1).append("_id", 0));
+		long count = 0;
+		try {
+			while(cursor.hasNext()) {
+				Object searchString = cursor.next().get("searchString");
+				if(searchString != null) {
+					filter.add(searchString.toString());
+					count++;
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		System.out.println("MongoWriter: Built searchString filter over " + count + " entities");
+		return filter;
+	}
+	
 	public void deleteEntity(String cleanName) {
 		this.entities.remove(new BasicDBObject("cleanName", cleanName));
 	}
@@ -0,0 +1,264 @@
+package writer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+import model.QueryDictionary;
+import model.SearchSession;
+import util.Varint;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes SearchSessions to a series of files as they are produced, instead of collecting a
+ *   whole batch in memory first. A new file is started once the current one holds maxSessions
+ *   sessions or has grown past maxBytes, whichever comes first.
+ * Files are named and numbered through BatchFileWriter, i.e. output-0.json, output-1.json, ...
+ *
+ * Formats, all readable one session at a time by reader.PreprocessedLogReader:
+ *   JSON	One JSON array of sessions per file, the layout the preprocessor has always written (.json)
+ *   JSONL	One compact JSON session per line (.jsonl)
+ *   BINARY	Length-prefixed binary records (.bin). After the magic number, every record is
+ *			varint payload length, then the payload:
+ *				varint sessionId
+ *				zigzag varint start time, as a delta from the previous record's start time (epoch millis)
+ *				zigzag varint end time, as a delta from this record's start time
+ *				varint number of queries, then per query:
+ *					varint (queryId << 1 | isNew). Query ids are interned per file, and the first
+ *					occurrence of a query (isNew = 1) is followed by varint byte length + UTF-8 bytes
+ * @author Li Quan Khoo
+ *
+ */
+public class SessionStreamWriter {
+	
+	public enum Format {
+		JSON("json"),
+		JSONL("jsonl"),
+		BINARY("bin");
+		
+		private String fileExtension;
+		
+		private Format(String fileExtension) {
+			this.fileExtension = fileExtension;
+		}
+		
+		public String getFileExtension() {
+			return this.fileExtension;
+		}
+	}
+	
+	public static final int BINARY_MAGIC = 0x51435331; // "QCS1"
+	
+	public static final int DEFAULT_MAX_SESSIONS = 100000;
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	public static final String DEFAULT_FILE_NAME = "output";
+	public static final Charset CHARSET = Charset.forName(BatchFileWriter.DEFAULT_ENCODING);
+	
+	private BatchFileWriter batchFileWriter;
+	private Format format;
+	private String fileName;
+	private int maxSessions;
+	private long maxBytes;
+	private boolean prettyPrinting;
+	private Gson gson;
+	
+	// Current file
+	private File file;
+	private CountingOutputStream countingStream;
+	private Writer textWriter;
+	private JsonWriter jsonWriter;
+	private DataOutputStream binaryOut;
+	private int sessionCount;
+	
+	// Binary format state of the current file
+	private HashMap<Integer, Integer> queryIds; // QueryDictionary id -> file-local query id
+	private long previousStart;
+	private byte[] recordBuffer;
+	private byte[] lengthBuffer = new byte[10]; // varint length prefix of a binary record
+	
+	public SessionStreamWriter(String outputDir) {
+		this(outputDir, DEFAULT_MAX_SESSIONS, DEFAULT_MAX_BYTES, Format.JSON);
+	}
+	
+	public SessionStreamWriter(String outputDir, int maxSessions, long maxBytes) {
+		this(outputDir, maxSessions, maxBytes, Format.JSON);
+	}
+	
+	public SessionStreamWriter(String outputDir, int maxSessions, long maxBytes, Format format) {
+		this.batchFileWriter = new BatchFileWriter(outputDir, format.getFileExtension());
+		this.format = format;
+		this.fileName = DEFAULT_FILE_NAME;
+		this.maxSessions = maxSessions;
+		this.maxBytes = maxBytes;
+		this.prettyPrinting = true;
+		this.gson = SearchSession.gson();
+		this.countingStream = null;
+		this.recordBuffer = new byte[1024];
+	}
+	
+	// Only affects the JSON format
+	public void setPrettyPrinting(boolean prettyPrinting) {
+		this.prettyPrinting = prettyPrinting;
+	}
+	
+	public void write(SearchSession session) {
+		try {
+			if(this.countingStream == null) {
+				open();
+			}
+			switch(this.format) {
+			case JSON:
+				this.gson.toJson(session, SearchSession.class, this.jsonWriter);
+				break;
+			case JSONL:
+				this.gson.toJson(session, SearchSession.class, this.textWriter);
+				this.textWriter.write('\n');
+				break;
+			case BINARY:
+				writeBinary(session);
+				break;
+			}
+			this.sessionCount++;
+			if(this.sessionCount >= this.maxSessions || this.countingStream.getCount() >= this.maxBytes) {
+				close();
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR: IO Exception writing file " + this.file.getName() + ".");
+		}
+	}
+	
+	/**
+	 * Finishes the current file, if any. The next write() starts a new one.
+	 */
+	public void close() {
+		if(this.countingStream == null) {
+			return;
+		}
+		try {
+			switch(this.format) {
+			case JSON:
+				this.jsonWriter.endArray();
+				this.jsonWriter.close();
+				break;
+			case JSONL:
+				this.textWriter.close();
+				break;
+			case BINARY:
+				this.binaryOut.close();
+				break;
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR: IO Exception writing file " + this.file.getName() + ".");
+		}
+		this.countingStream = null;
+		this.textWriter = null;
+		this.jsonWriter = null;
+		this.binaryOut = null;
+		this.queryIds = null;
+	}
+	
+	private void open() throws IOException {
+		this.file = this.batchFileWriter.nextFile(this.fileName);
+		this.countingStream = new CountingOutputStream(new FileOutputStream(this.file));
+		OutputStream out = new BufferedOutputStream(this.countingStream, 1 << 16);
+		switch(this.format) {
+		case JSON:
+			this.jsonWriter = new JsonWriter(new OutputStreamWriter(out, BatchFileWriter.DEFAULT_ENCODING));
+			if(this.prettyPrinting) {
+				this.jsonWriter.setIndent("  ");
+			}
+			this.jsonWriter.beginArray();
+			break;
+		case JSONL:
+			this.textWriter = new OutputStreamWriter(out, BatchFileWriter.DEFAULT_ENCODING);
+			break;
+		case BINARY:
+			this.binaryOut = new DataOutputStream(out);
+			this.binaryOut.writeInt(BINARY_MAGIC);
+			this.queryIds = new HashMap<Integer, Integer>();
+			this.previousStart = 0;
+			break;
+		}
+		this.sessionCount = 0;
+	}
+	
+	private void writeBinary(SearchSession session) throws IOException {
+		long start = session.getSessionStart() == null ? 0 : session.getSessionStart().getTime();
+		long end = session.getSessionEnd() == null ? start : session.getSessionEnd().getTime();
+		
+		int offset = 0;
+		offset = Varint.write(session.getSessionId(), ensureCapacity(offset, 10), offset);
+		offset = Varint.write(Varint.zigzag(start - this.previousStart), ensureCapacity(offset, 10), offset);
+		offset = Varint.write(Varint.zigzag(end - start), ensureCapacity(offset, 10), offset);
+		offset = Varint.write(session.getQueryCount(), ensureCapacity(offset, 10), offset);
+		for(int i = 0; i < session.getQueryCount(); i++) {
+			int dictionaryId = session.getQueryId(i);
+			Integer queryId = this.queryIds.get(dictionaryId);
+			if(queryId != null) {
+				offset = Varint.write((long) queryId << 1, ensureCapacity(offset, 10), offset);
+			} else {
+				queryId = this.queryIds.size();
+				this.queryIds.put(dictionaryId, queryId);
+				byte[] bytes = QueryDictionary.getDefault().getQuery(dictionaryId).getBytes(CHARSET);
+				offset = Varint.write(((long) queryId << 1) | 1, ensureCapacity(offset, 10), offset);
+				offset = Varint.write(bytes.length, ensureCapacity(offset, 10), offset);
+				System.arraycopy(bytes, 0, ensureCapacity(offset, bytes.length), offset, bytes.length);
+				offset += bytes.length;
+			}
+		}
+		this.previousStart = start;
+		
+		this.binaryOut.write(this.lengthBuffer, 0, Varint.write(offset, this.lengthBuffer, 0));
+		this.binaryOut.write(this.recordBuffer, 0, offset);
+	}
+	
+	// Grows the record buffer so that it can take extra more bytes at offset
+	private byte[] ensureCapacity(int offset, int extra) {
+		if(offset + extra > this.recordBuffer.length) {
+			byte[] newBuffer = new byte[Math.max(this.recordBuffer.length * 2, offset + extra)];
+			System.arraycopy(this.recordBuffer, 0, newBuffer, 0, offset);
+			this.recordBuffer = newBuffer;
+		}
+		return this.recordBuffer;
+	}
+	
+	/*
+	 * Counts the bytes that have reached the file. Trails the true size by whatever is still buffered
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		
+		private long count;
+		
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+			this.count = 0;
+		}
+		
+		public long getCount() {
+			return this.count;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+	
+}